@@ -25,23 +25,34 @@
 
 package de.sciss.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
-import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -60,6 +71,8 @@ import java.util.Map;
  *  NeXT/Sun (.au), WAVE, and Wave64. Supported resolutions are
  *  8/16/24/32 bit integer and 32/64 bit floating point.
  *  However not all audio formats support all bit depths.
+ *	Further sample encodings can be plugged in through
+ *	<code>SampleCodec.addProvider</code>.
  *  <p>
  *	Not all format combinations are supported, for example
  *	the rather exotic little-endian AIFF, but also
@@ -71,7 +84,9 @@ import java.util.Map;
  *  <p>
  *  To create a new <code>AudioFile</code> you call
  *  one of its static methods <code>openAsRead</code> or
- *  <code>openAsWrite</code>. The format description
+ *  <code>openAsWrite</code>. Besides files, these accept
+ *	non-seekable streams and byte buffers holding the whole
+ *	sound file in memory. The format description
  *  is handled by an <code>AudioFileDescr</code> object.
  *	This object also contains information about what special
  *	tags are read/written for which format. For example,
@@ -89,31 +104,68 @@ import java.util.Map;
  *  @version	0.38, 26-Jun-09
  *
  *  @see		AudioFileDescr
+ *  @see		SampleCodec
  */
 public class AudioFile
 implements InterleavedStreamFile
 {
-    private static final int MODE_READONLY   = 0;
-    private static final int MODE_READWRITE  = 1;
+    private static final int MODE_READONLY       = 0;
+    private static final int MODE_READWRITE      = 1;
+    private static final int MODE_MAPPED         = 2;
+    private static final int MODE_STREAM_READ    = 3;
+    private static final int MODE_STREAM_WRITE   = 4;
 
-    protected final RandomAccessFile	raf;
-    protected final FileChannel			fch;
+    // size of the memory mapped windows in MODE_MAPPED
+    private static final long MAP_WINDOW_SIZE	= 0x4000000L;	// 64 MB
+
+    // size of the read buffer used for header parsing
+    private static final int HEADER_BUF_SIZE	= 8192;
+
+    // not final, because pooled files may close and reopen their handle
+    protected RandomAccessFile			raf;
+    protected FileChannel				fch;
     private final int					mode;
+    // the source in MODE_STREAM_READ and the sink in MODE_STREAM_WRITE.
+    // raf and fch are null then
+    private ReadableByteChannel			rch			= null;
+    private WritableByteChannel			wch			= null;
+    // the position of the header in a seekable sink, otherwise -1
+    private long						wchStart	= -1L;
 
     protected AudioFileDescr			afd;
     private AudioFileHeader				afh;
+    private final HeaderInput			hin			= new HeaderInput();
+    private final HeaderOutput			hout		= new HeaderOutput();
 
     protected ByteBuffer				byteBuf;
     private int							byteBufCapacity;
     protected int						bytesPerFrame;
     protected int						frameBufCapacity;
-    private BufferHandler				bh;
+    private SampleCodec.Provider		codecProvider;
+    private SampleCodec					bh;
     protected int						channels;
     private long						framePosition;
+    private float[]						interleavedBuf	= null;
+
+    private MappedByteBuffer			mapBuf		= null;
+    private long						mapStart;
+    private long						mapWindowSize;
 
     private long						updateTime;
     private long						updateLen;
-    private long						updateStep;
+    private DurabilityPolicy			durability	= DurabilityPolicy.DEFAULT;
+
+    private LiveOverview				liveOverview	= null;
+    private float[][]					overviewBuf		= null;
+
+    private BlockCache					blockCache		= null;
+    private Object						blockCacheID;
+
+    private AudioFilePool				pool			= null;
+
+    // true if opened through an AudioFileIndex
+    private boolean						markersRead		= false;
+    private boolean						seekPending		= false;
 
     private static final String			NAME_LOOP		= "loop";
     private static final String			NAME_MARK		= "mark";
@@ -146,6 +198,165 @@ implements InterleavedStreamFile
         return af;
     }
 
+    /**
+     *  Opens an audio file for reading, consulting an index of
+     *	parsed headers. If the index holds an entry for the file
+     *	with matching size and modification date, the header is not
+     *	parsed at all. Otherwise the header and markers are read and
+     *	the file is added to the index.
+     *	<p>
+     *	The returned description includes the markers, regions, loop,
+     *	gain and comment, thus <code>readMarkers</code> need not be called.
+     *
+     *  @param		f		the path name of the file
+     *	@param		index	the index to consult, or <code>null</code>
+     *  @return		a new <code>AudioFile</code> object
+     *				whose description is already complete
+     *
+     *  @throws IOException if the file was not found, could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	#openAsRead( File )
+     */
+    public static AudioFile openAsRead( File f, AudioFileIndex index )
+    throws IOException
+    {
+        if( index == null ) return openAsRead( f );
+
+        final AudioFileIndex.Entry	e	= index.lookup( f );
+        final AudioFile				af	= new AudioFile( f, MODE_READONLY );
+
+        try {
+            if( e != null ) {
+                af.afd		= e.createDescr( f );
+                af.afh		= af.new IndexedHeader( e );
+            } else {
+                af.afd		= new AudioFileDescr();
+                af.afd.file	= f;
+                af.afd.type	= af.retrieveType();
+                af.afh		= af.createHeader();
+                af.afh.readHeader( af.afd );
+                af.afh.readMarkers();
+                index.put( f, af.afd, af.afh.getSampleDataOffset(), af.afh.getByteOrder(), af.afh.isUnsignedPCM() );
+            }
+            af.markersRead	= true;
+            af.init();
+            af.seekFrame( 0 );
+        }
+        catch( IOException e1 ) {
+            af.raf.close();
+            throw e1;
+        }
+        return af;
+    }
+
+    /**
+     *  Opens an audio file for reading, using memory mapped
+     *	access to the sample data. Instead of reading each chunk
+     *	of frames through the file channel, large windows of the
+     *	sample data region are mapped into memory and decoded
+     *	directly. Windows are remapped as the file position moves,
+     *	so files larger than 2 GB are supported as well.
+     *	<p>
+     *	This mode is useful for repeated random access reads,
+     *	for example when scanning waveforms. Note that the
+     *	mapped windows are released by the garbage collector and
+     *	not immediately when the file is closed. Reading past the
+     *	end of the file causes an <code>EOFException</code>.
+     *
+     *  @param		f   the path name of the file
+     *  @return		a new read-only <code>AudioFile</code> object
+     *				whose header is already parsed
+     *
+     *  @throws IOException if the file was not found, could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	#openAsRead( File )
+     */
+    public static AudioFile openAsMappedRead( File f )
+    throws IOException
+    {
+        final AudioFile af	= new AudioFile( f, MODE_MAPPED );
+        af.afd				= new AudioFileDescr();
+        af.afd.file			= f;
+        af.afd.type			= af.retrieveType();
+        af.afh				= af.createHeader();
+        af.afh.readHeader( af.afd );
+        af.init();
+        af.seekFrame( 0 );
+        return af;
+    }
+
+    /**
+     *  Opens an audio stream for reading. The stream need not
+     *	be seekable, it may for example be a pipe, a socket or the
+     *	output of a decompressor. The header is parsed as the bytes
+     *	arrive, and is retained in memory so that markers and
+     *	application code can still be read afterwards. Chunks
+     *	which follow the sample data are not seen.
+     *	<p>
+     *	The sample frames must be read sequentially. <code>seekFrame</code>
+     *	may only skip forward, and positional reads as well as
+     *	block caches are not supported. If the header does not state
+     *	the number of frames, as is the case for IRCAM files and
+     *	streams written with open-ended headers, the <code>length</code>
+     *	field of the description is <code>-1</code>, and the frames should be read with
+     *	<code>readAvailableFrames</code> until the end of the stream is reached.
+     *	<p>
+     *	The channel should be in blocking mode. It is closed
+     *	when the audio file is closed, or if the header cannot be parsed.
+     *	The <code>file</code> field of the description is <code>null</code>.
+     *
+     *  @param		ch	the channel to read from
+     *  @return		a new <code>AudioFile</code> object
+     *				whose header is already parsed and can
+     *				be obtained through the <code>getDescr</code> method.
+     *
+     *  @throws IOException if the stream could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	#readAvailableFrames( float[][], int, int )
+     */
+    public static AudioFile openAsRead( ReadableByteChannel ch )
+    throws IOException
+    {
+        final AudioFile af	= new AudioFile( ch );
+        try {
+            af.afd			= new AudioFileDescr();
+            af.afd.type		= af.retrieveType();
+            af.afh			= af.createHeader();
+            af.afh.readHeader( af.afd );
+            af.init();
+            af.seekFrame( 0 );
+        }
+        catch( IOException e1 ) {
+            ch.close();
+            throw e1;
+        }
+        return af;
+    }
+
+    /**
+     *  Opens an audio stream for reading.
+     *	This is a convenience method which wraps the input
+     *	stream in a channel.
+     *
+     *  @param		in	the stream to read from. it is closed
+     *					when the audio file is closed
+     *  @return		a new <code>AudioFile</code> object
+     *				whose header is already parsed
+     *
+     *  @throws IOException if the stream could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	#openAsRead( ReadableByteChannel )
+     */
+    public static AudioFile openAsRead( InputStream in )
+    throws IOException
+    {
+        return openAsRead( Channels.newChannel( in ));
+    }
+
     /**
      *  Opens an audio file for reading/writing. The pathname
      *	is determined by the <code>file</code> field of the provided <code>AudioFileDescr</code>.
@@ -175,9 +386,137 @@ implements InterleavedStreamFile
         af.afh.writeHeader( af.afd );
         af.init();
         af.seekFrame( 0 );
-        af.updateStep		= (long) afd.rate * 20;
-        af.updateLen		= af.updateStep;
-        af.updateTime		= System.currentTimeMillis() + 10000;
+        af.scheduleUpdate();
+        return af;
+    }
+
+    /**
+     *  Opens an audio stream for writing. The stream need not be
+     *	seekable, it may for example be a pipe to an encoder or a socket.
+     *	The header is written immediately, as in <code>openAsWrite( AudioFileDescr )</code>,
+     *	except that the <code>file</code> field of the description is ignored.
+     *	Since the header cannot be updated while writing, its length fields
+     *	denote an unknown length (<code>0xFFFFFFFF</code> for WAVE and AIFF, <code>~0</code>
+     *	for SND). The frames must be written sequentially.
+     *	<p>
+     *	If the channel is a <code>FileChannel</code> supporting positional writes,
+     *	the header is updated with the actual lengths when the audio file is
+     *	closed. Note that a file opened in append mode does not qualify.
+     *	The channel is closed when the audio file is closed.
+     *	<p>
+     *	Streams can be written in AIFF, IRCAM, SND, WAVE and raw format.
+     *
+     *  @param  afd format and resolution of the new audio stream
+     *	@param	ch	the channel to write to
+     *  @return	a new <code>AudioFile</code> object
+     *
+     *  @throws IOException if the header could not be written or the
+     *						format is unsupported
+     */
+    public static AudioFile openAsWrite( AudioFileDescr afd, WritableByteChannel ch )
+    throws IOException
+    {
+        final AudioFile af	= new AudioFile( ch );
+        try {
+            af.afd			= afd;
+            afd.length		= 0;
+            af.afh			= af.createHeader();
+            af.afh.writeHeader( af.afd );
+            af.afh.writeUnknownLength();
+            af.init();
+            af.hout.writeStream( ch, -1L );
+        }
+        catch( IOException e1 ) {
+            ch.close();
+            throw e1;
+        }
+        return af;
+    }
+
+    /**
+     *  Opens an audio stream for writing.
+     *	This is a convenience method which wraps the output
+     *	stream in a channel.
+     *
+     *  @param  afd format and resolution of the new audio stream
+     *  @param	out	the stream to write to. it is closed
+     *				when the audio file is closed
+     *  @return	a new <code>AudioFile</code> object
+     *
+     *  @throws IOException if the header could not be written or the
+     *						format is unsupported
+     *
+     *	@see	#openAsWrite( AudioFileDescr, WritableByteChannel )
+     */
+    public static AudioFile openAsWrite( AudioFileDescr afd, OutputStream out )
+    throws IOException
+    {
+        return openAsWrite( afd, Channels.newChannel( out ));
+    }
+
+    /**
+     *  Creates an audio file in memory. Apart from the storage, it
+     *	behaves exactly like a file created by <code>openAsWrite( AudioFileDescr )</code>,
+     *	so the content is a complete sound file image including the
+     *	header, which can be obtained through <code>getImage</code>.
+     *	The <code>file</code> field of the description is ignored.
+     *	<p>
+     *	The buffer is used as storage from index zero, regardless of its
+     *	position and limit. When it is exhausted, it is replaced by a buffer
+     *	of twice the size, which is a direct buffer if the given buffer is direct.
+     *	The size of the image is limited to 2 GB. Overviews of the
+     *	file are not stored in a cache manager.
+     *
+     *  @param  afd	format and resolution of the new audio file
+     *	@param	buf	the initial storage, e.g. <code>ByteBuffer.allocate( 65536 )</code>
+     *	@return	a new <code>AudioFile</code> object
+     *
+     *  @throws IOException if the format is unsupported
+     *
+     *	@see	#getImage()
+     *	@see	#openAsRead( ByteBuffer )
+     */
+    public static AudioFile openAsWrite( AudioFileDescr afd, ByteBuffer buf )
+    throws IOException
+    {
+        final AudioFile af	= new AudioFile( new MemoryFileChannel( buf, 0L, true ), MODE_READWRITE );
+        af.afd				= afd;
+        afd.length			= 0;
+        af.afh				= af.createHeader();
+        af.afh.writeHeader( af.afd );
+        af.init();
+        af.seekFrame( 0 );
+        af.scheduleUpdate();
+        return af;
+    }
+
+    /**
+     *  Opens a sound file image in memory for reading, for example
+     *	an image created by <code>openAsWrite( AudioFileDescr, ByteBuffer )</code>
+     *	or a file which was received as a whole. Apart from the storage,
+     *	it behaves exactly like a file opened by <code>openAsRead( File )</code>,
+     *	except that pools and block caches are not supported, and
+     *	overviews are not stored in a cache manager.
+     *
+     *  @param  image	the sound file, from the buffer's position to its limit.
+     *					the buffer is not modified, its content must not change
+     *					while the audio file is in use
+     *  @return	a new <code>AudioFile</code> object
+     *				whose header is already parsed
+     *
+     *  @throws IOException if the image has an unknown or unsupported format
+     */
+    public static AudioFile openAsRead( ByteBuffer image )
+    throws IOException
+    {
+        final ByteBuffer	b	= image.slice();
+        final AudioFile		af	= new AudioFile( new MemoryFileChannel( b, b.limit(), false ), MODE_READONLY );
+        af.afd					= new AudioFileDescr();
+        af.afd.type				= af.retrieveType();
+        af.afh					= af.createHeader();
+        af.afh.readHeader( af.afd );
+        af.init();
+        af.seekFrame( 0 );
         return af;
     }
 
@@ -200,6 +539,60 @@ implements InterleavedStreamFile
         return type;
     }
 
+    /**
+     *  Determines the type of audio file, consulting an index
+     *	of parsed headers. If the index holds an up-to-date entry
+     *	for the file, the file is not opened.
+     *
+     *  @param		f		the path name of the file
+     *	@param		index	the index to consult, or <code>null</code>
+     *  @return		the type code as defined in <code>AudioFileDescr</code>,
+     *				e.g. <code>TYPE_AIFF</code>. Returns <code>TYPE_UNKNOWN</code>
+     *				if the file could not be identified.
+     *
+     *  @throws IOException if the file could not be read
+     */
+    public static int retrieveType( File f, AudioFileIndex index )
+    throws IOException
+    {
+        final AudioFileIndex.Entry e = index == null ? null : index.lookup( f );
+
+        return( e != null ? e.getType() : retrieveType( f ));
+    }
+
+    /*
+     *	Parses a header without preparing the file for reading,
+     *	used by AudioFileScanner. Returns null if the type is unknown.
+     *	If an index is given, it is consulted first and the file is
+     *	added to it; markers are then always read.
+     */
+    protected static AudioFileDescr readDescr( File f, AudioFileIndex index, boolean markers )
+    throws IOException
+    {
+        if( index != null ) {
+            final AudioFileIndex.Entry e = index.lookup( f );
+            if( e != null ) return e.createDescr( f );
+        }
+
+        final AudioFile af = new AudioFile( f, MODE_READONLY );
+        try {
+            af.afd		= new AudioFileDescr();
+            af.afd.file	= f;
+            af.afd.type	= af.retrieveType();
+            if( af.afd.type == AudioFileDescr.TYPE_UNKNOWN ) return null;
+            af.afh		= af.createHeader();
+            af.afh.readHeader( af.afd );
+            if( markers || (index != null) ) af.afh.readMarkers();
+            if( index != null ) {
+                index.put( f, af.afd, af.afh.getSampleDataOffset(), af.afh.getByteOrder(), af.afh.isUnsignedPCM() );
+            }
+            return af.afd;
+        }
+        finally {
+            af.raf.close();
+        }
+    }
+
     private AudioFile( File f, int mode )
     throws IOException
     {
@@ -208,6 +601,32 @@ implements InterleavedStreamFile
         this.mode   = mode;
     }
 
+    // audio files in memory
+    private AudioFile( MemoryFileChannel ch, int mode )
+    {
+        fch			= ch;
+        this.mode	= mode;
+    }
+
+    private AudioFile( ReadableByteChannel ch )
+    {
+        rch			= ch;
+        this.mode	= MODE_STREAM_READ;
+    }
+
+    // pipes are file channels, too, but fail to report a position
+    private AudioFile( WritableByteChannel ch )
+    {
+        wch			= ch;
+        this.mode	= MODE_STREAM_WRITE;
+        if( ch instanceof FileChannel ) {
+            try {
+                wchStart = ((FileChannel) ch).position();
+            }
+            catch( IOException e1 ) { /* not seekable */ }
+        }
+    }
+
     /**
      *  Returns a description of the audio file's format.
      *  Fields which are guaranteed to be filled in, are
@@ -245,53 +664,50 @@ implements InterleavedStreamFile
         return afd.file;
     }
 
+    /**
+     *	Returns the content of an audio file in memory. If the file
+     *	is writable and not yet closed, the header is updated first,
+     *	so the image is always a complete sound file which can be
+     *	saved or passed to <code>openAsRead( ByteBuffer )</code>.
+     *	<p>
+     *	The returned buffer is a read-only view, positioned at
+     *	zero and limited to the size of the image. It reflects
+     *	subsequent modifications until the storage has to grow.
+     *
+     *	@return	the image of the sound file
+     *
+     *	@throws	IllegalStateException	if the audio file is not held in memory
+     *	@throws	IOException	if the header cannot be updated
+     *
+     *	@see	#openAsWrite( AudioFileDescr, ByteBuffer )
+     */
+    public ByteBuffer getImage()
+    throws IOException
+    {
+        if( !(fch instanceof MemoryFileChannel) ) throw new IllegalStateException();
+
+        if( (mode == MODE_READWRITE) && fch.isOpen() ) afh.updateHeader( afd );
+        return ((MemoryFileChannel) fch).getContent();
+    }
+
     private void init()
     throws IOException
     {
         channels		= afd.channels;
-        bytesPerFrame	= (afd.bitsPerSample >> 3) * channels;
+        codecProvider	= SampleCodec.getProvider( afd, afh.getByteOrder(), afh.isUnsignedPCM() );
+        if( codecProvider == null ) throw new IOException( getResourceString( "errAudioFileEncoding" ));
+        bytesPerFrame	= codecProvider.getFrameSize( afd, afh.getByteOrder(), afh.isUnsignedPCM() );
         frameBufCapacity= Math.max( 1, 65536 / Math.max( 1, bytesPerFrame ));
         byteBufCapacity = frameBufCapacity * bytesPerFrame;
         byteBuf			= ByteBuffer.allocateDirect( byteBufCapacity );
         byteBuf.order( afh.getByteOrder() );
-        bh				= null;
-
-        switch( afd.sampleFormat ) {
-        case AudioFileDescr.FORMAT_INT:
-            switch( afd.bitsPerSample ) {
-            case 8:			// 8 bit int
-                if( afh.isUnsignedPCM() ) {
-                    bh  = new UByteBufferHandler();
-                } else {
-                    bh  = new ByteBufferHandler();
-                }
-                break;
-            case 16:		// 16 bit int
-                bh  = new ShortBufferHandler();
-                break;
-            case 24:		// 24 bit int
-                if( afh.getByteOrder() == ByteOrder.BIG_ENDIAN ) {
-                    bh  = new ThreeByteBufferHandler();
-                } else {
-                    bh  = new ThreeLittleByteBufferHandler();
-                }
-                break;
-            case 32:		// 32 bit int
-                bh  = new IntBufferHandler();
-                break;
-            }
-            break;
-        case AudioFileDescr.FORMAT_FLOAT:
-            switch( afd.bitsPerSample ) {
-            case 32:		// 32 bit float
-                bh  = new FloatBufferHandler();
-                break;
-            case 64:		// 64 bit float
-                bh  = new DoubleBufferHandler();
-                break;
-            }
-        }
-        if( bh == null) throw new IOException( getResourceString( "errAudioFileEncoding" ));
+        bh				= createCodec( byteBuf );
+        mapWindowSize	= Math.max( 1, MAP_WINDOW_SIZE / Math.max( 1, bytesPerFrame )) * bytesPerFrame;
+    }
+
+    private SampleCodec createCodec( ByteBuffer buf )
+    {
+        return codecProvider.createCodec( afd, afh.getByteOrder(), afh.isUnsignedPCM(), buf );
     }
 
     private AudioFileHeader createHeader()
@@ -321,20 +737,20 @@ implements InterleavedStreamFile
     private int retrieveType()
     throws IOException
     {
-        long	len		= raf.length();
-        long	oldpos	= raf.getFilePointer();
+        long	len		= hin.length();
+        long	oldpos	= hin.getFilePointer();
         int		magic;
         int		type	= AudioFileDescr.TYPE_UNKNOWN;
 
         if( len < 4 ) return type;
 
-        raf.seek( 0L );
-        magic = raf.readInt();
+        hin.seek( 0L );
+        magic = hin.readInt();
         switch( magic ) {
         case AIFFHeader.FORM_MAGIC:					// -------- probably AIFF --------
             if( len < 12 ) break;
-            raf.readInt();
-            magic = raf.readInt();
+            hin.readInt();
+            magic = hin.readInt();
             switch( magic ) {
             case AIFFHeader.AIFC_MAGIC:
             case AIFFHeader.AIFF_MAGIC:
@@ -359,9 +775,11 @@ implements InterleavedStreamFile
             break;
 
         case WAVEHeader.RIFF_MAGIC:					// -------- probably WAVE --------
+        case WAVEHeader.RF64_MAGIC:
+        case WAVEHeader.BW64_MAGIC:
             if( len < 12 ) break;
-            raf.readInt();
-            magic = raf.readInt();
+            hin.readInt();
+            magic = hin.readInt();
             switch( magic ) {
             case WAVEHeader.WAVE_MAGIC:
                 type = AudioFileDescr.TYPE_WAVE;
@@ -371,13 +789,13 @@ implements InterleavedStreamFile
 
         case Wave64Header.RIFF_MAGIC1a:				// -------- probably Wave64 --------
             if( (len < 40) ||
-                (raf.readInt() != Wave64Header.RIFF_MAGIC1b) ||
-                (raf.readLong() != Wave64Header.RIFF_MAGIC2) ) break;
+                (hin.readInt() != Wave64Header.RIFF_MAGIC1b) ||
+                (hin.readLong() != Wave64Header.RIFF_MAGIC2) ) break;
 
-            raf.readLong(); // length
+            hin.readLong(); // length
 
-            if( (raf.readLong() == Wave64Header.WAVE_MAGIC1) &&
-                (raf.readLong() == Wave64Header.WAVE_MAGIC2) ) {
+            if( (hin.readLong() == Wave64Header.WAVE_MAGIC1) &&
+                (hin.readLong() == Wave64Header.WAVE_MAGIC2) ) {
                 type = AudioFileDescr.TYPE_WAVE64;
             }
             break;
@@ -386,7 +804,7 @@ implements InterleavedStreamFile
             break;
         }
 
-        raf.seek( oldpos );
+        hin.seek( oldpos );
         return type;
     }
 
@@ -399,6 +817,9 @@ implements InterleavedStreamFile
      *					the sample index and not the physical file pointer.
      *  @throws IOException when a seek error occurs or you try to
      *						seek past the file's end.
+     *	@throws	IllegalStateException	if the file was opened as a stream
+     *									and the frame lies before the current position,
+     *									or for output streams, differs from it
      */
     public void seekFrame( long frame )
     throws IOException
@@ -407,7 +828,18 @@ implements InterleavedStreamFile
 
         // XXX fch.force( true );
 
-        raf.seek( physical );
+        // corrupt headers may yield a negative data offset
+        if( physical < 0 ) throw new EOFException();
+
+        if( mode == MODE_STREAM_READ ) {
+            hin.skipStream( physical );
+        } else if( mode == MODE_STREAM_WRITE ) {
+            if( frame != framePosition ) throw new IllegalStateException();
+        } else if( pool != null ) {	// the handle may be closed, seek upon the next read
+            seekPending = true;
+        } else {
+            fch.position( physical );
+        }
         framePosition = frame;
     }
 
@@ -419,15 +851,71 @@ implements InterleavedStreamFile
      *	unless you pause writing for some time
      *	and want the file information to appear
      *	as accurate as possible.
+     *	<p>
+     *	Whether the file content is forced to the storage
+     *	device depends on the sync mode of the durability policy.
+     *	The header of a stream is not updated before it is closed.
+     *
+     *	@see	#setDurabilityPolicy( DurabilityPolicy )
      */
     public void flush()
     throws IOException
     {
-        updateTime	= System.currentTimeMillis() + 10000;
         afd.length	= framePosition;
+        if( mode == MODE_STREAM_WRITE ) return;
         afh.updateHeader( afd );
-        updateLen	= framePosition + updateStep;
-        fch.force( true );
+        scheduleUpdate();
+        sync();
+    }
+
+    /**
+     *	Sets the policy which determines how often
+     *	the header is updated and the file is synchronized
+     *	while writing. The default is <code>DurabilityPolicy.DEFAULT</code>.
+     *	The next update is scheduled relative to the current
+     *	position and time.
+     *
+     *	@param	policy	the new policy
+     */
+    public void setDurabilityPolicy( DurabilityPolicy policy )
+    {
+        durability = policy;
+        if( mode == MODE_READWRITE ) scheduleUpdate();
+    }
+
+    /**
+     *	Returns the policy which determines how often
+     *	the header is updated and the file is synchronized.
+     *
+     *	@return	the current durability policy
+     */
+    public DurabilityPolicy getDurabilityPolicy()
+    {
+        return durability;
+    }
+
+    private void scheduleUpdate()
+    {
+        final long frames	= durability.getFrameInterval( afd );
+        final long millis	= durability.getTimeInterval();
+
+        updateLen	= frames < 0 ? Long.MAX_VALUE : framePosition + frames;
+        updateTime	= millis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + millis;
+    }
+
+    private void sync()
+    throws IOException
+    {
+        switch( durability.getSyncMode() ) {
+        case DurabilityPolicy.SYNC_ALL:
+            fch.force( true );
+            break;
+        case DurabilityPolicy.SYNC_DATA:
+            fch.force( false );
+            break;
+        default:
+            break;
+        }
     }
 
     /**
@@ -464,38 +952,756 @@ implements InterleavedStreamFile
     public void readFrames( float[][] data, int offset, int length )
     throws IOException
     {
-        bh.readFrames( data, offset, length );
-        framePosition += length;
+        if( pool != null ) acquireHandle();
+        try {
+            if( blockCache != null ) {
+                readCached( framePosition, data, offset, length );
+                framePosition += length;
+            } else {
+                for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+                    chunkLength = Math.min( frameBufCapacity, length - i );
+                    bh.decodeFrames( readChunk( chunkLength ), data, offset + i, chunkLength );
+                    framePosition += chunkLength;
+                }
+            }
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
     }
 
     /**
-     *	Writes sample frames to the file starting at the current position.
-     *  If you write past the previous end of the file, the <code>length</code>
-     *  field of the internal <code>AudioFileDescr</code> is updated.
-     *  Since you get a reference from <code>getDescr</code> and not
-     *  a copy, using this reference to the description will automatically
-     *  give you the correct file length.
+     *	Reads up to <code>length</code> sample frames from the current
+     *	position. As opposed to <code>readFrames( float[][], int, int )</code>,
+     *	reaching the end of the file is not an error, instead
+     *	the number of frames actually read is returned. This is
+     *	the way to read streams of unknown length. When the end of
+     *	such a stream is reached, the <code>length</code> field of the
+     *	description is set to the number of frames read. An
+     *	incomplete frame at the end of a stream is ignored.
      *
-     *  @param  data	buffer holding the frames to write to harddisc.
-     *					the samples must be deinterleaved such that
-     *					data[0][] holds the first channel, data[1][]
-     *					holds the second channel etc.
-     *  @param  offset  offset in the buffer in sample frames, such
-     *					that he first frame of the first channel will
-     *					be read from data[0][offset] etc.
-     *  @param  length  number of continuous frames to write.
+     *  @param  data	buffer to hold the frames, deinterleaved
+     *					as in <code>readFrames( float[][], int, int )</code>
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  maximum number of frames to read
+     *	@return	the number of frames read, which is less than
+     *			<code>length</code> only at the end of the file,
+     *			or <code>-1</code> if the end had already been reached
      *
-     *  @throws IOException if a write error occurs.
+     *  @throws IOException if a read error occurs
+     *
+     *	@see	#openAsRead( ReadableByteChannel )
      */
-    public void writeFrames( float[][] data, int offset, int length )
+    public int readAvailableFrames( float[][] data, int offset, int length )
     throws IOException
     {
-        bh.writeFrames( data, offset, length );
-        framePosition += length;
+        if( length <= 0 ) return 0;
+
+        if( afd.length >= 0 ) {
+            length = (int) Math.min( length, afd.length - framePosition );
+            if( length <= 0 ) return -1;
+            if( mode != MODE_STREAM_READ ) {
+                readFrames( data, offset, length );
+                return length;
+            }
+        }
 
-        if( framePosition > afd.length ) {
-            if( (framePosition > updateLen) || (System.currentTimeMillis() > updateTime) ) {
-                flush();
+        int i = 0;
+        for( int chunkLength, n; i < length; i += n ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            byteBuf.rewind().limit( chunkLength * bytesPerFrame );
+            n = hin.readStream( byteBuf ) / bytesPerFrame;
+            if( n > 0 ) {
+                byteBuf.rewind();
+                bh.decodeFrames( byteBuf, data, offset + i, n );
+                framePosition += n;
+            }
+            if( n < chunkLength ) {		// end of stream
+                i		   += n;
+                afd.length	= framePosition;
+                break;
+            }
+        }
+        return( i == 0 ? -1 : i );
+    }
+
+    /**
+     *	Reads sample frames from a given position. As opposed to
+     *	<code>readFrames( float[][], int, int )</code>, this method
+     *	neither uses nor changes the current frame position, and
+     *	it does not touch any of the file's shared buffers. Instead,
+     *	positional channel reads are performed into scratch
+     *	buffers allocated per call. Therefore, multiple threads
+     *	may read concurrently from the same <code>AudioFile</code>
+     *	without any locking.
+     *	<p>
+     *	In memory mapped mode, positional reads still go through
+     *	the file channel and do not use the map windows. Files
+     *	opened as a stream do not support positional reads.
+     *
+     *	@param	position	the frame index at which to start reading
+     *  @param  data		buffer to hold the frames read from harddisc,
+     *						deinterleaved as in <code>readFrames( float[][], int, int )</code>.
+     *						null channel arrays are skipped.
+     *  @param  offset		offset in the buffer in sample frames
+     *  @param  length		number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     *	@throws	IllegalStateException	if the file was opened as a stream
+     *
+     *	@see	#readFrames( float[][], int, int )
+     */
+    public void readFrames( long position, float[][] data, int offset, int length )
+    throws IOException
+    {
+        if( mode == MODE_STREAM_READ ) throw new IllegalStateException();
+        if( length <= 0 ) return;
+
+        if( pool != null ) acquireHandle();
+        try {
+            if( blockCache != null ) {
+                readCached( position, data, offset, length );
+            } else {
+                readFramesAt( position, data, offset, length );
+            }
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    private void readFramesAt( long position, float[][] data, int offset, int length )
+    throws IOException
+    {
+        final ByteBuffer	buf			= ByteBuffer.allocate( Math.min( frameBufCapacity, length ) * bytesPerFrame );
+        final SampleCodec	h;
+        long				physical	= afh.getSampleDataOffset() + position * bytesPerFrame;
+        int					n;
+
+        buf.order( afh.getByteOrder() );
+        h = createCodec( buf );
+
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            buf.rewind().limit( chunkLength * bytesPerFrame );
+            while( buf.hasRemaining() ) {
+                n = fch.read( buf, physical );
+                if( n < 0 ) throw new EOFException();
+                physical += n;
+            }
+            buf.rewind();
+            h.decodeFrames( buf, data, offset + i, chunkLength );
+        }
+    }
+
+    /**
+     *	Makes <code>readFrames( float[][], int, int )</code> and
+     *	<code>readFrames( long, float[][], int, int )</code> go through
+     *	a shared cache of decoded blocks. Blocks missing in the cache
+     *	are read and decoded in full (for all channels) and then added
+     *	to the cache. Other <code>AudioFile</code>s of the same sound
+     *	file using the same cache benefit from these blocks. The
+     *	remaining read methods are not affected.
+     *	<p>
+     *	The cache assumes that the sound file is not modified while
+     *	it is in use. A file that is modified and reopened is
+     *	recognized by its size and modification date.
+     *
+     *	@param	cache	the cache to use, for example <code>BlockCache.getDefault()</code>,
+     *					or <code>null</code> to read directly from the file again
+     *
+     *	@throws	IllegalStateException	if the file was opened for writing,
+     *									as a stream or in memory
+     *	@throws	IOException	if the file identity cannot be determined
+     */
+    public void setBlockCache( BlockCache cache )
+    throws IOException
+    {
+        if( ((mode != MODE_READONLY) && (mode != MODE_MAPPED)) || (raf == null) ) throw new IllegalStateException();
+
+        if( cache != null ) blockCacheID = BlockCache.createFileID( afd.file );
+        blockCache = cache;
+    }
+
+    /**
+     *	Returns the block cache used by this file.
+     *
+     *	@return	the cache or <code>null</code> if no cache is used
+     */
+    public BlockCache getBlockCache()
+    {
+        return blockCache;
+    }
+
+    private void readCached( long position, float[][] data, int offset, int length )
+    throws IOException
+    {
+        final BlockCache	cache		= blockCache;
+        final Object		id			= blockCacheID;
+        final int			blockSize	= cache.getBlockSize();
+        float[][]			blk;
+        float[]				b;
+        long				block;
+        int					blockOff;
+
+        if( position + length > afd.length ) throw new EOFException();
+
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            block		= position / blockSize;
+            blockOff	= (int) (position % blockSize);
+            chunkLength	= Math.min( length - i, blockSize - blockOff );
+            blk			= null;
+            for( int ch = 0; ch < channels; ch++ ) {
+                if( data[ ch ] == null ) continue;
+                b = cache.get( id, ch, block );
+                if( b == null ) {
+                    if( blk == null ) blk = fillCache( cache, id, block );
+                    b = blk[ ch ];
+                }
+                System.arraycopy( b, blockOff, data[ ch ], offset + i, chunkLength );
+            }
+            position += chunkLength;
+        }
+    }
+
+    private float[][] fillCache( BlockCache cache, Object id, long block )
+    throws IOException
+    {
+        final long		start	= block * cache.getBlockSize();
+        final int		len		= (int) Math.min( cache.getBlockSize(), afd.length - start );
+        final float[][]	blk		= new float[ channels ][ len ];
+
+        readFramesAt( start, blk, 0, len );
+        for( int ch = 0; ch < channels; ch++ ) {
+            cache.put( id, ch, block, blk[ ch ]);
+        }
+        return blk;
+    }
+
+    /*
+     *	Provides the raw bytes of the next numFrames frames
+     *	(at most frameBufCapacity), beginning at the current
+     *	frame position. In mapped mode, the returned buffer is
+     *	the current map window, otherwise the bytes are read
+     *	into byteBuf. Streams are read until the chunk is complete.
+     */
+    private ByteBuffer readChunk( int numFrames )
+    throws IOException
+    {
+        final int numBytes = numFrames * bytesPerFrame;
+
+        if( mode == MODE_MAPPED ) {
+            final long physical = afh.getSampleDataOffset() + framePosition * bytesPerFrame;
+            if( (mapBuf == null) || (physical < mapStart) ||
+                (physical + numBytes > mapStart + mapBuf.capacity()) ) {
+
+                remap( physical, numBytes );
+            }
+            final int pos = (int) (physical - mapStart);
+            mapBuf.limit( pos + numBytes );
+            mapBuf.position( pos );
+            return mapBuf;
+        }
+
+        byteBuf.rewind().limit( numBytes );
+        if( mode == MODE_STREAM_READ ) {
+            if( hin.readStream( byteBuf ) < numBytes ) throw new EOFException();
+        } else {
+            fch.read( byteBuf );
+        }
+        byteBuf.rewind();
+        return byteBuf;
+    }
+
+    private void remap( long physical, int minBytes )
+    throws IOException
+    {
+        final long size = Math.min( mapWindowSize, fch.size() - physical );
+
+        mapBuf = null;	// allow the old window to be collected
+        if( size < minBytes ) throw new EOFException();
+        mapBuf		= fch.map( FileChannel.MapMode.READ_ONLY, physical, size );
+        mapBuf.order( afh.getByteOrder() );
+        mapStart	= physical;
+    }
+
+    /**
+     *	Writes sample frames to the file starting at the current position.
+     *  If you write past the previous end of the file, the <code>length</code>
+     *  field of the internal <code>AudioFileDescr</code> is updated.
+     *  Since you get a reference from <code>getDescr</code> and not
+     *  a copy, using this reference to the description will automatically
+     *  give you the correct file length.
+     *
+     *  @param  data	buffer holding the frames to write to harddisc.
+     *					the samples must be deinterleaved such that
+     *					data[0][] holds the first channel, data[1][]
+     *					holds the second channel etc.
+     *  @param  offset  offset in the buffer in sample frames, such
+     *					that he first frame of the first channel will
+     *					be read from data[0][offset] etc.
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     */
+    public void writeFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            bh.encodeFrames( data, offset + i, chunkLength );
+            writeBuffer( byteBuf );
+        }
+        if( liveOverview != null ) liveOverview.process( data, offset, length );
+        framePosition += length;
+        updateLength();
+    }
+
+    /**
+     *	Writes sample frames to a given position. As opposed to
+     *	<code>writeFrames( float[][], int, int )</code>, this method
+     *	neither uses nor changes the current frame position, and
+     *	it does not touch any of the file's shared buffers, so that
+     *	multiple threads may write disjoint parts of the file concurrently.
+     *	<p>
+     *	The frames must lie within the length of the file, which
+     *	is usually established beforehand with <code>setFrameNum</code>.
+     *	The header is not updated, this happens when the file is
+     *	flushed or closed. A live overview is not supported.
+     *
+     *	@param	position	the frame index at which to start writing
+     *  @param  data		buffer holding the frames to write, deinterleaved
+     *						as in <code>writeFrames( float[][], int, int )</code>
+     *  @param  offset		offset in the buffer in sample frames
+     *  @param  length		number of continuous frames to write
+     *
+     *	@throws	IllegalStateException	if the file was not opened for writing,
+     *									or a live overview is enabled
+     *	@throws	IllegalArgumentException	if the frames exceed the file length
+     *  @throws IOException if a write error occurs
+     *
+     *	@see	#setFrameNum( long )
+     */
+    public void writeFrames( long position, float[][] data, int offset, int length )
+    throws IOException
+    {
+        if( (mode != MODE_READWRITE) || (liveOverview != null) ) throw new IllegalStateException();
+        if( (position < 0) || (position + length > afd.length) ) {
+            throw new IllegalArgumentException( new Span( position, position + length ).toString() );
+        }
+        if( length <= 0 ) return;
+
+        final ByteBuffer	buf			= ByteBuffer.allocate( Math.min( frameBufCapacity, length ) * bytesPerFrame );
+        final SampleCodec	h;
+        long				physical	= afh.getSampleDataOffset() + position * bytesPerFrame;
+
+        buf.order( afh.getByteOrder() );
+        h = createCodec( buf );
+
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            h.encodeFrames( data, offset + i, chunkLength );
+            while( buf.hasRemaining() ) {
+                physical += fch.write( buf, physical );
+            }
+        }
+    }
+
+    /**
+     *	Reads sample frames from the current position
+     *	in double precision. 32-bit integer and 64-bit floating
+     *	point files are decoded without the loss of precision
+     *	that the <code>float[][]</code> variant implies.
+     *
+     *  @param  data	buffer to hold the frames read from harddisc.
+     *					<code>data[ch]</code> holds the samples of
+     *					channel <code>ch</code>, <code>null</code>
+     *					entries are skipped.
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     */
+    public void readFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        if( pool != null ) acquireHandle();
+        try {
+            for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+                chunkLength = Math.min( frameBufCapacity, length - i );
+                bh.decodeFrames( readChunk( chunkLength ), data, offset + i, chunkLength );
+                framePosition += chunkLength;
+            }
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    /**
+     *	Writes double precision sample frames to the file starting
+     *	at the current position. Apart from the sample type, this
+     *	behaves exactly like <code>writeFrames( float[][], int, int )</code>.
+     *
+     *  @param  data	buffer holding the frames to write to harddisc.
+     *  @param  offset  offset in the buffer in sample frames
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     */
+    public void writeFrames( double[][] data, int offset, int length )
+    throws IOException
+    {
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            bh.encodeFrames( data, offset + i, chunkLength );
+            if( liveOverview != null ) feedOverview( byteBuf, chunkLength );
+            writeBuffer( byteBuf );
+        }
+        framePosition += length;
+        updateLength();
+    }
+
+    /**
+     *	Reads interleaved sample frames from the current position.
+     *	This avoids the deinterleaving step of the
+     *	<code>float[][]</code> variant, which is useful when
+     *	the frames are passed on in interleaved form anyway.
+     *
+     *  @param  data	buffer to hold the frames read from harddisc.
+     *					the samples are interleaved such that
+     *					data[ (offset + n) * channels + ch ] holds
+     *					frame n of channel ch
+     *  @param  offset  offset in the buffer in sample frames (not samples)
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     */
+    public void readFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        if( pool != null ) acquireHandle();
+        try {
+            readInterleaved( data, offset * channels, length );
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    /**
+     *	Reads interleaved sample frames from the current position
+     *	into a float buffer. The frames are put at the buffer's
+     *	position which is advanced by <code>length * channels</code>.
+     *	Array backed buffers are filled directly.
+     *
+     *  @param  data	buffer to hold the interleaved frames
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     *	@throws	BufferOverflowException	if the buffer has less space remaining
+     *									than <code>length * channels</code>
+     */
+    public void readFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        if( pool != null ) acquireHandle();
+        try {
+            final int numSamples = length * channels;
+
+            if( data.remaining() < numSamples ) throw new BufferOverflowException();
+
+            if( data.hasArray() ) {
+                readInterleaved( data.array(), data.arrayOffset() + data.position(), length );
+                data.position( data.position() + numSamples );
+            } else {
+                final float[] b = getInterleavedBuf();
+                for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+                    chunkLength = Math.min( frameBufCapacity, length - i );
+                    bh.decodeFrames( readChunk( chunkLength ), b, 0, chunkLength );
+                    data.put( b, 0, chunkLength * channels );
+                    framePosition += chunkLength;
+                }
+            }
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    /**
+     *	Reads the raw bytes of sample frames from the current position,
+     *	in the file's native sample encoding (see <code>getByteOrder</code>
+     *	and the <code>bitsPerSample</code> and <code>sampleFormat</code>
+     *	fields of the description). No conversion takes place at all.
+     *	The bytes are put at the buffer's position which is advanced
+     *	by <code>length</code> times the frame size in bytes.
+     *
+     *  @param  data	buffer to hold the raw frames
+     *  @param  length  number of continuous frames to read.
+     *
+     *  @throws IOException if a read error or end-of-file occurs.
+     *	@throws	BufferOverflowException	if the buffer has not enough space remaining
+     *
+     *	@see	#getByteOrder()
+     */
+    public void readFrames( ByteBuffer data, int length )
+    throws IOException
+    {
+        if( pool != null ) acquireHandle();
+        try {
+            final int numBytes = length * bytesPerFrame;
+
+            if( data.remaining() < numBytes ) throw new BufferOverflowException();
+
+            if( mode == MODE_MAPPED ) {
+                for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+                    chunkLength = Math.min( frameBufCapacity, length - i );
+                    data.put( readChunk( chunkLength ));
+                    framePosition += chunkLength;
+                }
+            } else {
+                final int oldLimit = data.limit();
+                data.limit( data.position() + numBytes );
+                try {
+                    if( mode == MODE_STREAM_READ ) {
+                        if( hin.readStream( data ) < numBytes ) throw new EOFException();
+                    } else {
+                        while( data.hasRemaining() ) {
+                            if( fch.read( data ) < 0 ) throw new EOFException();
+                        }
+                    }
+                }
+                finally {
+                    data.limit( oldLimit );
+                }
+                framePosition += length;
+            }
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    private void readInterleaved( float[] data, int sampleOff, int length )
+    throws IOException
+    {
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            bh.decodeFrames( readChunk( chunkLength ), data, sampleOff, chunkLength );
+            sampleOff	  += chunkLength * channels;
+            framePosition += chunkLength;
+        }
+    }
+
+    /**
+     *	Writes interleaved sample frames to the file starting at the
+     *	current position. Apart from the data layout, this
+     *	behaves exactly like <code>writeFrames( float[][], int, int )</code>.
+     *
+     *  @param  data	buffer holding the frames to write to harddisc.
+     *					the samples must be interleaved such that
+     *					data[ (offset + n) * channels + ch ] holds
+     *					frame n of channel ch
+     *  @param  offset  offset in the buffer in sample frames (not samples)
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     */
+    public void writeFrames( float[] data, int offset, int length )
+    throws IOException
+    {
+        writeInterleaved( data, offset * channels, length );
+    }
+
+    /**
+     *	Writes interleaved sample frames from a float buffer to the
+     *	file starting at the current position. The frames are
+     *	taken from the buffer's position which is advanced by
+     *	<code>length * channels</code>.
+     *
+     *  @param  data	buffer holding the interleaved frames
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     *	@throws	BufferUnderflowException	if the buffer has less samples remaining
+     *										than <code>length * channels</code>
+     */
+    public void writeFrames( FloatBuffer data, int length )
+    throws IOException
+    {
+        final int numSamples = length * channels;
+
+        if( data.remaining() < numSamples ) throw new BufferUnderflowException();
+
+        if( data.hasArray() ) {
+            writeInterleaved( data.array(), data.arrayOffset() + data.position(), length );
+            data.position( data.position() + numSamples );
+        } else {
+            final float[] b = getInterleavedBuf();
+            for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+                chunkLength = Math.min( frameBufCapacity, length - i );
+                data.get( b, 0, chunkLength * channels );
+                bh.encodeFrames( b, 0, chunkLength );
+                if( liveOverview != null ) feedOverview( byteBuf, chunkLength );
+                writeBuffer( byteBuf );
+            }
+            framePosition += length;
+            updateLength();
+        }
+    }
+
+    /**
+     *	Writes the raw bytes of sample frames to the file starting
+     *	at the current position. The bytes must already be in
+     *	the file's native sample encoding, no conversion takes place.
+     *	They are taken from the buffer's position which is advanced
+     *	by <code>length</code> times the frame size in bytes.
+     *
+     *  @param  data	buffer holding the raw frames
+     *  @param  length  number of continuous frames to write.
+     *
+     *  @throws IOException if a write error occurs.
+     *	@throws	BufferUnderflowException	if the buffer has not enough bytes remaining
+     *
+     *	@see	#getByteOrder()
+     */
+    public void writeFrames( ByteBuffer data, int length )
+    throws IOException
+    {
+        final int numBytes = length * bytesPerFrame;
+
+        if( data.remaining() < numBytes ) throw new BufferUnderflowException();
+
+        if( liveOverview != null ) {
+            final ByteBuffer src = data.duplicate();
+            src.order( afh.getByteOrder() );
+            for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+                chunkLength = Math.min( frameBufCapacity, length - i );
+                feedOverview( src, chunkLength );
+            }
+        }
+
+        final int oldLimit = data.limit();
+        data.limit( data.position() + numBytes );
+        try {
+            writeBuffer( data );
+        }
+        finally {
+            data.limit( oldLimit );
+        }
+        framePosition += length;
+        updateLength();
+    }
+
+    private void writeInterleaved( float[] data, int sampleOff, int length )
+    throws IOException
+    {
+        for( int i = 0, chunkLength; i < length; i += chunkLength ) {
+            chunkLength = Math.min( frameBufCapacity, length - i );
+            bh.encodeFrames( data, sampleOff, chunkLength );
+            if( liveOverview != null ) feedOverview( byteBuf, chunkLength );
+            writeBuffer( byteBuf );
+            sampleOff += chunkLength * channels;
+        }
+        framePosition += length;
+        updateLength();
+    }
+
+    // writes the remaining bytes at the current position
+    private void writeBuffer( ByteBuffer src )
+    throws IOException
+    {
+        final WritableByteChannel ch = mode == MODE_STREAM_WRITE ? wch : fch;
+
+        while( src.hasRemaining() ) ch.write( src );
+    }
+
+    // decodes encoded frames for the live overview. if src
+    // is byteBuf, it is rewound afterwards so it can be written
+    private void feedOverview( ByteBuffer src, int length )
+    throws IOException
+    {
+        if( overviewBuf == null ) overviewBuf = new float[ channels ][ frameBufCapacity ];
+        bh.decodeFrames( src, overviewBuf, 0, length );
+        if( src == byteBuf ) byteBuf.rewind();
+        liveOverview.process( overviewBuf, 0, length );
+    }
+
+    /**
+     *	Maintains a waveform overview of the frames written to this
+     *	file. The overview can be queried through <code>getOverview</code>
+     *	while recording, at a cost of some decoding and decimation per
+     *	<code>writeFrames</code> call. When the file is closed, the
+     *	overview is stored in the cache manager, so that it can be
+     *	obtained afterwards via <code>WaveformOverview.openCached</code>
+     *	without scanning the file again. Files without a <code>File</code>,
+     *	i.e. streams and files in memory, are not cached.
+     *	<p>
+     *	The overview assumes that frames are written sequentially
+     *	from the beginning of the file. Seeking back and overwriting
+     *	frames is not reflected.
+     *
+     *	@param	cm	the cache manager which receives the overview when
+     *				the file is closed, or <code>null</code> to use the
+     *				overview only while recording
+     *
+     *	@throws	IllegalStateException	if the file was not opened for writing,
+     *									frames have already been written,
+     *									or the overview is already enabled
+     *	@throws	IOException	if the temporary files cannot be created
+     *
+     *	@see	WaveformOverview#openCached( AudioFile, CacheManager )
+     */
+    public void enableOverview( CacheManager cm )
+    throws IOException
+    {
+        if( (mode != MODE_READWRITE) || (afd.length > 0) || (liveOverview != null) ) {
+            throw new IllegalStateException();
+        }
+        liveOverview = LiveOverview.create( afd, cm );
+    }
+
+    /**
+     *	Returns the overview of the frames written so far.
+     *	The overview becomes invalid once the file is closed.
+     *
+     *	@return	the overview or <code>null</code>, if
+     *			<code>enableOverview</code> was not called
+     */
+    public WaveformOverview getOverview()
+    {
+        return liveOverview;
+    }
+
+    private float[] getInterleavedBuf()
+    {
+        if( interleavedBuf == null ) {
+            interleavedBuf = new float[ frameBufCapacity * channels ];
+        }
+        return interleavedBuf;
+    }
+
+    /**
+     *	Returns the byte order in which the sample data
+     *	is stored. This is needed to interpret the raw
+     *	frames of <code>readFrames( ByteBuffer, int )</code>.
+     *
+     *	@return	the byte order of the sample data
+     */
+    public ByteOrder getByteOrder()
+    {
+        return afh.getByteOrder();
+    }
+
+    // called after frames were written and the frame position advanced
+    private void updateLength()
+    throws IOException
+    {
+        if( framePosition > afd.length ) {
+            if( (mode == MODE_STREAM_WRITE) || (framePosition > updateLen) ||
+                (System.currentTimeMillis() >= updateTime) ) {
+                flush();
             } else {
                 afd.length = framePosition;
             }
@@ -523,14 +1729,19 @@ implements InterleavedStreamFile
     public void setFrameNum( long frame )
     throws IOException
     {
+        if( fch == null ) throw new IllegalStateException();
+
         final long physical	= afh.getSampleDataOffset() + frame * bytesPerFrame;
 
-        raf.setLength( physical );
+        if( raf == null ) {
+            ((MemoryFileChannel) fch).setSize( physical );
+        } else {
+            raf.setLength( physical );
+        }
         if( framePosition > frame ) framePosition = frame;
         afd.length	= frame;
-//		updateTime	= System.currentTimeMillis() + 10000;
 //		afh.updateHeader( afd );
-//		updateLen	= framePosition + updateStep;
+//		scheduleUpdate();
     }
 
     /**
@@ -555,16 +1766,17 @@ implements InterleavedStreamFile
      *	The header information is immediately updated.
      *
      *	@throws	IOException	if truncation fails
+     *	@throws	IllegalStateException	if the file was opened as a stream
      */
     public void truncate()
     throws IOException
     {
+        if( fch == null ) throw new IllegalStateException();
         fch.truncate( fch.position() );
         if( framePosition != afd.length ) {
             afd.length	= framePosition;
-            updateTime	= System.currentTimeMillis() + 10000;
             afh.updateHeader( afd );
-            updateLen	= framePosition + updateStep;
+            scheduleUpdate();
         }
     }
 
@@ -574,6 +1786,14 @@ implements InterleavedStreamFile
      *	or any other class implementing the
      *	<code>InterleavedStreamFile</code> interface).
      *	Both files must have the same number of channels.
+     *	<p>
+     *	If the target is an <code>AudioFile</code> using exactly
+     *	the same sample encoding (sample format, resolution,
+     *	byte order and number of channels), the raw bytes are transferred
+     *	between the two sample data regions using
+     *	<code>FileChannel.transferTo</code>, without decoding and re-encoding.
+     *	This includes targets opened as a stream.
+     *	Otherwise frames are copied through an intermediate float buffer.
      *
      *	@param	target	to file to copy to from this audio file
      *	@param	length	the number of frames to copy. Reading
@@ -585,35 +1805,66 @@ implements InterleavedStreamFile
     public void copyFrames( InterleavedStreamFile target, long length )
     throws IOException
     {
-        int chunkLength;
-
-//		if( (target instanceof AudioFile) && ((AudioFile) target).bh.getClass().equals( this.bh.getClass() ) &&
-//			(((AudioFile) target).channels == this.channels) ) {
-//		
-//			while( length > 0 ) {
-//				chunkLength = Math.min( frameBufCapacity, length );
-//				byteBuf.clear();
-//					...
-//				byteBuf.flip();
-//				fch.write( byteBuf );
-//				length -= chunkLength;
-//			}
-//
-//		} else {
-            int			tempBufSize	= (int) Math.min( length, 8192 );
-            float[][]	tempBuf		= new float[ channels ][ tempBufSize ];
-
-            while( length > 0 ) {
-                chunkLength	= (int) Math.min( length, tempBufSize );
-                this.readFrames( tempBuf, 0, chunkLength );
-                target.writeFrames( tempBuf, 0, chunkLength );
-                length -= chunkLength;
-            }
-//		}
+        if( pool != null ) acquireHandle();
+        try {
+            int chunkLength;
+
+            if( (mode != MODE_STREAM_READ) && (target instanceof AudioFile) && (target != this) &&
+                hasSameEncoding( (AudioFile) target ) &&
+                (((AudioFile) target).liveOverview == null) ) {
+                copyRawFrames( (AudioFile) target, length );
+            } else {
+                int			tempBufSize	= (int) Math.min( length, 8192 );
+                float[][]	tempBuf		= new float[ channels ][ tempBufSize ];
+
+                while( length > 0 ) {
+                    chunkLength	= (int) Math.min( length, tempBufSize );
+                    this.readFrames( tempBuf, 0, chunkLength );
+                    target.writeFrames( tempBuf, 0, chunkLength );
+                    length -= chunkLength;
+                }
+            }
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    // compares the descriptions rather than the codecs, since
+    // providers may use one codec class for several encodings
+    private boolean hasSameEncoding( AudioFile af )
+    {
+        return( (af.afd.sampleFormat == this.afd.sampleFormat) &&
+                (af.afd.bitsPerSample == this.afd.bitsPerSample) &&
+                (af.afh.isUnsignedPCM() == this.afh.isUnsignedPCM()) &&
+                (af.afh.getByteOrder() == this.afh.getByteOrder()) &&
+                (af.channels == this.channels) && (af.bytesPerFrame == this.bytesPerFrame) );
+    }
+
+    // the target's channel position is its current frame position
+    // since it was set by seekFrame and is advanced by each write
+    private void copyRawFrames( AudioFile target, long length )
+    throws IOException
+    {
+        final WritableByteChannel dst = target.mode == MODE_STREAM_WRITE ? target.wch : target.fch;
+        long	physical	= afh.getSampleDataOffset() + framePosition * bytesPerFrame;
+        long	remaining	= length * bytesPerFrame;
+        long	n;
+
+        while( remaining > 0 ) {
+            n = fch.transferTo( physical, remaining, dst );
+            if( n <= 0 ) throw new EOFException();
+            physical  += n;
+            remaining -= n;
+        }
+        seekFrame( framePosition + length );
+        target.framePosition += length;
+        target.updateLength();
     }
 
     /**
-     *  Flushes and closes the file
+     *  Flushes and closes the file. If a live overview
+     *	was enabled, it is stored in its cache manager.
      *
      *  @throws IOException if an error occurs during buffer flush
      *						or closing the file.
@@ -621,12 +1872,51 @@ implements InterleavedStreamFile
     public void close()
     throws IOException
     {
-        if( mode == MODE_READWRITE ) {
-            fch.force( true );
-            afh.updateHeader( afd );
+        final LiveOverview lo = liveOverview;
+
+        liveOverview = null;
+        if( pool != null ) {
+            pool.remove( this );
+            pool = null;
         }
-        raf.close();
+        try {
+            if( mode == MODE_READWRITE ) {
+                afh.updateHeader( afd );
+                sync();
+            }
+            mapBuf = null;
+            if( mode == MODE_STREAM_READ ) {
+                rch.close();
+            } else if( mode == MODE_STREAM_WRITE ) {
+                closeStream();
+            } else if( raf == null ) {
+                fch.close();
+            } else {
+                raf.close();
+            }
+        }
+        catch( IOException e1 ) {
+            if( lo != null ) lo.dispose();
+            throw e1;
+        }
+        // after closing, so the cache info sees the final modification date
+        if( lo != null ) lo.persist( this );
+    }
 
+    // updates the header if the sink is seekable
+    private void closeStream()
+    throws IOException
+    {
+        try {
+            if( wchStart >= 0 ) {
+                afd.length = framePosition;
+                afh.updateHeader( afd );
+                hout.writeStream( wch, wchStart );
+            }
+        }
+        finally {
+            wch.close();
+        }
     }
 
     /**
@@ -659,566 +1949,524 @@ implements InterleavedStreamFile
     public void readMarkers()
     throws IOException
     {
-        afh.readMarkers();
+        if( pool != null ) acquireHandle();
+        try {
+            if( !markersRead ) afh.readMarkers();
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    /**
+     *  Reads application specific code into the audio file description
+     *  if there is such code. This method sets the <code>KEY_APPCODE</code>
+     *  property of the afd. The caller can check the <code>appCode</code>
+     *  field of the afd to ensure that potential app code is relevant to it.
+     *
+     *	@see	#getDescr()
+     *	@see	AudioFileDescr#KEY_APPCODE
+     *	@see	AudioFileDescr#appCode
+     *
+     *	@throws	IOException	if a read or parsing error occurs
+     */
+    public void readAppCode()
+    throws IOException
+    {
+        if( pool != null ) acquireHandle();
+        try {
+            afh.readAppCode();
+        }
+        finally {
+            if( pool != null ) pool.release( this );
+        }
+    }
+
+    // ---- handle pooling ----
+
+    // called by AudioFilePool when the file is added
+    protected void setPool( AudioFilePool pool )
+    {
+        if( (mode != MODE_READONLY) || (raf == null) ) throw new IllegalStateException();
+        this.pool	= pool;
+        seekPending	= true;
     }
 
     /**
-     *  Reads application specific code into the audio file description
-     *  if there is such code. This method sets the <code>KEY_APPCODE</code>
-     *  property of the afd. The caller can check the <code>appCode</code>
-     *  field of the afd to ensure that potential app code is relevant to it.
-     *
-     *	@see	#getDescr()
-     *	@see	AudioFileDescr#KEY_APPCODE
-     *	@see	AudioFileDescr#appCode
+     *	Returns the pool managing this file's handle.
      *
-     *	@throws	IOException	if a read or parsing error occurs
+     *	@return	the pool or <code>null</code> if the file
+     *			was not opened through a pool
      */
-    public void readAppCode()
+    public AudioFilePool getPool()
+    {
+        return pool;
+    }
+
+    // called by AudioFilePool with a use count of zero
+    protected void closeHandle()
     throws IOException
     {
-        afh.readAppCode();
+        raf.close();
     }
 
-    protected static final String getResourceString( String key )
+    // called by AudioFilePool. header and descr are kept,
+    // the file position is restored upon the next read
+    protected void reopenHandle()
+    throws IOException
     {
-        return IOUtil.getResourceString( key );
+        raf			= new RandomAccessFile( afd.file, "r" );
+        fch			= raf.getChannel();
+        seekPending	= true;
     }
 
-// -------- BufferHandler Klassen --------
+    private void acquireHandle()
+    throws IOException
+    {
+        pool.acquire( this );
+        if( seekPending ) {
+            seekPending = false;
+            raf.seek( afh.getSampleDataOffset() + framePosition * bytesPerFrame );
+        }
+    }
 
-    private abstract class BufferHandler
+    protected static final String getResourceString( String key )
     {
-        protected BufferHandler() { /* empty */ }
-        protected abstract void writeFrames( float[][] frames, int off, int len ) throws IOException;
-        protected abstract void readFrames( float[][] frames, int off, int len ) throws IOException;
+        return IOUtil.getResourceString( key );
     }
 
-    private class ByteBufferHandler
-    extends BufferHandler
+// -------- AudioFileHeader Klassen --------
+
+    /*
+     *	Header parsing used to go through the RandomAccessFile,
+     *	costing one system call per field. Instead, this reads
+     *	a whole block of the file at once and serves the DataInput
+     *	methods from that block. Seeking is free as long as the
+     *	new position lies within the block, otherwise the block
+     *	is refilled at the next read. Reads are positional, so
+     *	the channel's file pointer is never touched.
+     */
+    // in MODE_STREAM_READ, the block holds all bytes read from
+    // the beginning of the stream, so the header readers may
+    // seek back. the sample data is served first from the
+    // remainder of the block and then directly from the stream.
+    private class HeaderInput
+    implements DataInput
     {
-        private final byte[]	arrayBuf;
+        private byte[]		arr			= null;
+        private ByteBuffer	bb;
+        private long		bufStart	= 0L;
+        private int			bufLen		= 0;
+        private long		pos			= 0L;
+        private long		streamPos	= 0L;	// of the next sample data byte in MODE_STREAM_READ
+
+        protected HeaderInput() { /* empty */ }
+
+        // the length of a stream is unknown
+        protected long length()
+        throws IOException
+        {
+            return( mode == MODE_STREAM_READ ? Long.MAX_VALUE : fch.size() );
+        }
 
-        protected ByteBufferHandler()
+        protected long getFilePointer()
         {
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            return pos;
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        // like RandomAccessFile, so that corrupt chunk lengths
+        // fail with an IOException
+        protected void seek( long newPos )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            if( newPos < 0 ) throw new EOFException();
+            pos = newPos;
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F);
-                    }
+        // returns the index into arr at which n bytes at pos are available
+        private int ensure( int n )
+        throws IOException
+        {
+            if( mode == MODE_STREAM_READ ) {
+                if( pos + n > bufLen ) fill( pos + n );
+                final int idx = (int) pos;
+                pos += n;
+                return idx;
+            }
+            if( (pos < bufStart) || (pos + n > bufStart + bufLen) ) {
+                if( arr == null ) {
+                    arr	= new byte[ HEADER_BUF_SIZE ];
+                    bb	= ByteBuffer.wrap( arr );
+                }
+                bb.clear();
+                bufStart	= pos;
+                bufLen		= 0;
+                for( int i; bb.hasRemaining(); bufLen += i ) {
+                    i = fch.read( bb, bufStart + bufLen );
+                    if( i < 0 ) break;
                 }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+                if( bufLen < n ) throw new EOFException();
             }
+            final int idx = (int) (pos - bufStart);
+            pos += n;
+            return idx;
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        // appends stream bytes to the block until it reaches stop
+        private void fill( long stop )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ] / 0x7F;
-                    }
+            // bytes beyond the block may already have been consumed as sample data
+            if( (stop > Integer.MAX_VALUE) || (streamPos > bufLen) ) throw new EOFException();
+
+            // the block only grows with the bytes received, so that a
+            // corrupt chunk length does not allocate memory in advance
+            while( bufLen < stop ) {
+                if( (arr == null) || (bufLen == arr.length) ) {
+                    final int	newSize	= (int) Math.min( Integer.MAX_VALUE,
+                                            arr == null ? HEADER_BUF_SIZE : (long) arr.length << 1 );
+                    final byte[] newArr	= new byte[ newSize ];
+                    if( arr != null ) System.arraycopy( arr, 0, newArr, 0, bufLen );
+                    arr	= newArr;
+                    bb	= ByteBuffer.wrap( arr );
                 }
-                length -= chunkLength;
-                offset += chunkLength;
+                bb.limit( arr.length ).position( bufLen );
+                final int i = rch.read( bb );
+                if( i < 0 ) throw new EOFException();
+                bufLen += i;
             }
         }
-    }
-
-    // float to byte = f*0x7F+0x80 (-1 ... +1 becomes 0x01 to 0xFF)
-    // which is how libsndfile behaves
-    private class UByteBufferHandler
-    extends BufferHandler
-    {
-        private final byte[]	arrayBuf;
 
-        protected UByteBufferHandler()
+        /*
+         *	Reads sample data from a stream, beginning at streamPos.
+         *	Returns the number of bytes read, which is less than
+         *	requested only if the end of the stream was reached.
+         */
+        protected int readStream( ByteBuffer dst )
+        throws IOException
         {
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            final int start = dst.position();
+
+            if( streamPos < bufLen ) {
+                final int n = (int) Math.min( dst.remaining(), bufLen - streamPos );
+                dst.put( arr, (int) streamPos, n );
+                streamPos += n;
+            }
+            while( dst.hasRemaining() ) {
+                final int n = rch.read( dst );
+                if( n < 0 ) break;
+                streamPos += n;
+            }
+            return( dst.position() - start );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        // moves forward in the sample data of a stream by discarding bytes
+        protected void skipStream( long newPos )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F + 0x80);
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
-        }
-
-        protected void readFrames( float[][] frames, int offset, int length )
-        throws IOException
-        {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        if( arrayBuf[ i ] < 0 ) { // hmmm, java can't handle unsigned bytes
-                            b[ j ]	= (float) (0x80 + arrayBuf[ i ]) / 0x7F;
-                        } else {
-                            b[ j ]	= (float) (arrayBuf[ i ] - 0x80) / 0x7F;
-                        }
-                    }
+            if( newPos < streamPos ) throw new IllegalStateException();
+
+            if( streamPos < bufLen ) streamPos = Math.min( newPos, bufLen );
+            if( streamPos < newPos ) {
+                final ByteBuffer scratch = ByteBuffer.allocate( HEADER_BUF_SIZE );
+                while( streamPos < newPos ) {
+                    scratch.clear();
+                    if( newPos - streamPos < HEADER_BUF_SIZE ) scratch.limit( (int) (newPos - streamPos) );
+                    final int n = rch.read( scratch );
+                    if( n < 0 ) throw new EOFException();
+                    streamPos += n;
                 }
-                length -= chunkLength;
-                offset += chunkLength;
             }
         }
-    }
 
-    private class ShortBufferHandler
-    extends BufferHandler
-    {
-        private final ShortBuffer	viewBuf;
-        private final short[]		arrayBuf;
-
-        protected ShortBufferHandler()
+        public void readFully( byte[] b )
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asShortBuffer();
-            arrayBuf	= new short[ viewBuf.capacity() ];
+            readFully( b, 0, b.length );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public void readFully( byte[] b, int off, int len )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
-                    }
+            if( len == 0 ) return;
+            if( (len > HEADER_BUF_SIZE) && (mode != MODE_STREAM_READ) ) {	// bypass the block
+                final ByteBuffer dst = ByteBuffer.wrap( b, off, len );
+                while( dst.hasRemaining() ) {
+                    if( fch.read( dst, pos + dst.position() - off ) < 0 ) throw new EOFException();
                 }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+                pos += len;
+            } else {
+                final int idx = ensure( len );
+                System.arraycopy( arr, idx, b, off, len );
             }
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        public int skipBytes( int n )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            final long len = length();
+            if( n <= 0 || pos >= len ) return 0;
+            n	 = (int) Math.min( n, len - pos );
+            pos	+= n;
+            return n;
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ] / 0x7FFF;
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public boolean readBoolean()
+        throws IOException
+        {
+            return arr[ ensure( 1 )] != 0;
         }
-    }
 
-    /*
-     *  24bit big endian
-     */
-    private class ThreeByteBufferHandler
-    extends BufferHandler
-    {
-        private final byte[]		arrayBuf;
-        private final int			chStep = (channels - 1) * 3;
+        public byte readByte()
+        throws IOException
+        {
+            return arr[ ensure( 1 )];
+        }
 
-        protected ThreeByteBufferHandler()
+        public int readUnsignedByte()
+        throws IOException
         {
-            // note : it's *not* faster to use ByteBuffer.allocate()
-            // and ByteBuffer.array() than this implementation
-            // (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            return arr[ ensure( 1 )] & 0xFF;
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public short readShort()
         throws IOException
         {
-            int		i, j, k, m, ch, chunkLength;
-            float[]	b;
+            final int i = ensure( 2 );
+            return (short) ((arr[ i ] << 8) | (arr[ i + 1 ] & 0xFF));
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        k				= (int)  (b[ j ] * 0x7FFFFF);
-                        arrayBuf[ i++ ] = (byte) (k >> 16);
-                        arrayBuf[ i++ ] = (byte) (k >> 8);
-                        arrayBuf[ i++ ] = (byte)  k;
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
-        }
-
-        protected void readFrames( float[][] frames, int offset, int length )
-        throws IOException
-        {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        b[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
-                                          ((arrayBuf[ i++ ] & 0xFF) << 8) |
-                                           (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public int readUnsignedShort()
+        throws IOException
+        {
+            final int i = ensure( 2 );
+            return ((arr[ i ] & 0xFF) << 8) | (arr[ i + 1 ] & 0xFF);
         }
-    }
 
-    /*
-     *  24bit little endian
-     */
-    private class ThreeLittleByteBufferHandler
-    extends BufferHandler
-    {
-        private final byte[]		arrayBuf;
-        private final int			chStep = (channels - 1) * 3;
+        public char readChar()
+        throws IOException
+        {
+            return (char) readUnsignedShort();
+        }
 
-        protected ThreeLittleByteBufferHandler()
+        public int readInt()
+        throws IOException
         {
-            // note : it's *not* faster to use ByteBuffer.allocate()
-            // and ByteBuffer.array() than this implementation
-            // (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
-            arrayBuf	= new byte[ byteBuf.capacity() ];
+            final int i = ensure( 4 );
+            return (arr[ i ] << 24) | ((arr[ i + 1 ] & 0xFF) << 16) |
+                   ((arr[ i + 2 ] & 0xFF) << 8) | (arr[ i + 3 ] & 0xFF);
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public long readLong()
         throws IOException
         {
-            int		i, j, k, m, ch, chunkLength;
-            float[]	b;
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        k				= (int)  (b[ j ] * 0x7FFFFF);
-                        arrayBuf[ i++ ] = (byte)  k;
-                        arrayBuf[ i++ ] = (byte) (k >> 8);
-                        arrayBuf[ i++ ] = (byte) (k >> 16);
-                    }
-                }
-                byteBuf.clear();
-                byteBuf.put( arrayBuf, 0, m );
-                byteBuf.flip();
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
-        }
-
-        protected void readFrames( float[][] frames, int offset, int length )
-        throws IOException
-        {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
-
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * bytesPerFrame;
-                byteBuf.rewind().limit( m );
-                fch.read( byteBuf );
-                byteBuf.flip();
-                byteBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-                        b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
-                                          ((arrayBuf[ i++ ] & 0xFF) << 8) |
-                                           (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
-                    }
+        public float readFloat()
+        throws IOException
+        {
+            return Float.intBitsToFloat( readInt() );
+        }
+
+        public double readDouble()
+        throws IOException
+        {
+            return Double.longBitsToDouble( readLong() );
+        }
+
+        public String readLine()
+        throws IOException
+        {
+            final StringBuffer	sb	= new StringBuffer();
+            final long			len	= length();
+            int					c;
+
+            if( pos >= len ) return null;
+            while( pos < len ) {
+                c = readUnsignedByte();
+                if( c == '\n' ) break;
+                if( c == '\r' ) {
+                    if( (pos < len) && (readUnsignedByte() != '\n') ) pos--;
+                    break;
                 }
-                length -= chunkLength;
-                offset += chunkLength;
+                sb.append( (char) c );
             }
+            return sb.toString();
+        }
+
+        public String readUTF()
+        throws IOException
+        {
+            return DataInputStream.readUTF( this );
         }
     }
 
-    private class IntBufferHandler
-    extends BufferHandler
+    // the header writers' view of the file. files (including
+    // those in memory) are written directly, whereas the header of a stream is assembled in
+    // memory and then written as a whole. afterwards it is kept,
+    // so it can be updated and written again if the stream is seekable
+    private class HeaderOutput
+    implements DataOutput
     {
-        private final IntBuffer		viewBuf;
-        private final int[]			arrayBuf;
+        private final byte[]	scratch		= new byte[ 8 ];
+        private byte[]			arr			= null;
+        private int				bufLen		= 0;
+        private long			pos			= 0L;
+        private boolean			written		= false;
+
+        protected HeaderOutput() { /* empty */ }
 
-        protected IntBufferHandler()
+        // once the header of a stream is written, the length includes the sample data
+        protected long length()
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asIntBuffer();
-            arrayBuf	= new int[ viewBuf.capacity() ];
+            if( mode != MODE_STREAM_WRITE ) return fch.size();
+            return( written ? afh.getSampleDataOffset() + afd.length * bytesPerFrame : bufLen );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        protected long getFilePointer()
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            return( mode == MODE_STREAM_WRITE ? pos : fch.position() );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
-                    }
-                }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
+        protected void seek( long newPos )
+        throws IOException
+        {
+            if( mode == MODE_STREAM_WRITE ) {
+                pos = newPos;
+            } else {
+                fch.position( newPos );
             }
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        // writes the header of a stream to the given channel
+        protected void writeStream( WritableByteChannel ch, long position )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            final ByteBuffer src = ByteBuffer.wrap( arr == null ? new byte[ 0 ] : arr, 0, bufLen );
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ] / 0x7FFFFFFF;
-                    }
+            if( position < 0 ) {
+                while( src.hasRemaining() ) ch.write( src );
+            } else {
+                while( src.hasRemaining() ) {
+                    position += ((FileChannel) ch).write( src, position );
                 }
-                length -= chunkLength;
-                offset += chunkLength;
             }
+            written = true;
         }
-    }
 
-    private class FloatBufferHandler
-    extends BufferHandler
-    {
-        private final FloatBuffer	viewBuf;
-        private final float[]		arrayBuf;
+        public void write( byte[] b, int off, int len )
+        throws IOException
+        {
+            if( mode != MODE_STREAM_WRITE ) {
+                final ByteBuffer src = ByteBuffer.wrap( b, off, len );
+                while( src.hasRemaining() ) fch.write( src );
+                return;
+            }
+            final long stop = pos + len;
+            if( (arr == null) || (stop > arr.length) ) {
+                final byte[] newArr = new byte[ (int) Math.max( stop, arr == null ? 1024 : arr.length << 1 )];
+                if( arr != null ) System.arraycopy( arr, 0, newArr, 0, bufLen );
+                arr = newArr;
+            }
+            if( pos > bufLen ) Arrays.fill( arr, bufLen, (int) pos, (byte) 0 );
+            System.arraycopy( b, off, arr, (int) pos, len );
+            pos		= stop;
+            bufLen	= Math.max( bufLen, (int) stop );
+        }
 
-        protected FloatBufferHandler()
+        public void write( byte[] b )
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asFloatBuffer();
-            arrayBuf	= new float[ viewBuf.capacity() ];
+            write( b, 0, b.length );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public void write( int b )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            scratch[ 0 ] = (byte) b;
+            write( scratch, 0, 1 );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = b[ j ];
-                    }
-                }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public void writeBoolean( boolean v )
+        throws IOException
+        {
+            write( v ? 1 : 0 );
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        public void writeByte( int v )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            write( v );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= arrayBuf[ i ];
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public void writeShort( int v )
+        throws IOException
+        {
+            scratch[ 0 ] = (byte) (v >> 8);
+            scratch[ 1 ] = (byte) v;
+            write( scratch, 0, 2 );
         }
-    }
 
-    private class DoubleBufferHandler
-    extends BufferHandler
-    {
-        private final DoubleBuffer	viewBuf;
-        private final double[]		arrayBuf;
+        public void writeChar( int v )
+        throws IOException
+        {
+            writeShort( v );
+        }
 
-        protected DoubleBufferHandler()
+        public void writeInt( int v )
+        throws IOException
         {
-            byteBuf.clear();
-            viewBuf		= byteBuf.asDoubleBuffer();
-            arrayBuf	= new double[ viewBuf.capacity() ];
+            scratch[ 0 ] = (byte) (v >> 24);
+            scratch[ 1 ] = (byte) (v >> 16);
+            scratch[ 2 ] = (byte) (v >> 8);
+            scratch[ 3 ] = (byte) v;
+            write( scratch, 0, 4 );
         }
 
-        protected void writeFrames( float[][] frames, int offset, int length )
+        public void writeLong( long v )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            writeInt( (int) (v >> 32) );
+            writeInt( (int) v );
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        arrayBuf[ i ] = b[ j ];
-                    }
-                }
-                viewBuf.clear();
-                viewBuf.put( arrayBuf, 0, m );
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.write( byteBuf );
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public void writeFloat( float v )
+        throws IOException
+        {
+            writeInt( Float.floatToIntBits( v ));
         }
 
-        protected void readFrames( float[][] frames, int offset, int length )
+        public void writeDouble( double v )
         throws IOException
         {
-            int		i, j, m, ch, chunkLength;
-            float[]	b;
+            writeLong( Double.doubleToLongBits( v ));
+        }
 
-            while( length > 0 ) {
-                chunkLength = Math.min( frameBufCapacity, length );
-                m			= chunkLength * channels;
-                byteBuf.rewind().limit( chunkLength * bytesPerFrame );
-                fch.read( byteBuf );
-                viewBuf.clear();
-                viewBuf.get( arrayBuf, 0, m );
-                for( ch = 0; ch < channels; ch++ ) {
-                    b = frames[ ch ];
-                    if( b == null ) continue;
-                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
-                        b[ j ]	= (float) arrayBuf[ i ];
-                    }
-                }
-                length -= chunkLength;
-                offset += chunkLength;
-            }
+        public void writeBytes( String str )
+        throws IOException
+        {
+            final byte[] b = new byte[ str.length() ];
+            for( int i = 0; i < b.length; i++ ) b[ i ] = (byte) str.charAt( i );
+            write( b );
         }
-    }
 
-// -------- AudioFileHeader Klassen --------
+        public void writeChars( String str )
+        throws IOException
+        {
+            for( int i = 0; i < str.length(); i++ ) writeChar( str.charAt( i ));
+        }
+
+        public void writeUTF( String str )
+        throws IOException
+        {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            new DataOutputStream( os ).writeUTF( str );
+            write( os.toByteArray() );
+        }
+    }
 
     private abstract class AudioFileHeader
     {
@@ -1241,31 +2489,39 @@ implements InterleavedStreamFile
         // AIFF might overwrite this
         protected void readAppCode() throws IOException { /* empty */ }
 
+        // called after writeHeader for streams, which are not updated while
+        // writing. formats which cannot denote an unknown length throw an exception
+        protected void writeUnknownLength()
+        throws IOException
+        {
+            throw new IOException( getResourceString( "errAudioFileType" ));
+        }
+
         protected final int readLittleUShort()
         throws IOException
         {
-            final int i = raf.readUnsignedShort();
+            final int i = hin.readUnsignedShort();
             return( (i >> 8) | ((i & 0xFF) << 8) );
         }
 
         protected final int readLittleInt()
         throws IOException
         {
-            final int i = raf.readInt();
+            final int i = hin.readInt();
             return( ((i >> 24) & 0xFF) | ((i >> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24) );
         }
 
         protected final float readLittleFloat()
         throws IOException
         {
-            final int i = raf.readInt();
+            final int i = hin.readInt();
             return( Float.intBitsToFloat( ((i >> 24) & 0xFF) | ((i >> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24) ));
         }
 
         protected final long readLittleLong()
         throws IOException
         {
-            final long n = raf.readLong();
+            final long n = hin.readLong();
             return( ((n >> 56) & 0xFFL) |
                     ((n >> 40) & 0xFF00L) |
                     ((n >> 24) & 0xFF0000L) |
@@ -1279,19 +2535,19 @@ implements InterleavedStreamFile
         protected final void writeLittleShort( int i )
         throws IOException
         {
-            raf.writeShort( (i >> 8) | ((i & 0xFF) << 8) );
+            hout.writeShort( (i >> 8) | ((i & 0xFF) << 8) );
         }
 
         protected final void writeLittleInt( int i )
         throws IOException
         {
-            raf.writeInt( ((i >> 24) & 0xFF) | ((i >> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24) );
+            hout.writeInt( ((i >> 24) & 0xFF) | ((i >> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24) );
         }
 
         protected final void writeLittleLong( long n )
         throws IOException
         {
-            raf.writeLong( ((n >> 56) & 0xFFL) |
+            hout.writeLong( ((n >> 56) & 0xFFL) |
                            ((n >> 40) & 0xFF00L) |
                            ((n >> 24) & 0xFF0000L) |
                            ((n >> 8)  & 0xFF000000L) |
@@ -1301,16 +2557,28 @@ implements InterleavedStreamFile
                             (n << 56) );
         }
 
+        /*
+         *	Returns the number of frames for a header which does
+         *	not state the data length: -1 for streams, otherwise
+         *	as many frames as fit into the rest of the file.
+         */
+        protected final long openEndedLength( long dataOffset, int bpf )
+        throws IOException
+        {
+            if( mode == MODE_STREAM_READ ) return -1;
+            return( Math.max( 0L, hin.length() - dataOffset ) / bpf );
+        }
+
         protected final String readNullTermString()
         throws IOException
         {
             final StringBuffer	buf = new StringBuffer();
             byte				b;
 
-            b	= raf.readByte();
+            b	= hin.readByte();
             while( b != 0 ) {
                 buf.append( (char) b );
-                b	= raf.readByte();
+                b	= hin.readByte();
             }
             return buf.toString();
         }
@@ -1406,35 +2674,35 @@ implements InterleavedStreamFile
             byte[]			strBuf;
             boolean			comment			= false;
 
-            raf.readInt();		// FORM
-raf.readInt();
+            hin.readInt();		// FORM
+hin.readInt();
 // trust the file length more than 32 bit form field which breaks for > 2 GB (> 1 GB if using signed ints)
-len = raf.length() - 8;
-//			len		= (raf.readInt() + 1) & 0xFFFFFFFE;		// Laenge ohne FORM-Header (Dateilaenge minus 8)
-            isAIFC  = raf.readInt() == AIFC_MAGIC;
+len = hin.length() - 8;
+//			len		= (hin.readInt() + 1) & 0xFFFFFFFE;		// Laenge ohne FORM-Header (Dateilaenge minus 8)
+            isAIFC  = hin.readInt() == AIFC_MAGIC;
             len	   -= 4;
             chunkLen = 0;
 
             for( essentials = 2; (len > 0) && (essentials > 0); ) {
-                if( chunkLen != 0 ) raf.seek( raf.getFilePointer() + chunkLen );	// skip to next chunk
+                if( chunkLen != 0 ) hin.seek( hin.getFilePointer() + chunkLen );	// skip to next chunk
 
-                magic		= raf.readInt();
-                chunkLen	= (raf.readInt() + 1) & 0xFFFFFFFE;
+                magic		= hin.readInt();
+                chunkLen	= (hin.readInt() + 1) & 0xFFFFFFFE;
                 len		   -= chunkLen + 8;
 
                 switch( magic ) {
                 case COMM_MAGIC:
                     essentials--;
-                    descr.channels		= raf.readShort();	// # of channels
-                    commSmpNumOffset	= raf.getFilePointer();
-                    descr.length			= raf.readInt();	// # of samples
-                    descr.bitsPerSample	= raf.readShort();	// # of bits per sample
+                    descr.channels		= hin.readShort();	// # of channels
+                    commSmpNumOffset	= hin.getFilePointer();
+                    descr.length			= hin.readInt();	// # of samples
+                    descr.bitsPerSample	= hin.readShort();	// # of bits per sample
                     descr.sampleFormat	= AudioFileDescr.FORMAT_INT;   // default, AIFC will be dealt with later
 //					byteOrder			= ByteOrder.BIG_ENDIAN;   // default, AIFC will be dealt with later
 
                     // suckers never die. perhaps the most stupid data format to store a float:
-                    l1 					= raf.readLong();
-                    l2	 				= raf.readUnsignedShort();
+                    l1 					= hin.readLong();
+                    l2	 				= hin.readUnsignedShort();
                     l3	 				= l1 & 0x0000FFFFFFFFFFFFL;
                     i1					= ((int) (l1 >> 48) & 0x7FFF) - 0x3FFE;
 //					afd.rate			= (float) ((((double) l3 * Math.pow( 2.0, i1 - 48 )) +
@@ -1444,7 +2712,7 @@ len = raf.length() - 8;
 
                     chunkLen -= 18;
                     if( isAIFC ) {
-                        switch( raf.readInt() ) {
+                        switch( hin.readInt() ) {
                         case NONE_MAGIC:
                             break;
                         case in16_MAGIC:
@@ -1478,50 +2746,50 @@ len = raf.length() - 8;
                     break;
 
                 case INST_MAGIC:
-                    raf.readInt();		// char: MIDI Note, Detune, LowNote, HighNote
+                    hin.readInt();		// char: MIDI Note, Detune, LowNote, HighNote
 //					i1					= readInt();	// char: MIDI Note, Detune, LowNote, HighNote
 //					b1					= (byte) ((i1 & 0x00FF0000) >> 16);	// Detune in -50...50 Cent
 //											// MIDI-Note to Hz (69 = A4 = 440 Hz)
 //					stream.base			= (float) (440.0 * Math.pow( 2, ((float) (((i1 & 0x7F000000) >> 24) -
 //											69) + (float) b1 / 100.0f) / 12.0f ));
-                    i1					= raf.readInt();		// char velocityLo, char velocityHi, short gain [dB]
+                    i1					= hin.readInt();		// char velocityLo, char velocityHi, short gain [dB]
                     descr.setProperty( AudioFileDescr.KEY_GAIN,
                                      new Float( Math.exp( (double) (i1 & 0xFFFF) / 20 * Math.log( 10 ))));
-                    i1	 				= raf.readShort();		// Sustain-Loop: 0 = no loop, 1 = fwd, 2 = back
+                    i1	 				= hin.readShort();		// Sustain-Loop: 0 = no loop, 1 = fwd, 2 = back
                     loop				= i1 != 0;
-                    i1					= raf.readInt();		// Short Lp-Start-MarkerID, Short End-ID
+                    i1					= hin.readInt();		// Short Lp-Start-MarkerID, Short End-ID
                     loopStart			= (i1 >> 16) & 0xFFFF;
                     loopEnd				= i1 & 0xFFFF;
                     chunkLen -= 14;
                     break;
 
                 case MARK_MAGIC:
-                    markersOffset = raf.getFilePointer();		// read them out later
+                    markersOffset = hin.getFilePointer();		// read them out later
                     break;
 
                 case SSND_MAGIC:
                     essentials--;
-                    i1 = raf.readInt();			// sample data offset
-                    raf.readInt();
-                    sampleDataOffset = raf.getFilePointer() + i1;
+                    i1 = hin.readInt();			// sample data offset
+                    hin.readInt();
+                    sampleDataOffset = hin.getFilePointer() + i1;
                     chunkLen -= 8;
                     break;
 
                 case APPL_MAGIC:
                     strBuf		= new byte[ 4 ];
-                    raf.readFully( strBuf );		// App code
+                    hin.readFully( strBuf );		// App code
                     chunkLen   -= 4;
                     descr.appCode	= new String( strBuf );
-                    appCodeOff	= raf.getFilePointer();
+                    appCodeOff	= hin.getFilePointer();
                     appCodeLen	= chunkLen;
                     break;
 
                 case COMT_MAGIC:
-                    i1		  = raf.readShort();	// number of comments
+                    i1		  = hin.readShort();	// number of comments
                     chunkLen -= 2;
 commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
-                        raf.readInt();				// time stamp (ignore)
-                        i2	= raf.readInt();		// markerID << 16 | count
+                        hin.readInt();				// time stamp (ignore)
+                        i2	= hin.readInt();		// markerID << 16 | count
                         chunkLen -= 8;
                         if( (i2 != 0) && ((i2 >> 16) == 0) ) {		// ok, not empty and not linked to a marker
                             strBuf	  = new byte[ i2 ];
@@ -1530,11 +2798,11 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                             // ; PString wouldn't make sense anyway because we have
                             // the dedicated count field. Logic Pro 6 writes a PString
                             // but leaves count at zero, so this won't get read...
-                            raf.readFully( strBuf );
+                            hin.readFully( strBuf );
                             descr.setProperty( AudioFileDescr.KEY_COMMENT, new String( strBuf ));
                             if( (i2 & 1) == 1 ) {
                                 i2++;
-                                raf.readByte();
+                                hin.readByte();
                             }
                             chunkLen   -= i2;
                             comment		= true;
@@ -1543,7 +2811,7 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                         } else {
                             i2		  = (i2 + 1) & 0xFFFE;
                             chunkLen -= i2;
-                            raf.seek( raf.getFilePointer() + i2 );
+                            hin.seek( hin.getFilePointer() + i2 );
                         }
                     }
                     break;
@@ -1551,7 +2819,7 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                 case ANNO_MAGIC:
                     if( !comment ) {
                         strBuf		= new byte[ chunkLen ];
-                        raf.readFully( strBuf );
+                        hin.readFully( strBuf );
                         descr.setProperty( AudioFileDescr.KEY_COMMENT, new String( strBuf ));
                         chunkLen	= 0;
                         comment		= true;
@@ -1563,6 +2831,11 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                 } // switch( magic )
             } // for( essentials = 2; (len > 0) && (essentials > 0); )
             if( essentials > 0 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
+
+            // a sample number of 0xFFFFFFFF is written by streaming applications
+            if( descr.length == -1 ) {
+                descr.length = openEndedLength( sampleDataOffset, (descr.bitsPerSample >> 3) * descr.channels );
+            }
         }
 
         protected void writeHeader( AudioFileDescr descr )
@@ -1580,34 +2853,34 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
             boolean			lp;
 
             isAIFC = descr.sampleFormat == AudioFileDescr.FORMAT_FLOAT;	// floating point requires AIFC compression extension
-            raf.writeInt( FORM_MAGIC );
-            raf.writeInt( 0 );				// Laenge ohne FORM-Header (Dateilaenge minus 8); unknown now
-            raf.writeInt( isAIFC ? AIFC_MAGIC : AIFF_MAGIC );
+            hout.writeInt( FORM_MAGIC );
+            hout.writeInt( 0 );				// Laenge ohne FORM-Header (Dateilaenge minus 8); unknown now
+            hout.writeInt( isAIFC ? AIFC_MAGIC : AIFF_MAGIC );
 
             // FVER Chunk
             if( isAIFC ) {
-                raf.writeInt( FVER_MAGIC );
-                raf.writeInt( 4 );
-                raf.writeInt( AIFCVersion1 );
+                hout.writeInt( FVER_MAGIC );
+                hout.writeInt( 4 );
+                hout.writeInt( AIFCVersion1 );
             }
 
             // COMM Chunk
-            raf.writeInt( COMM_MAGIC );
-            pos = raf.getFilePointer();
-            raf.writeInt( 0 );				// not known yet
-            raf.writeShort( descr.channels );
-            commSmpNumOffset = raf.getFilePointer();
-            raf.writeInt( 0 );				// updated later
-            raf.writeShort( isAIFC ? 16 : descr.bitsPerSample );	// a quite strange convention ...
+            hout.writeInt( COMM_MAGIC );
+            pos = hout.getFilePointer();
+            hout.writeInt( 0 );				// not known yet
+            hout.writeShort( descr.channels );
+            commSmpNumOffset = hout.getFilePointer();
+            hout.writeInt( 0 );				// updated later
+            hout.writeShort( isAIFC ? 16 : descr.bitsPerSample );	// a quite strange convention ...
 
             // suckers never die.
             i2		= (descr.rate < 0.0) ? 128 : 0;
             d2		= Math.abs( descr.rate  );
             i1		= (int) (Math.log( d2 ) / Math.log( 2 ) + 16383.0) & 0xFFFF;
             d1		= d2 * (1 << (0x401E-i1));	// Math.pow( 2.0, 0x401E - i1 );
-            raf.writeShort( (((i2 | (i1 >> 8)) & 0xFF) << 8) | (i1 & 0xFF) );
-            raf.writeInt( (int) ((long) d1 & 0xFFFFFFFF) );
-            raf.writeInt( (int) ((long) ((d1 % 1.0) * 4294967296.0) & 0xFFFFFFFF) );
+            hout.writeShort( (((i2 | (i1 >> 8)) & 0xFF) << 8) | (i1 & 0xFF) );
+            hout.writeInt( (int) ((long) d1 & 0xFFFFFFFF) );
+            hout.writeInt( (int) ((long) ((d1 % 1.0) * 4294967296.0) & 0xFFFFFFFF) );
 
             if( isAIFC ) {
                 if( descr.bitsPerSample == 32 ) {
@@ -1617,30 +2890,30 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                     str = fl64_HUMAN;
                     i1	= fl64_MAGIC;
                 }
-                raf.writeInt( i1 );
-                raf.writeByte( str.length() );
-                raf.writeBytes( str );
+                hout.writeInt( i1 );
+                hout.writeByte( str.length() );
+                hout.writeBytes( str );
                 if( (str.length() & 1) == 0 ) {
-                    raf.writeByte( 0x00 );
+                    hout.writeByte( 0x00 );
 //				} else {
-//					raf.writeShort( 0x0000 );
+//					hout.writeShort( 0x0000 );
                 }
             }
             // ...chunk length update...
-            pos2 = raf.getFilePointer();
-            raf.seek( pos );
-            raf.writeInt( (int) (pos2 - pos - 4) );
-            raf.seek( pos2 );
+            pos2 = hout.getFilePointer();
+            hout.seek( pos );
+            hout.writeInt( (int) (pos2 - pos - 4) );
+            hout.seek( pos2 );
 
             // INST Chunk
-            raf.writeInt( INST_MAGIC );
-            raf.writeInt( 20 );
+            hout.writeInt( INST_MAGIC );
+            hout.writeInt( 20 );
 
 //			f1	= (float) (12 * Math.log( (double) stream.base / 440.0 ) / Constants.ln2);
 //			i1	= (int) (f1 + 0.5f);
 //			b1	= (byte) ((f1 - (float) i1) * 100.0f);
 //			writeInt( (((i1 + 69) & 0xFF) << 24) | ((int) b1 << 16) | 0x007F );	// char: MIDI Note, Detune, LowNote, HighNote
-            raf.writeInt( (69 << 24) | (0 << 16) | 0x007F );	// char: MIDI Note, Detune, LowNote, HighNote
+            hout.writeInt( (69 << 24) | (0 << 16) | 0x007F );	// char: MIDI Note, Detune, LowNote, HighNote
 
             // XXX the gain information could be updated in updateHeader()
             o = descr.getProperty( AudioFileDescr.KEY_GAIN );
@@ -1649,87 +2922,87 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
             } else {
                 i1  = 0;
             }
-            raf.writeInt( (0x007F << 16) | (i1 & 0xFFFF) );		// char velLo, char velHi, short gain [dB]
+            hout.writeInt( (0x007F << 16) | (i1 & 0xFFFF) );		// char velLo, char velHi, short gain [dB]
 
             region  = (Region) descr.getProperty( AudioFileDescr.KEY_LOOP );
             lp	= region != null;
-            raf.writeShort( lp ? 1 : 0 );					// No loop vs. loop forward
-            raf.writeInt( lp ? 0x00010002 : 0 );			// Sustain-Loop Markers
-            raf.writeShort( 0 );							// No release loop
-            raf.writeInt( 0 );
+            hout.writeShort( lp ? 1 : 0 );					// No loop vs. loop forward
+            hout.writeInt( lp ? 0x00010002 : 0 );			// Sustain-Loop Markers
+            hout.writeShort( 0 );							// No release loop
+            hout.writeInt( 0 );
 
             markers  = (List) descr.getProperty( AudioFileDescr.KEY_MARKERS );
             if( markers == null ) markers = Collections.EMPTY_LIST;
             // MARK Chunk
             if( lp || !markers.isEmpty() ) {
-                raf.writeInt( MARK_MAGIC );
-                pos = raf.getFilePointer();
-                raf.writeInt( 0 );				// not known yet
+                hout.writeInt( MARK_MAGIC );
+                pos = hout.getFilePointer();
+                hout.writeInt( 0 );				// not known yet
                 i1	= markers.size() + (lp ? 2 : 0);
-                raf.writeShort( i1 );
+                hout.writeShort( i1 );
                 i2	= 1;					// ascending marker ID
                 if( lp ) {
-                    raf.writeShort( i2++ );						// loop start ID
-                    raf.writeInt( (int) region.span.getStart() );	// sample offset
-                    raf.writeLong( 0x06626567206C7000L );		// Pascal style String: "beg lp"
-                    raf.writeShort( i2++ );
-                    raf.writeInt( (int) region.span.getStop() );
-                    raf.writeLong( 0x06656E64206C7000L );		// Pascal style String: "end lp"
+                    hout.writeShort( i2++ );						// loop start ID
+                    hout.writeInt( (int) region.span.getStart() );	// sample offset
+                    hout.writeLong( 0x06626567206C7000L );		// Pascal style String: "beg lp"
+                    hout.writeShort( i2++ );
+                    hout.writeInt( (int) region.span.getStop() );
+                    hout.writeLong( 0x06656E64206C7000L );		// Pascal style String: "end lp"
                 }
                 for( i1 = 0; i1 < markers.size(); i1++ ) {
-                    raf.writeShort( i2++ );
+                    hout.writeShort( i2++ );
                     marker = (Marker) markers.get( i1 );
-                    raf.writeInt( (int) marker.pos );
-//					raf.writeByte( (marker.name.length() + 1) & 0xFE );
-                    raf.writeByte( marker.name.length()  & 0xFF );
-                    raf.writeBytes( marker.name );
+                    hout.writeInt( (int) marker.pos );
+//					hout.writeByte( (marker.name.length() + 1) & 0xFE );
+                    hout.writeByte( marker.name.length()  & 0xFF );
+                    hout.writeBytes( marker.name );
                     if( (marker.name.length() & 1) == 0 ) {
-                        raf.writeByte( 0x00 );
+                        hout.writeByte( 0x00 );
 //					} else {
-//						raf.writeShort( 0x2000 );	// padding space + zero pad to even address
+//						hout.writeShort( 0x2000 );	// padding space + zero pad to even address
                     }
                 }
                 // ...chunk length update...
-                pos2 = raf.getFilePointer();
-                raf.seek( pos );
-                raf.writeInt( (int) (pos2 - pos - 4) );
-                raf.seek( pos2 );
+                pos2 = hout.getFilePointer();
+                hout.seek( pos );
+                hout.writeInt( (int) (pos2 - pos - 4) );
+                hout.seek( pos2 );
             }
 
             // COMT Chunk
             str = (String) descr.getProperty( AudioFileDescr.KEY_COMMENT );
             if( (str != null) && (str.length() > 0) ) {
-                raf.writeInt( COMT_MAGIC );
-                raf.writeInt( (11 + str.length()) & ~1 );
-                raf.writeShort( 1 );			// just one comment
+                hout.writeInt( COMT_MAGIC );
+                hout.writeInt( (11 + str.length()) & ~1 );
+                hout.writeShort( 1 );			// just one comment
                 // time stamp "seconds since 1904"; this stupid idea dies around 2030
                 // when 32bit unsigned will be overflowed
-                raf.writeInt( (int) (System.currentTimeMillis() + SECONDS_FROM_1904_TO_1970) );
-                raf.writeShort( 0 );			// no marker association
-                raf.writeShort( str.length() );	// count
-                raf.writeBytes( str );
+                hout.writeInt( (int) (System.currentTimeMillis() + SECONDS_FROM_1904_TO_1970) );
+                hout.writeShort( 0 );			// no marker association
+                hout.writeShort( str.length() );	// count
+                hout.writeBytes( str );
                 if( (str.length() & 1) == 1 ) {
-                    raf.writeByte( 0 );			// pad
+                    hout.writeByte( 0 );			// pad
                 }
             }
 
             // APPL Chunk
             strBuf	= (byte[]) descr.getProperty( AudioFileDescr.KEY_APPCODE );
             if( (descr.appCode != null) && (strBuf != null) ) {
-                raf.writeInt( APPL_MAGIC );
-                raf.writeInt( 4 + strBuf.length );
-                raf.write( descr.appCode.getBytes(), 0, 4 );
-                raf.write( strBuf );
-                if( strBuf.length % 2 == 1 ) raf.write( 0 ); // pad
+                hout.writeInt( APPL_MAGIC );
+                hout.writeInt( 4 + strBuf.length );
+                hout.write( descr.appCode.getBytes(), 0, 4 );
+                hout.write( strBuf );
+                if( strBuf.length % 2 == 1 ) hout.write( 0 ); // pad
             }
 
             // SSND Chunk (Header)
-            raf.writeInt( SSND_MAGIC );
-            ssndLengthOffset = raf.getFilePointer();
-            raf.writeInt( 8 );		// + stream.samples * frameLength );
-            raf.writeInt( 0 );		// sample
-            raf.writeInt( 0 );		// block size (?!)
-            sampleDataOffset = raf.getFilePointer();
+            hout.writeInt( SSND_MAGIC );
+            ssndLengthOffset = hout.getFilePointer();
+            hout.writeInt( 8 );		// + stream.samples * frameLength );
+            hout.writeInt( 0 );		// sample
+            hout.writeInt( 0 );		// block size (?!)
+            sampleDataOffset = hout.getFilePointer();
 
             updateHeader( descr );
         }
@@ -1737,26 +3010,40 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
         protected void updateHeader( AudioFileDescr descr )
         throws IOException
         {
-            final long oldPos	= raf.getFilePointer();
-            final long len		= raf.length();
+            final long oldPos	= hout.getFilePointer();
+            final long len		= hout.length();
             if( len == lastUpdateLength ) return;
 
             if( len >= formLengthOffset + 4 ) {
-                raf.seek( formLengthOffset );
-                raf.writeInt( (int) (len - 8) );								// FORM Chunk len
+                hout.seek( formLengthOffset );
+                hout.writeInt( (int) (len - 8) );								// FORM Chunk len
             }
             if( len >= commSmpNumOffset + 4 ) {
-                raf.seek( commSmpNumOffset );
-                raf.writeInt( (int) descr.length );								// COMM: Sample-Num
+                hout.seek( commSmpNumOffset );
+                hout.writeInt( (int) descr.length );								// COMM: Sample-Num
             }
             if( len >= ssndLengthOffset + 4 ) {
-                raf.seek( ssndLengthOffset );
-                raf.writeInt( (int) (len - (ssndLengthOffset + 4)) );			// SSND Chunk len
+                hout.seek( ssndLengthOffset );
+                hout.writeInt( (int) (len - (ssndLengthOffset + 4)) );			// SSND Chunk len
             }
-            raf.seek( oldPos );
+            hout.seek( oldPos );
             lastUpdateLength = len;
         }
 
+        protected void writeUnknownLength()
+        throws IOException
+        {
+            final long oldPos = hout.getFilePointer();
+            hout.seek( formLengthOffset );
+            hout.writeInt( 0xFFFFFFFF );			// FORM Chunk len
+            hout.seek( commSmpNumOffset );
+            hout.writeInt( 0xFFFFFFFF );			// COMM: Sample-Num
+            hout.seek( ssndLengthOffset );
+            hout.writeInt( 0xFFFFFFFF );			// SSND Chunk len
+            hout.seek( oldPos );
+            lastUpdateLength = 0L;
+        }
+
         protected long getSampleDataOffset()
         {
             return sampleDataOffset;
@@ -1776,17 +3063,17 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
 
             final List		markers;
             final byte[]	strBuf 		= new byte[ 64 ];	// to store the names
-            final long		oldPos		= raf.getFilePointer();
+            final long		oldPos		= hin.getFilePointer();
             int				essentials	= loop ? 2 : 0; 	// start+end for sustain-loop
 
             try {
-                raf.seek( markersOffset );
-                i1 = raf.readUnsignedShort();		// number of markers
+                hin.seek( markersOffset );
+                i1 = hin.readUnsignedShort();		// number of markers
                 markers = new ArrayList( i1 );
                 for( i = i1; i > 0; i-- ) {
-                    i3 = raf.readUnsignedShort();	// marker ID
-                    i2 = raf.readInt();				// marker position (sample offset)
-                    i1 = raf.readUnsignedByte();	// markerName String-len
+                    i3 = hin.readUnsignedShort();	// marker ID
+                    i2 = hin.readInt();				// marker position (sample offset)
+                    i1 = hin.readUnsignedByte();	// markerName String-len
                     if( loop && (i3 == loopStart) ) {
                         loopStart	= i2;
                         essentials--;
@@ -1795,14 +3082,14 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                         essentials--;
                     } else {
                         i3	 = Math.min( i1, strBuf.length );
-                        raf.readFully( strBuf, 0, i3 );
+                        hin.readFully( strBuf, 0, i3 );
                         i1	-= i3;
                         if( (i3 > 0) && (strBuf[ i3 - 1 ] == 0x20) ) {
                             i3--;	// ignore padding space created by Peak
                         }
                         markers.add( new Marker( i2, new String( strBuf, 0, i3 )));
                     }
-                    raf.seek( (raf.getFilePointer() + (i1 + 1)) & ~1 );
+                    hin.seek( (hin.getFilePointer() + (i1 + 1)) & ~1 );
                 }
                 afd.setProperty( AudioFileDescr.KEY_MARKERS, markers );
                 if( loop && essentials == 0 ) {
@@ -1810,7 +3097,7 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
                 }
             }
             finally {
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             }
         }
 
@@ -1819,11 +3106,11 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
         {
             if( appCodeOff > 0 ) {
                 final byte[]	strBuf = new byte[ appCodeLen ];
-                final long		oldPos = raf.getFilePointer();
-                raf.seek( appCodeOff );
-                raf.readFully( strBuf );
+                final long		oldPos = hin.getFilePointer();
+                hin.seek( appCodeOff );
+                hin.readFully( strBuf );
                 afd.setProperty( AudioFileDescr.KEY_APPCODE, strBuf );
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             } else {
                 afd.setProperty( AudioFileDescr.KEY_APPCODE, null );
             }
@@ -1874,6 +3161,8 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
     extends AbstractRIFFHeader
     {
         private static final int RIFF_MAGIC		= 0x52494646;	// 'RIFF'
+        private static final int RF64_MAGIC		= 0x52463634;	// 'RF64' (EBU Tech 3306)
+        private static final int BW64_MAGIC		= 0x42573634;	// 'BW64' (ITU-R BS.2088)
         private static final int WAVE_MAGIC		= 0x57415645;	// 'WAVE' (offset 8)
 
         // chunk identifiers
@@ -1883,6 +3172,8 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
         private static final int CUE_MAGIC		= 0x63756520;	// 'cue '
         private static final int SMPL_MAGIC		= 0x73616D6C;	// 'smpl'
         private static final int INST_MAGIC		= 0x696E7374;	// 'inst'
+        private static final int DS64_MAGIC		= 0x64733634;	// 'ds64'
+        private static final int JUNK_MAGIC		= 0x4A554E4B;	// 'JUNK'
 
         // embedded LIST (peak speak) / list (rest of the universe speak) format
         private static final int LIST_MAGIC		= 0x6C697374;	// 'list'
@@ -1892,32 +3183,55 @@ commentLp:			for( i = 0; !comment && (i < i1); i++ ) {
         private long		listMagicOff		= 0L;
         private long		listMagicLen		= 0L;
         private long		cueMagicOff			= 0L;
+        private long		ds64Offset			= 0L;
+        private boolean		rf64				= false;
         private static final long riffLengthOffset = 4L;
 
+        // size of the ds64 chunk without table, also reserved by the JUNK chunk
+        private static final int DS64_LENGTH	= 28;
+        // beyond this length, the 32-bit chunk sizes are replaced by the ds64 chunk
+        private static final long MAX_RIFF_LENGTH = 0xFFFFFFFFL;
+
         protected WAVEHeader() { /* empty */ }
 
         protected void readHeader( AudioFileDescr descr )
         throws IOException
         {
-            int		i, i1, i2, i3, chunkLen, essentials, magic, dataLen = 0, bpf = 0;
-            long	len;
-
-            raf.readInt();		// RIFF
-raf.readInt();
-len	= raf.length() - 8;
+            int		i, i1, i2, i3, essentials, magic, bpf = 0;
+            long	len, chunkLen, dataLen = 0, ds64DataLen = -1;
+            boolean	openEnded = false;
+
+            magic	= hin.readInt();		// RIFF, RF64 or BW64
+            rf64	= magic != RIFF_MAGIC;
+hin.readInt();
+len	= hin.length() - 8;
 //			len		= (readLittleInt() + 1) & 0xFFFFFFFE;		// Laenge ohne RIFF-Header (Dateilaenge minus 8)
-            raf.readInt();		// WAVE
+            hin.readInt();		// WAVE
             len	   -= 4;
             chunkLen = 0;
 
             for( essentials = 2; (len > 0) && (essentials > 0); ) {
-                if( chunkLen != 0 ) raf.seek( raf.getFilePointer() + chunkLen );	// skip to next chunk
+                if( chunkLen != 0 ) hin.seek( hin.getFilePointer() + chunkLen );	// skip to next chunk
 
-                magic		= raf.readInt();
-                chunkLen	= (readLittleInt() + 1) & 0xFFFFFFFE;
+                magic		= hin.readInt();
+                chunkLen	= readLittleInt() & 0xFFFFFFFFL;	// unsigned
+                // in RF64, a size of -1 means the real size is found in the ds64 chunk
+                if( rf64 && (magic == DATA_MAGIC) && (chunkLen == 0xFFFFFFFFL) && (ds64DataLen >= 0) ) {
+                    chunkLen = ds64DataLen;
+                }
+                // otherwise it denotes a stream of unknown length
+                if( (magic == DATA_MAGIC) && (chunkLen == 0xFFFFFFFFL) ) openEnded = true;
+                chunkLen	= (chunkLen + 1) & ~1L;
                 len		   -= chunkLen + 8;
 
                 switch( magic ) {
+                case DS64_MAGIC:
+                    readLittleLong();				// RIFF size, we use the file length instead
+                    ds64DataLen	= readLittleLong();	// data chunk size
+                    readLittleLong();				// sample count, only relevant for compressed formats
+                    chunkLen   -= 24;				// ignore the table for other chunk sizes
+                    break;
+
                 case FMT_MAGIC:
                     essentials--;
                     i					= readLittleUShort();		// format
@@ -1949,7 +3263,7 @@ len	= raf.length() - 8;
                         i1 = readLittleUShort();	// extension size
                         if( i1 < 22 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
                         i2 = readLittleUShort();	// # valid bits per sample
-                        raf.readInt();				// channel mask, ignore
+                        hin.readInt();				// channel mask, ignore
                         i3 = readLittleUShort();	// GUID first two bytes
                         if( (i2 != descr.bitsPerSample) ||
                             ((i3 != FORMAT_PCM) &&
@@ -1964,31 +3278,31 @@ len	= raf.length() - 8;
 
                 case DATA_MAGIC:
                     essentials--;
-                    sampleDataOffset	= raf.getFilePointer();
+                    sampleDataOffset	= hin.getFilePointer();
                     dataLen				= chunkLen;
                     break;
 
                 case CUE_MAGIC:
-                    cueMagicOff			= raf.getFilePointer();
+                    cueMagicOff			= hin.getFilePointer();
                     break;
 
                 case LIST_MAGIC:
                 case LIST_MAGIC2:
-                    i	= raf.readInt();
+                    i	= hin.readInt();
                     chunkLen -= 4;
                     if( i == ADTL_MAGIC ) {
-                        listMagicOff = raf.getFilePointer();
+                        listMagicOff = hin.getFilePointer();
                         listMagicLen = chunkLen;
                     } // if( i == ADTL_MAGIC )
                     break;
 
                 case SMPL_MAGIC:
-                    smplMagicOff = raf.getFilePointer() + 28;
+                    smplMagicOff = hin.getFilePointer() + 28;
                     break;
 
                 case INST_MAGIC:
-                    raf.readShort();	// skip UnshiftedNode, FineTune
-                    i = raf.readByte();	// gain (dB)
+                    hin.readShort();	// skip UnshiftedNode, FineTune
+                    i = hin.readByte();	// gain (dB)
                     if( i != 0 ) descr.setProperty( AudioFileDescr.KEY_GAIN, new Float( Math.exp(
                         (double) i / 20 * Math.log( 10 ))));
                     chunkLen -= 3;
@@ -2000,7 +3314,7 @@ len	= raf.length() - 8;
             } // for( essentials = 2; (len > 0) && (essentials > 0); )
             if( essentials > 0 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
 
-            descr.length	= dataLen / bpf;
+            descr.length	= openEnded ? openEndedLength( sampleDataOffset, bpf ) : dataLen / bpf;
         }
 
         protected void writeHeader( AudioFileDescr descr )
@@ -2015,12 +3329,20 @@ len	= raf.length() - 8;
             Object			o;
 
             isFloat = descr.sampleFormat == AudioFileDescr.FORMAT_FLOAT;	// floating point requires FACT extension
-            raf.writeInt( RIFF_MAGIC );
-            raf.writeInt( 0 );				// Laenge ohne RIFF-Header (Dateilaenge minus 8); unknown now
-            raf.writeInt( WAVE_MAGIC );
+            rf64	= false;
+            hout.writeInt( RIFF_MAGIC );
+            hout.writeInt( 0 );				// Laenge ohne RIFF-Header (Dateilaenge minus 8); unknown now
+            hout.writeInt( WAVE_MAGIC );
+
+            // JUNK Chunk ; reserves the space of a ds64 chunk, so
+            // the file can be turned into RF64 in place when it exceeds 4 GB
+            hout.writeInt( JUNK_MAGIC );
+            writeLittleInt( DS64_LENGTH );
+            ds64Offset = hout.getFilePointer();
+            hout.write( new byte[ DS64_LENGTH ]);
 
             // fmt Chunk
-            raf.writeInt( FMT_MAGIC );
+            hout.writeInt( FMT_MAGIC );
             writeLittleInt( isFloat ? 18 : 16 );	// FORMAT_FLOAT has extension of size 0
             writeLittleShort( isFloat ? FORMAT_FLOAT : FORMAT_PCM );
             writeLittleShort( descr.channels );
@@ -2031,14 +3353,14 @@ len	= raf.length() - 8;
             writeLittleShort( i2 );
             writeLittleShort( descr.bitsPerSample );
 
-            if( isFloat ) raf.writeShort( 0 );
+            if( isFloat ) hout.writeShort( 0 );
 
             // fact Chunk
             if( isFloat ) {
-                raf.writeInt( FACT_MAGIC );
+                hout.writeInt( FACT_MAGIC );
                 writeLittleInt( 4 );
-                factSmpNumOffset = raf.getFilePointer();
-                raf.writeInt( 0 );
+                factSmpNumOffset = hout.getFilePointer();
+                hout.writeInt( 0 );
             }
 
             // cue Chunk
@@ -2048,7 +3370,7 @@ len	= raf.length() - 8;
                 if( markers == null ) markers = Collections.EMPTY_LIST;
                 if( regions == null ) regions = Collections.EMPTY_LIST;
 
-                raf.writeInt( CUE_MAGIC );
+                hout.writeInt( CUE_MAGIC );
                 i2	= markers.size() + regions.size();
                 writeLittleInt( 24 * i2 + 4 );
                 writeLittleInt( i2 );
@@ -2056,105 +3378,105 @@ len	= raf.length() - 8;
                     marker = (Marker) markers.get( i );
                     writeLittleInt( i1 );
                     writeLittleInt( i1 );
-                    raf.writeInt( DATA_MAGIC );
-                    raf.writeLong( 0 );	// ignore dwChunkStart, dwBlockStart
+                    hout.writeInt( DATA_MAGIC );
+                    hout.writeLong( 0 );	// ignore dwChunkStart, dwBlockStart
                     writeLittleInt( (int) marker.pos );
                 }
                 for( i = 0; i < regions.size(); i++, i1++ ) {
                     region = (Region) regions.get( i );
                     writeLittleInt( i1 );
                     writeLittleInt( i1 );
-                    raf.writeInt( DATA_MAGIC );
-                    raf.writeLong( 0 );	// ignore dwChunkStart, dwBlockStart
+                    hout.writeInt( DATA_MAGIC );
+                    hout.writeLong( 0 );	// ignore dwChunkStart, dwBlockStart
                     writeLittleInt( (int) region.span.getStart() );
                 }
 
-                raf.writeInt( LIST_MAGIC );
-                pos	= raf.getFilePointer();
-                raf.writeInt( 0 );
-                raf.writeInt( ADTL_MAGIC );
+                hout.writeInt( LIST_MAGIC );
+                pos	= hout.getFilePointer();
+                hout.writeInt( 0 );
+                hout.writeInt( ADTL_MAGIC );
 
                 for( i = 0, i1 = 1; i < markers.size(); i++, i1++ ) {
                     marker	= (Marker) markers.get( i );
                     i3		= marker.name.length() + 5;
-                    raf.writeInt( LABL_MAGIC );
+                    hout.writeInt( LABL_MAGIC );
                     writeLittleInt( i3 );
                     writeLittleInt( i1 );
-                    raf.writeBytes( marker.name );
-                    if( (i3 & 1) == 0 ) raf.writeByte( 0 ); else raf.writeShort( 0 );
+                    hout.writeBytes( marker.name );
+                    if( (i3 & 1) == 0 ) hout.writeByte( 0 ); else hout.writeShort( 0 );
                 }
 
                 for( i = 0; i < regions.size(); i++, i1++ ) {
                     region	= (Region) regions.get( i );
                     i3		= region.name.length() + 5;
-                    raf.writeInt( LABL_MAGIC );
+                    hout.writeInt( LABL_MAGIC );
                     writeLittleInt( i3 );
                     writeLittleInt( i1 );
-                    raf.writeBytes( region.name );
-                    if( (i3 & 1) == 0 ) raf.writeByte( 0 ); else raf.writeShort( 0 );
+                    hout.writeBytes( region.name );
+                    if( (i3 & 1) == 0 ) hout.writeByte( 0 ); else hout.writeShort( 0 );
                 }
 
                 for( i = 0, i1 = markers.size() + 1; i < regions.size(); i++, i1++ ) {
                     region	= (Region) regions.get( i );
-                    raf.writeInt( LTXT_MAGIC );
+                    hout.writeInt( LTXT_MAGIC );
                     writeLittleInt( 21 );
                     writeLittleInt( i1 );
                     writeLittleInt( (int) region.span.getLength() );
-                    raf.writeInt( RGN_MAGIC );
-                    raf.writeLong( 0 );		// wCountry, wLanguage, wDialect, wCodePage
-                    raf.writeShort( 0 );	// no name (already specified in 'labl' chunk (zero + pad)
+                    hout.writeInt( RGN_MAGIC );
+                    hout.writeLong( 0 );		// wCountry, wLanguage, wDialect, wCodePage
+                    hout.writeShort( 0 );	// no name (already specified in 'labl' chunk (zero + pad)
                 }
 
                 // update 'list' chunk size
-                pos2 = raf.getFilePointer();
+                pos2 = hout.getFilePointer();
                 i	 = (int) (pos2 - pos - 4);
                 if( (i & 1) == 1 ) {
-                    raf.write( 0 );	// padding byte
+                    hout.write( 0 );	// padding byte
                     pos2++;
                 }
-                raf.seek( pos );
+                hout.seek( pos );
                 writeLittleInt( i );
-                raf.seek( pos2 );
+                hout.seek( pos2 );
 
             } // if marker or region list not empty
 
             // smpl Chunk
             region  = (Region) descr.getProperty( AudioFileDescr.KEY_LOOP );
             if( region != null ) {
-                raf.writeInt( SMPL_MAGIC );
+                hout.writeInt( SMPL_MAGIC );
                 writeLittleInt( 36 + 24 );
-                raf.writeLong( 0 );		// dwManufacturer, dwProduct
+                hout.writeLong( 0 );		// dwManufacturer, dwProduct
                 writeLittleInt( (int) (1.0e9 / descr.rate + 0.5) );	// dwSamplePeriod
                 writeLittleInt( 69 );	// dwMIDIUnityNote
-                raf.writeInt( 0 );		// dwMIDIPitchFraction
-                raf.writeLong( 0 );		// dwSMPTEFormat, dwSMPTEOffset
+                hout.writeInt( 0 );		// dwMIDIPitchFraction
+                hout.writeLong( 0 );		// dwSMPTEFormat, dwSMPTEOffset
                 writeLittleInt( 1 );	// just one loop
-                raf.writeInt( 0 );		// no additional chunk information
+                hout.writeInt( 0 );		// no additional chunk information
 
                 writeLittleInt( 0 );	// loop gets ID 0
                 writeLittleInt( 0 );	// normal loop
                 writeLittleInt( (int) region.span.getStart() );
                 writeLittleInt( (int) region.span.getStop() );
-                raf.writeLong( 0 );		// dwFraction, dwPlayCount
+                hout.writeLong( 0 );		// dwFraction, dwPlayCount
             }
 
             // inst Chunk
             o = descr.getProperty( AudioFileDescr.KEY_GAIN );
             if( o != null ) {
                 i1	= Math.max( -64, Math.min( 63, (int) (20 * Math.log( ((Float) o).floatValue() ) / Math.log( 10 ) + 0.5) ));
-                raf.writeInt( INST_MAGIC );
+                hout.writeInt( INST_MAGIC );
                 writeLittleInt( 7 );
-                raf.writeShort( (69 << 24) | (0 << 16) );	// char: MIDI Note, Detune
-                raf.write( i1 );							// char gain (dB)
-                raf.writeInt( 0x007F007F );					// char LowNote, HighNote, velLo, char velHi
-                raf.write( 0 );								// pad byte
+                hout.writeShort( (69 << 24) | (0 << 16) );	// char: MIDI Note, Detune
+                hout.write( i1 );							// char gain (dB)
+                hout.writeInt( 0x007F007F );					// char LowNote, HighNote, velLo, char velHi
+                hout.write( 0 );								// pad byte
             }
 
             // data Chunk (Header)
-            raf.writeInt( DATA_MAGIC );
-            dataLengthOffset = raf.getFilePointer();
-            raf.writeInt( 0 );
-            sampleDataOffset = raf.getFilePointer();
+            hout.writeInt( DATA_MAGIC );
+            dataLengthOffset = hout.getFilePointer();
+            hout.writeInt( 0 );
+            sampleDataOffset = hout.getFilePointer();
 
             updateHeader( descr );
         }
@@ -2162,26 +3484,76 @@ len	= raf.length() - 8;
         protected void updateHeader( AudioFileDescr descr )
         throws IOException
         {
-            long oldPos	= raf.getFilePointer();
-            long len	= raf.length();
+            long oldPos	= hout.getFilePointer();
+            long len	= hout.length();
             if( len == lastUpdateLength ) return;
 
+            if( rf64 || (len - 8 >= MAX_RIFF_LENGTH) ) {
+                updateRF64Header( descr, len );
+                hout.seek( oldPos );
+                lastUpdateLength = len;
+                return;
+            }
+
             if( len >= riffLengthOffset + 4 ) {
-                raf.seek( riffLengthOffset );
+                hout.seek( riffLengthOffset );
                 writeLittleInt( (int) (len - 8) );								// RIFF Chunk len
             }
             if( isFloat && (len >= factSmpNumOffset + 4) ) {
-                raf.seek( factSmpNumOffset );
+                hout.seek( factSmpNumOffset );
                 writeLittleInt( (int) (descr.length * descr.channels) );			// fact: Sample-Num XXX check multich.!
             }
             if( len >= dataLengthOffset + 4 ) {
-                raf.seek( dataLengthOffset );
+                hout.seek( dataLengthOffset );
                 writeLittleInt( (int) (len - (dataLengthOffset + 4)) );			// data Chunk len
             }
-            raf.seek( oldPos );
+            hout.seek( oldPos );
             lastUpdateLength = len;
         }
 
+        protected void writeUnknownLength()
+        throws IOException
+        {
+            final long oldPos = hout.getFilePointer();
+            hout.seek( riffLengthOffset );
+            hout.writeInt( 0xFFFFFFFF );			// RIFF Chunk len
+            if( isFloat ) {
+                hout.seek( factSmpNumOffset );
+                hout.writeInt( 0xFFFFFFFF );		// fact: Sample-Num
+            }
+            hout.seek( dataLengthOffset );
+            hout.writeInt( 0xFFFFFFFF );			// data Chunk len
+            hout.seek( oldPos );
+            lastUpdateLength = 0L;
+        }
+
+        // promotes the file to RF64 by replacing the magic cookie and
+        // the JUNK chunk, then writes the 64-bit sizes to the ds64 chunk
+        private void updateRF64Header( AudioFileDescr descr, long len )
+        throws IOException
+        {
+            if( !rf64 ) {
+                hout.seek( 0L );
+                hout.writeInt( RF64_MAGIC );
+                hout.seek( ds64Offset - 8 );
+                hout.writeInt( DS64_MAGIC );
+                rf64 = true;
+            }
+            hout.seek( riffLengthOffset );
+            hout.writeInt( 0xFFFFFFFF );										// RIFF Chunk len : see ds64
+            hout.seek( ds64Offset );
+            writeLittleLong( len - 8 );										// ds64: RIFF size
+            writeLittleLong( len - (dataLengthOffset + 4) );				// ds64: data size
+            writeLittleLong( descr.length );								// ds64: sample count
+            writeLittleInt( 0 );											// ds64: table length
+            if( isFloat ) {
+                hout.seek( factSmpNumOffset );
+                hout.writeInt( 0xFFFFFFFF );									// fact: Sample-Num : see ds64
+            }
+            hout.seek( dataLengthOffset );
+            hout.writeInt( 0xFFFFFFFF );										// data Chunk len : see ds64
+        }
+
         protected long getSampleDataOffset()
         {
             return sampleDataOffset;
@@ -2205,18 +3577,19 @@ len	= raf.length() - 8;
             final Map	mapCues			= new HashMap();
             final Map	mapCueLengths	= new HashMap();
             final Map	mapCueNames		= new HashMap();
-            final long	oldPos			= raf.getFilePointer();
+            final long	oldPos			= hin.getFilePointer();
             final List	markers, regions;
             int			i, i1, i2, i3, i4, i5;
+            long		n;
             Object		o;
             String		str;
             byte[]		strBuf			= null;
 
             try {
                 if( smplMagicOff > 0L ) {
-                    raf.seek( smplMagicOff );
+                    hin.seek( smplMagicOff );
                     i		  = readLittleInt();	// cSampleLoops
-                    raf.readInt();					// chunk extension length
+                    hin.readInt();					// chunk extension length
         //			chunkLen -= 36;
                     if( i > 0 ) {
                         i1	= readLittleInt(); 	// dwIdentifier
@@ -2231,9 +3604,9 @@ len	= raf.length() - 8;
                     }
                 }
                 if( listMagicOff > 0L ) {
-                    raf.seek( listMagicOff );
+                    hin.seek( listMagicOff );
                     for( long chunkLen = listMagicLen; chunkLen >= 8; ) {
-                        i	= raf.readInt();		// sub chunk ID
+                        i	= hin.readInt();		// sub chunk ID
                         i1	= readLittleInt();
                         i2	= (i1 + 1) & 0xFFFFFFFE;	// sub chunk length
                         chunkLen -= 8;
@@ -2246,7 +3619,7 @@ len	= raf.length() - 8;
                             if( strBuf == null || strBuf.length < i1 ) {
                                 strBuf  = new byte[ Math.max( 64, i1 )];
                             }
-                            raf.readFully( strBuf, 0, i1 );	// null-terminated
+                            hin.readFully( strBuf, 0, i1 );	// null-terminated
                             mapCueNames.put( new Integer( i3 ), new String( strBuf, 0, i1 - 1 ));
                             chunkLen -= i1;
                             i2		 -= i1;
@@ -2255,8 +3628,8 @@ len	= raf.length() - 8;
                         case LTXT_MAGIC:
                             i3			= readLittleInt();	// dwIdentifier
                             i4			= readLittleInt();	// dwSampleLength (= frames)
-                            i5			= raf.readInt();	// dwPurpose
-                            raf.readLong();					// skip wCountry, wLanguage, wDialect, wCodePage
+                            i5			= hin.readInt();	// dwPurpose
+                            hin.readLong();					// skip wCountry, wLanguage, wDialect, wCodePage
                             i1			-= 20;
                             i2			-= 20;
                             chunkLen	-= 20;
@@ -2265,7 +3638,7 @@ len	= raf.length() - 8;
                                 if( strBuf == null || strBuf.length < i1 ) {
                                     strBuf  = new byte[ Math.max( 64, i1 )];
                                 }
-                                raf.readFully( strBuf, 0, i1 );	// null-terminated
+                                hin.readFully( strBuf, 0, i1 );	// null-terminated
                                 mapCueNames.put( o, new String( strBuf, 0, i1 - 1 ));
                                 chunkLen -= i1;
                                 i2		 -= i1;
@@ -2279,23 +3652,23 @@ len	= raf.length() - 8;
                             break;
                         }
                         if( i2 != 0 ) {
-                            raf.seek( raf.getFilePointer() + i2 );
+                            hin.seek( hin.getFilePointer() + i2 );
                             chunkLen -= i2;
                         }
                     } // while( chunkLen >= 8 )
                 }
 
                 if( cueMagicOff > 0L ) {
-                    raf.seek( cueMagicOff );
+                    hin.seek( cueMagicOff );
                     i	= readLittleInt();	// num cues
                     for( int j = 0; j < i; j++ ) {
                         i1	= readLittleInt();	// dwIdentifier
-                        raf.readInt();			// dwPosition (ignore, we don't use playlist)
-                        i2	= raf.readInt();	// should be 'data'
-                        raf.readLong();			// ignore dwChunkStart and dwBlockStart
-                        i3	= readLittleInt();	// dwSampleOffset (fails for 64bit space)
+                        hin.readInt();			// dwPosition (ignore, we don't use playlist)
+                        i2	= hin.readInt();	// should be 'data'
+                        hin.readLong();			// ignore dwChunkStart and dwBlockStart
+                        n	= readLittleInt() & 0xFFFFFFFFL;	// dwSampleOffset (unsigned 32bit also in RF64)
                         if( i2 == DATA_MAGIC ) {
-                            mapCues.put( new Integer( i1 ), new Integer( i3 ));
+                            mapCues.put( new Integer( i1 ), new Long( n ));
                         }
                     }
     //				chunkLen -= i * 24 + 4;
@@ -2307,15 +3680,15 @@ len	= raf.length() - 8;
                     regions	= new ArrayList();
                     for( Iterator iter = mapCues.keySet().iterator(); iter.hasNext(); ) {
                         o	= iter.next();
-                        i	= ((Integer) mapCues.get( o )).intValue();	// start frame
+                        n	= ((Long) mapCues.get( o )).longValue();	// start frame
                         str	= (String) mapCueNames.get( o );
                         o	= mapCueLengths.get( o );
                         if( o == null ) {	// i.e. marker
                             if( str == null ) str = NAME_MARK;
-                            markers.add( new Marker( i, str ));
+                            markers.add( new Marker( n, str ));
                         } else {			// i.e. region
                             if( str == null ) str = NAME_REGION;
-                            regions.add( new Region( new Span( i, ((Integer) o).intValue() ), str ));
+                            regions.add( new Region( new Span( n, ((Integer) o).intValue() ), str ));
                         }
                     }
                     if( !markers.isEmpty() ) afd.setProperty( AudioFileDescr.KEY_MARKERS, markers );
@@ -2323,7 +3696,7 @@ len	= raf.length() - 8;
                 }
             }
             finally {
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             }
         }
     } // class WAVEHeader
@@ -2365,22 +3738,22 @@ len	= raf.length() - 8;
             int		i, i1, i2, i3, essentials, bpf = 0;
             long	len, magic1, magic2, chunkLen, dataLen = 0;
 
-            raf.readLong(); raf.readLong();		// riff
+            hin.readLong(); hin.readLong();		// riff
             len	= readLittleLong();
-            raf.readLong(); raf.readLong();		// wave
+            hin.readLong(); hin.readLong();		// wave
             len	   -= 40;
             chunkLen = 0;
 
 //System.out.println( "len = " + len );
 
             for( essentials = 2; (len >= 24) && (essentials > 0); ) {
-                if( chunkLen != 0 ) raf.seek( raf.getFilePointer() + chunkLen );	// skip to next chunk
+                if( chunkLen != 0 ) hin.seek( hin.getFilePointer() + chunkLen );	// skip to next chunk
 
-                magic1		= raf.readLong();
-                magic2		= raf.readLong();
+                magic1		= hin.readLong();
+                magic2		= hin.readLong();
                 chunkLen	= (readLittleLong() + 7) & 0xFFFFFFFFFFFFFFF8L;
 
-//System.out.println( "magic1 = " + magic1 + "; chunkLen = " + chunkLen + "; pos = " + raf.getFilePointer() );
+//System.out.println( "magic1 = " + magic1 + "; chunkLen = " + chunkLen + "; pos = " + hin.getFilePointer() );
 
                 len		   -= chunkLen;
                 chunkLen   -= 24;
@@ -2416,7 +3789,7 @@ len	= raf.length() - 8;
                         i1 = readLittleUShort();	// extension size
                         if( i1 < 22 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
                         i2 = readLittleUShort();	// # valid bits per sample
-                        raf.readInt();				// channel mask, ignore
+                        hin.readInt();				// channel mask, ignore
                         i3 = readLittleUShort();	// GUID first two bytes
                         if( (i2 != descr.bitsPerSample) ||
                             ((i3 != FORMAT_PCM) &&
@@ -2430,11 +3803,11 @@ len	= raf.length() - 8;
 
                 } else if( magic1 == DATA_MAGIC1 && magic2 == DATA_MAGIC2 ) {
                     essentials--;
-                    sampleDataOffset	= raf.getFilePointer();
+                    sampleDataOffset	= hin.getFilePointer();
                     dataLen				= chunkLen;
 
                 } else if( magic1 == MARKER_MAGIC1 && magic2 == MARKER_MAGIC2 ) {
-                    markersOffset			= raf.getFilePointer();
+                    markersOffset			= hin.getFilePointer();
                 }
             } // for( essentials = 2; (len > 0) && (essentials > 0); )
             if( essentials > 0 ) throw new IOException( getResourceString( "errAudioFileIncomplete" ));
@@ -2453,15 +3826,15 @@ len	= raf.length() - 8;
             long			pos, pos2, n1, n2;
 
             isFloat = descr.sampleFormat == AudioFileDescr.FORMAT_FLOAT;	// floating point requires FACT extension
-            raf.writeLong( RIFF_MAGIC1 );
-            raf.writeLong( RIFF_MAGIC2 );
-            raf.writeLong( 40 );		// Laenge inkl. RIFF-Header (Dateilaenge); unknown now
-            raf.writeLong( WAVE_MAGIC1 );
-            raf.writeLong( WAVE_MAGIC2 );
+            hout.writeLong( RIFF_MAGIC1 );
+            hout.writeLong( RIFF_MAGIC2 );
+            hout.writeLong( 40 );		// Laenge inkl. RIFF-Header (Dateilaenge); unknown now
+            hout.writeLong( WAVE_MAGIC1 );
+            hout.writeLong( WAVE_MAGIC2 );
 
             // ---- fmt Chunk ----
-            raf.writeLong( FMT_MAGIC1 );
-            raf.writeLong( FMT_MAGIC2 );
+            hout.writeLong( FMT_MAGIC1 );
+            hout.writeLong( FMT_MAGIC2 );
             writeLittleLong( isFloat ? 42 : 40 );  // FORMAT_FLOAT has extension of size 0
             writeLittleShort( isFloat ? FORMAT_FLOAT : FORMAT_PCM );
             writeLittleShort( descr.channels );
@@ -2473,18 +3846,18 @@ len	= raf.length() - 8;
             writeLittleShort( descr.bitsPerSample );
 
             if( isFloat ) {
-//				raf.writeShort( 0 );
-                raf.writeLong( 0 ); // actually a short, but six extra bytes to align to 8-byte boundary
+//				hout.writeShort( 0 );
+                hout.writeLong( 0 ); // actually a short, but six extra bytes to align to 8-byte boundary
             }
 
             // ---- fact Chunk ----
             if( isFloat ) {
-                raf.writeLong( FACT_MAGIC1 );
-                raf.writeLong( FACT_MAGIC2 );
+                hout.writeLong( FACT_MAGIC1 );
+                hout.writeLong( FACT_MAGIC2 );
                 writeLittleLong( 32 );
-                factSmpNumOffset = raf.getFilePointer();
-//				raf.writeInt( 0 );
-                raf.writeLong( 0 ); // i guess it should be long???
+                factSmpNumOffset = hout.getFilePointer();
+//				hout.writeInt( 0 );
+                hout.writeLong( 0 ); // i guess it should be long???
             }
 
             // -- marker Chunk ----
@@ -2500,10 +3873,10 @@ len	= raf.length() - 8;
                     regions == null ? Collections.EMPTY_LIST : regions
                 };
 
-                raf.writeLong( MARKER_MAGIC1 );
-                raf.writeLong( MARKER_MAGIC2 );
-                pos	= raf.getFilePointer();
-                raf.writeLong( 0 ); // updated afterwards
+                hout.writeLong( MARKER_MAGIC1 );
+                hout.writeLong( MARKER_MAGIC2 );
+                pos	= hout.getFilePointer();
+                hout.writeLong( 0 ); // updated afterwards
                 i2	= cues[ 0 ].size() + cues[ 1 ].size();
                 writeLittleInt( i2 );
                 // CUE64 structures
@@ -2521,7 +3894,7 @@ len	= raf.length() - 8;
                             str		= region.name;
                         }
                         writeLittleInt( id );	// marker ID
-                        raf.writeInt( 0 );		// padding
+                        hout.writeInt( 0 );		// padding
                         writeLittleLong( n1 );	// position
                         writeLittleLong( n2 );	// length
 
@@ -2540,32 +3913,32 @@ len	= raf.length() - 8;
                         bbuf.flip();
 
                         writeLittleInt( bbuf.remaining() );
-                        raf.writeInt( 0 );		// padding
+                        hout.writeInt( 0 );		// padding
 //System.out.println( "writing " + bbuf.remaining() + " bytes at " + fch.position() );
-                        fch.write( bbuf );
+                        hout.write( bbuf.array(), bbuf.arrayOffset() + bbuf.position(), bbuf.remaining() );
                     }
                 }
 
                 // update chunk size
-                pos2 = raf.getFilePointer();
+                pos2 = hout.getFilePointer();
                 n1	 = pos2 - pos;
 //System.out.println( "n1 = " + n1 + "; pos = " + pos + "; pos2 = " + pos2 + "; pad = " + (int) (((n1 + 7) & 0xFFFFFFFFFFFFFFF8L) - n1) );
                 final int pad = (int) (((n1 + 7) & 0xFFFFFFFFFFFFFFF8L) - n1);
-                for( int i = 0; i < pad; i++ ) raf.write( 0 );	// padding byte
+                for( int i = 0; i < pad; i++ ) hout.write( 0 );	// padding byte
 
-                raf.seek( pos );
+                hout.seek( pos );
                 writeLittleLong( n1 + 16 );
 //				writeLittleLong( n1 + 16 + pad );
-                raf.seek( pos2 + pad );
+                hout.seek( pos2 + pad );
 
             } // if marker or region list not empty
 
             // data Chunk (Header)
-            raf.writeLong( DATA_MAGIC1 );
-            raf.writeLong( DATA_MAGIC2 );
-            dataLengthOffset = raf.getFilePointer();
-            raf.writeLong( 24 );
-            sampleDataOffset = raf.getFilePointer();
+            hout.writeLong( DATA_MAGIC1 );
+            hout.writeLong( DATA_MAGIC2 );
+            dataLengthOffset = hout.getFilePointer();
+            hout.writeLong( 24 );
+            sampleDataOffset = hout.getFilePointer();
 
             updateHeader( descr );
         }
@@ -2573,25 +3946,25 @@ len	= raf.length() - 8;
         protected void updateHeader( AudioFileDescr descr )
         throws IOException
         {
-            final long oldPos	= raf.getFilePointer();
-            final long len		= raf.length();
+            final long oldPos	= hout.getFilePointer();
+            final long len		= hout.length();
             if( len == lastUpdateLength ) return;
             final long lenM8	= len - 8;
 
             if( lenM8 >= riffLengthOffset ) {
-                raf.seek( riffLengthOffset );
+                hout.seek( riffLengthOffset );
 // System.out.println( "updateHeader: len = " + len );
                 writeLittleLong( len );		// riff Chunk len
             }
             if( isFloat && (lenM8 >= factSmpNumOffset) ) {
-                raf.seek( factSmpNumOffset );
+                hout.seek( factSmpNumOffset );
                 writeLittleLong( descr.length * descr.channels );			// fact: Sample-Num XXX check multich.!
             }
             if( lenM8 >= dataLengthOffset ) {
-                raf.seek( dataLengthOffset );
+                hout.seek( dataLengthOffset );
                 writeLittleLong( len - (dataLengthOffset - 16) );	// data Chunk len
             }
-            raf.seek( oldPos );
+            hout.seek( oldPos );
             lastUpdateLength = len;
         }
 
@@ -2626,17 +3999,17 @@ len	= raf.length() - 8;
             String					str;
             CoderResult				result;
 
-            final long oldPos = raf.getFilePointer();
+            final long oldPos = hin.getFilePointer();
             try {
-                raf.seek( markersOffset );
+                hin.seek( markersOffset );
                 for( int numCues = readLittleInt(), cue = 0; cue < numCues; cue++ ) {
 //System.out.println( "cue " + (cue+1) + " of " + numCues );
-                    raf.readInt();					// marker ID (ignore)
-                    raf.readInt(); 					// padding
+                    hin.readInt();					// marker ID (ignore)
+                    hin.readInt(); 					// padding
                     n1			= readLittleLong();	// pos
                     n2			= readLittleLong();	// length (-1 for markers)
                     numBytes	= readLittleInt();	// size of name string in bytes
-                    raf.readInt(); 					// padding
+                    hin.readInt(); 					// padding
 
                     if( bbuf == null || bbuf.capacity() < numBytes ) {
                         bbuf = ByteBuffer.allocate( numBytes + 16 );
@@ -2645,9 +4018,8 @@ len	= raf.length() - 8;
 
                     bbuf.rewind().limit( numBytes );
 
-//System.out.println( "reading " + bbuf.remaining() + " bytes from " + fch.position() );
-
-                    fch.read( bbuf );
+                    hin.readFully( bbuf.array(), 0, numBytes );
+                    bbuf.position( numBytes );
                     if( (numBytes >= 2) &&
                         (bbuf.get( numBytes - 2 ) == 0) &&
                         (bbuf.get( numBytes - 1 ) == 0) ) { // null term
@@ -2684,7 +4056,7 @@ len	= raf.length() - 8;
 
             }
             finally {
-                raf.seek( oldPos );
+                hin.seek( oldPos );
             }
         }
     } // class Wave64Header
@@ -2706,12 +4078,12 @@ len	= raf.length() - 8;
             int		i1, i2;
             String	str;
 
-            raf.readInt();  // SND magic
-            sampleDataOffset= raf.readInt();
-            i2				= raf.readInt();
-            i1				= raf.readInt();
-            descr.rate		= raf.readInt();
-            descr.channels	= raf.readInt();
+            hin.readInt();  // SND magic
+            sampleDataOffset= hin.readInt();
+            i2				= hin.readInt();
+            i1				= hin.readInt();
+            descr.rate		= hin.readInt();
+            descr.channels	= hin.readInt();
             str				= readNullTermString();
 
             if( str.length() > 0 ) descr.setProperty( AudioFileDescr.KEY_COMMENT, str );
@@ -2745,7 +4117,9 @@ len	= raf.length() - 8;
                 throw new IOException( getResourceString( "errAudioFileEncoding" ));
             }
 
-            descr.length	= i2 / (((descr.bitsPerSample + 7) >> 3) * descr.channels);
+            i1				= ((descr.bitsPerSample + 7) >> 3) * descr.channels;
+            // ~0 denotes an unknown data size
+            descr.length	= i2 == -1 ? openEndedLength( sampleDataOffset, i1 ) : (i2 & 0xFFFFFFFFL) / i1;
         }
 
         protected void writeHeader( AudioFileDescr descr )
@@ -2755,37 +4129,37 @@ len	= raf.length() - 8;
 
             str					= (String) descr.getProperty( AudioFileDescr.KEY_COMMENT );
             sampleDataOffset	= str == null ? 28L : (long) ((28 + str.length()) & ~3);
-            raf.writeInt( SND_MAGIC );
-            raf.writeInt( (int) sampleDataOffset );
-//			raf.writeInt( stream.samples * frameLength );	// len
-            raf.writeInt( 0 );
+            hout.writeInt( SND_MAGIC );
+            hout.writeInt( (int) sampleDataOffset );
+//			hout.writeInt( stream.samples * frameLength );	// len
+            hout.writeInt( 0 );
 
             if( descr.sampleFormat == AudioFileDescr.FORMAT_INT ) {
-                raf.writeInt( (descr.bitsPerSample >> 3) + 1 );
+                hout.writeInt( (descr.bitsPerSample >> 3) + 1 );
             } else {
-                raf.writeInt( (descr.bitsPerSample >> 5) + 5 );
+                hout.writeInt( (descr.bitsPerSample >> 5) + 5 );
             }
-            raf.writeInt( (int) (descr.rate + 0.5) );
-            raf.writeInt( descr.channels );
+            hout.writeInt( (int) (descr.rate + 0.5) );
+            hout.writeInt( descr.channels );
 
             // comment
             if( str == null ) {
-                raf.writeInt( 0 );  // minimum 4 byte character data
+                hout.writeInt( 0 );  // minimum 4 byte character data
             } else {
-                raf.writeBytes( str );
+                hout.writeBytes( str );
                 switch( str.length() & 3 ) {
                 case 0:
-                    raf.writeInt( 0 );
+                    hout.writeInt( 0 );
                     break;
                 case 1:
-                    raf.writeByte( 0 );
-                    raf.writeShort( 0 );
+                    hout.writeByte( 0 );
+                    hout.writeShort( 0 );
                     break;
                 case 2:
-                    raf.writeShort( 0 );
+                    hout.writeShort( 0 );
                     break;
                 case 3:
-                    raf.writeByte( 0 );
+                    hout.writeByte( 0 );
                     break;
                 }
             }
@@ -2797,18 +4171,28 @@ len	= raf.length() - 8;
         throws IOException
         {
             long oldPos;
-            long len	= raf.length();
+            long len	= hout.length();
             if( len == lastUpdateLength ) return;
 
             if( len >= headDataLenOffset + 4 ) {
-                oldPos = raf.getFilePointer();
-                raf.seek( headDataLenOffset );
-                raf.writeInt( (int) (len - sampleDataOffset) );		// data size
-                raf.seek( oldPos );
+                oldPos = hout.getFilePointer();
+                hout.seek( headDataLenOffset );
+                hout.writeInt( (int) (len - sampleDataOffset) );		// data size
+                hout.seek( oldPos );
                 lastUpdateLength = len;
             }
         }
 
+        protected void writeUnknownLength()
+        throws IOException
+        {
+            final long oldPos = hout.getFilePointer();
+            hout.seek( headDataLenOffset );
+            hout.writeInt( 0xFFFFFFFF );			// data size : AUDIO_UNKNOWN_SIZE
+            hout.seek( oldPos );
+            lastUpdateLength = 0L;
+        }
+
         protected long getSampleDataOffset()
         {
             return sampleDataOffset;
@@ -2856,14 +4240,14 @@ len	= raf.length() - 8;
             byte[]			strBuf2;
             List			regions		= new ArrayList();
 
-            final int magic = raf.readInt();		// IRCAM magic
+            final int magic = hin.readInt();		// IRCAM magic
             final DataInputReader rd;
             if( magic == IRCAM_VAXLE_MAGIC || magic == IRCAM_SUNLE_MAGIC || magic == IRCAM_MIPSLE_MAGIC ) {
                 byteOrder = ByteOrder.LITTLE_ENDIAN;
-                rd = new LittleDataInputReader( raf );
+                rd = new LittleDataInputReader( hin );
             } else {
 //				byteOrder = ByteOrder.BIG_ENDIAN;
-                rd = new BigDataInputReader( raf );
+                rd = new BigDataInputReader( hin );
             }
 
             descr.rate		= rd.readFloat();
@@ -2909,7 +4293,7 @@ len	= raf.length() - 8;
                     if( strBuf == null ) {
                         strBuf = new byte[ 64 ];			// to store the names
                     }
-                    raf.readFully( strBuf );				// region name
+                    hin.readFully( strBuf );				// region name
                     for( i3 = 0; i3 < 64; i3++ ) {
                         if( strBuf[ i3 ] == 0 ) break;
                     }
@@ -2924,12 +4308,12 @@ len	= raf.length() - 8;
 
                 case BICSF_COMMENT:
                     strBuf2	= new byte[ i2 ];
-                    raf.readFully( strBuf2 );
+                    hin.readFully( strBuf2 );
                     descr.setProperty( AudioFileDescr.KEY_COMMENT, new String( strBuf2 ));
                     break;
 
                 default:
-                    raf.seek( raf.getFilePointer() + i2 );		// skip unknown code
+                    hin.seek( hin.getFilePointer() + i2 );		// skip unknown code
                     break;
                 }
             } while( i1 != BICSF_END );
@@ -2938,10 +4322,9 @@ len	= raf.length() - 8;
                 descr.setProperty( AudioFileDescr.KEY_REGIONS, regions );
             }
 
-            l1				= raf.getFilePointer();
+            l1				= hin.getFilePointer();
             sampleDataOffset= (l1 + 1023L) & ~1023L;			// aufgerundet auf ganze kilobyte
-            l1				= raf.length() - sampleDataOffset;  // dataLen in bytes
-            descr.length	= l1 / (((descr.bitsPerSample + 7) >> 3) * descr.channels);
+            descr.length	= openEndedLength( sampleDataOffset, ((descr.bitsPerSample + 7) >> 3) * descr.channels );
         }
 
         protected void writeHeader( AudioFileDescr descr )
@@ -2954,16 +4337,16 @@ len	= raf.length() - 8;
             long			pos;
             String			str;
 
-            raf.writeInt( IRCAM_VAXBE_MAGIC );
-            raf.writeFloat( (float) descr.rate );
-            raf.writeInt( descr.channels );
+            hout.writeInt( IRCAM_VAXBE_MAGIC );
+            hout.writeFloat( (float) descr.rate );
+            hout.writeInt( descr.channels );
 
             if( (descr.sampleFormat == AudioFileDescr.FORMAT_INT) && (descr.bitsPerSample == 32) ) {
                 i1 = 0x40004;
             } else {
                 i1	= descr.bitsPerSample >> 3;		// 1 = 8bit int, 2 = 16bit lin; 3 = 24 bit, 4 = 32bit float, 8 = 64bit float
             }
-            raf.writeInt( i1 );
+            hout.writeInt( i1 );
 
             // markers + regions, loop
             regions  = (List) descr.getProperty( AudioFileDescr.KEY_REGIONS );
@@ -2973,15 +4356,15 @@ len	= raf.length() - 8;
                 strBuf[ 0 ] = 0;
                 for( i2 = 0; i2 < regions.size(); i2++ ) {
                     region	= (Region) regions.get( i2 );
-                    raf.writeInt( i1 );		// chunk header
+                    hout.writeInt( i1 );		// chunk header
                     if( region.name.length() <= 64 ) {
-                        raf.writeBytes( region.name );
-                        raf.write( strBuf, 0, 64 - region.name.length() );
+                        hout.writeBytes( region.name );
+                        hout.write( strBuf, 0, 64 - region.name.length() );
                     } else {
-                        raf.writeBytes( region.name.substring( 0, 64 ));
+                        hout.writeBytes( region.name.substring( 0, 64 ));
                     }
-                    raf.writeInt( (int) region.span.getStart() );
-                    raf.writeInt( (int) region.span.getStop() );
+                    hout.writeInt( (int) region.span.getStart() );
+                    hout.writeInt( (int) region.span.getStop() );
                 }
             }
 
@@ -2989,15 +4372,15 @@ len	= raf.length() - 8;
             str	= (String) descr.getProperty( AudioFileDescr.KEY_COMMENT );
             if( str != null ) {
                 i1		= (BICSF_COMMENT << 16) | str.length();
-                raf.writeInt( i1 );
-                raf.writeBytes( str );
+                hout.writeInt( i1 );
+                hout.writeBytes( str );
             }
 
-            raf.writeInt( BICSF_END << 16 );
-            pos				= raf.getFilePointer();
+            hout.writeInt( BICSF_END << 16 );
+            pos				= hout.getFilePointer();
             sampleDataOffset= (pos + 1023L) & ~1023L;		// aufgerundet auf ganze kilobyte
             strBuf			= new byte[ (int) (sampleDataOffset - pos) ];
-            raf.write( strBuf );							// pad until sample offset
+            hout.write( strBuf );							// pad until sample offset
         }
 
         protected void updateHeader( AudioFileDescr descr )
@@ -3006,6 +4389,12 @@ len	= raf.length() - 8;
             // not necessary
         }
 
+        protected void writeUnknownLength()
+        throws IOException
+        {
+            // the length is always determined by the file size
+        }
+
         protected long getSampleDataOffset()
         {
             return sampleDataOffset;
@@ -3017,6 +4406,61 @@ len	= raf.length() - 8;
         }
     } // class IRCAMHeader
 
+    // the header of a file opened through an AudioFileIndex.
+    // the actual header is only parsed when the app code is requested
+    private class IndexedHeader
+    extends AudioFileHeader
+    {
+        private final AudioFileIndex.Entry	e;
+
+        protected IndexedHeader( AudioFileIndex.Entry e )
+        {
+            this.e = e;
+        }
+
+        protected void readHeader( AudioFileDescr descr )
+        throws IOException
+        { /* empty */ }
+
+        protected void writeHeader( AudioFileDescr descr )
+        throws IOException
+        {
+            throw new IllegalStateException();
+        }
+
+        protected void updateHeader( AudioFileDescr descr )
+        throws IOException
+        {
+            throw new IllegalStateException();
+        }
+
+        protected long getSampleDataOffset()
+        {
+            return e.dataOffset;
+        }
+
+        protected ByteOrder getByteOrder()
+        {
+            return e.getByteOrder();
+        }
+
+        protected boolean isUnsignedPCM()
+        {
+            return e.isUnsignedPCM();
+        }
+
+        // markers are already part of the indexed description
+
+        protected void readAppCode()
+        throws IOException
+        {
+            final AudioFileHeader h = createHeader();
+
+            h.readHeader( new AudioFileDescr( afd ));
+            h.readAppCode();
+        }
+    } // class IndexedHeader
+
     private class RawHeader
     extends AudioFileHeader
     {
@@ -3037,6 +4481,10 @@ len	= raf.length() - 8;
         throws IOException
         { /* empty */ }
 
+        protected void writeUnknownLength()
+        throws IOException
+        { /* empty */ }
+
         protected long getSampleDataOffset()
         {
             return 0L;
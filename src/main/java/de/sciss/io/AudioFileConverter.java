@@ -0,0 +1,566 @@
+/*
+ *  AudioFileConverter.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.sciss.common.ProcessingThread;
+
+/**
+ *	Converts sound files to a given format, using several worker
+ *	threads. The number of channels, the sample rate and the
+ *	markers of each source file are kept, while the file type,
+ *	resolution and sample format are taken from a template.
+ *	<p>
+ *	A batch of files is converted such that each file is handled
+ *	as a whole by one worker, so different files are decoded and encoded
+ *	in parallel. If the encodings match, the sample data is copied
+ *	without decoding. A single large file can be converted by splitting
+ *	it into ranges of frames instead, which are decoded and encoded by all
+ *	workers in parallel and written to their positions in the target file.
+ *	<p>
+ *	When <code>convert</code> is called from within a <code>ProcessingThread</code>,
+ *	the overall progress is reported through <code>ProcessingThread.update</code>,
+ *	and the conversion stops when the user cancels the process. The progress
+ *	of the individual files of a batch is passed to the listener.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class AudioFileConverter
+{
+    private final int					numThreads;
+
+    // the following are guarded by sync
+    private final Object				sync		= new Object();
+    private File[]						sources;
+    private File[]						targets;
+    private AudioFileDescr				template;
+    private Listener					listener;
+    private float[]						progress;
+    private int							nextJob;
+    private int							numActive;
+    private int							numConverted;
+    private int							numFailed;
+    private volatile boolean			stopped;
+    private boolean						busy		= false;
+
+    // the following are used when splitting a single file
+    private AudioFile					splitSource;
+    private AudioFile					splitTarget;
+    private long						nextFrame;
+    private long						framesDone;
+    private long						framesTotal;
+    private IOException					splitException;
+
+    private static final int			BUFSIZE		= 8192;
+    // number of frames between two progress updates
+    private static final int			CHUNKSIZE	= BUFSIZE << 3;
+
+    /**
+     *	Creates a new converter.
+     *
+     *	@param	numThreads	the number of worker threads, typically
+     *						the number of processors
+     */
+    public AudioFileConverter( int numThreads )
+    {
+        if( numThreads <= 0 ) throw new IllegalArgumentException( String.valueOf( numThreads ));
+
+        this.numThreads = numThreads;
+    }
+
+    /**
+     *	Converts a number of files. This method returns when all files
+     *	have been processed. Files which cannot be converted are reported
+     *	to the listener, and their incomplete targets are deleted. The listener
+     *	is called from the worker threads and must therefore be thread safe.
+     *
+     *	@param	sources		the files to convert
+     *	@param	targets		the files to create, one for each source.
+     *						existing files are overwritten
+     *	@param	template	a description whose <code>type</code>,
+     *						<code>bitsPerSample</code> and <code>sampleFormat</code>
+     *						fields determine the format of the targets
+     *	@param	l			receives the progress and errors of each file,
+     *						or <code>null</code>
+     *	@return	the number of files converted successfully
+     *
+     *	@throws	ProcessingThread.CancelledException	if the surrounding
+     *					<code>ProcessingThread</code> was cancelled, or <code>cancel</code>
+     *					was called
+     */
+    public int convert( File[] sources, File[] targets, AudioFileDescr template, Listener l )
+    throws IOException
+    {
+        if( sources.length != targets.length ) throw new IllegalArgumentException();
+
+        final boolean cancelled;
+
+        synchronized( sync ) {
+            if( busy ) throw new IllegalStateException( "Conversion in progress" );
+            busy			= true;
+            this.sources	= sources;
+            this.targets	= targets;
+            this.template	= template;
+            listener		= l;
+            progress		= new float[ sources.length ];
+            nextJob			= 0;
+            numConverted	= 0;
+            numFailed		= 0;
+        }
+        try {
+            cancelled = runWorkers( new Runnable() {
+                public void run()
+                {
+                    int idx;
+
+                    while( (idx = nextJob()) >= 0 ) {
+                        process( idx );
+                    }
+                }
+            }, Math.min( numThreads, sources.length ));
+        }
+        finally {
+            synchronized( sync ) {
+                this.sources	= null;
+                this.targets	= null;
+                this.template	= null;
+                listener		= null;
+                progress		= null;
+                busy			= false;
+            }
+        }
+        if( cancelled ) throw new ProcessingThread.CancelledException();
+
+        return getConvertedCount();
+    }
+
+    /**
+     *	Converts a single file, splitting it into ranges of frames
+     *	which are converted concurrently by the worker threads. The target
+     *	file is created with its final length, the workers write their
+     *	ranges to the corresponding positions, and the header is
+     *	completed when the file is closed. This is useful for very large
+     *	files, since the conversion is usually limited by the processor
+     *	rather than by the storage device.
+     *
+     *	@param	source		the file to convert
+     *	@param	target		the file to create. an existing file is overwritten
+     *	@param	template	a description whose <code>type</code>,
+     *						<code>bitsPerSample</code> and <code>sampleFormat</code>
+     *						fields determine the format of the target
+     *
+     *	@throws	IOException	if the conversion fails. the incomplete target
+     *						is deleted
+     *	@throws	ProcessingThread.CancelledException	if the surrounding
+     *					<code>ProcessingThread</code> was cancelled, or <code>cancel</code>
+     *					was called
+     *
+     *	@see	AudioFile#writeFrames( long, float[][], int, int )
+     */
+    public void convert( File source, File target, AudioFileDescr template )
+    throws IOException
+    {
+        AudioFile	afSrc	= null;
+        AudioFile	afTgt	= null;
+        boolean		success	= false;
+        boolean		cancelled;
+        long		total;
+
+        synchronized( sync ) {
+            if( busy ) throw new IllegalStateException( "Conversion in progress" );
+            busy			= true;
+            numConverted	= 0;
+            numFailed		= 0;
+        }
+        try {
+            afSrc	= AudioFile.openAsRead( source );
+            afSrc.readMarkers();
+            afTgt	= AudioFile.openAsWrite( createTargetDescr( afSrc.getDescr(), template, target ));
+            total	= afSrc.getFrameNum();
+            afTgt.setFrameNum( total );
+
+            synchronized( sync ) {
+                splitSource		= afSrc;
+                splitTarget		= afTgt;
+                nextFrame		= 0L;
+                framesDone		= 0L;
+                framesTotal		= total;
+                splitException	= null;
+            }
+            cancelled = runWorkers( new Runnable() {
+                public void run()
+                {
+                    long pos;
+
+                    while( (pos = nextRange()) >= 0 ) {
+                        processRange( pos );
+                    }
+                }
+            }, (int) Math.min( numThreads, (total + CHUNKSIZE - 1) / CHUNKSIZE ));
+
+            if( splitException != null ) throw splitException;
+            if( cancelled ) throw new ProcessingThread.CancelledException();
+
+            afTgt.close();
+            success = true;
+        }
+        catch( IOException e1 ) {
+            if( !(e1 instanceof ProcessingThread.CancelledException) ) {
+                synchronized( sync ) {
+                    numFailed++;
+                }
+            }
+            throw e1;
+        }
+        catch( RuntimeException e1 ) {
+            synchronized( sync ) {
+                numFailed++;
+            }
+            throw wrap( e1 );
+        }
+        finally {
+            if( afSrc != null ) afSrc.cleanUp();
+            if( !success && (afTgt != null) ) {
+                afTgt.cleanUp();
+                target.delete();
+            }
+            synchronized( sync ) {
+                splitSource		= null;
+                splitTarget		= null;
+                framesTotal		= 0L;
+                splitException	= null;
+                if( success ) numConverted++;
+                busy			= false;
+            }
+        }
+    }
+
+    // runs the workers and reports the progress until they are
+    // finished or cancelled. returns whether the process was cancelled
+    private boolean runWorkers( Runnable job, int numWorkers )
+    throws IOException
+    {
+        final Thread[]	workers	= new Thread[ numWorkers ];
+        float			prog;
+        boolean			cancelled;
+
+        synchronized( sync ) {
+            numActive	= numWorkers;
+            stopped		= false;
+        }
+        for( int i = 0; i < numWorkers; i++ ) {
+            workers[ i ] = new Thread( new Worker( job ), "AudioFileConverter " + i );
+            workers[ i ].setDaemon( true );
+            workers[ i ].start();
+        }
+
+        try {
+            while( true ) {
+                synchronized( sync ) {
+                    if( (numActive == 0) || stopped ) break;
+                    try {
+                        sync.wait( 100 );
+                    }
+                    catch( InterruptedException e1 ) { /* ignore */ }
+                    if( ProcessingThread.shouldCancel() ) stopped = true;
+                    if( stopped ) break;
+                    prog = getProgress();
+                }
+                ProcessingThread.update( prog );
+            }
+        }
+        finally {
+            synchronized( sync ) {
+                cancelled	= stopped && (splitException == null);
+                stopped		= true;
+            }
+            for( int i = 0; i < numWorkers; i++ ) {
+                try {
+                    workers[ i ].join();
+                }
+                catch( InterruptedException e1 ) { /* ignore */ }
+            }
+        }
+        return cancelled;
+    }
+
+    // sync must be held
+    private float getProgress()
+    {
+        float prog = 0f;
+
+        if( progress != null ) {
+            for( int i = 0; i < progress.length; i++ ) prog += progress[ i ];
+            prog /= progress.length;
+        } else if( framesTotal > 0 ) {
+            prog = (float) framesDone / framesTotal;
+        }
+        return prog;
+    }
+
+    /**
+     *	Stops a running conversion. <code>convert</code> will then
+     *	throw a <code>ProcessingThread.CancelledException</code>.
+     *	May be called from any thread.
+     */
+    public void cancel()
+    {
+        synchronized( sync ) {
+            stopped = true;
+            sync.notifyAll();
+        }
+    }
+
+    /**
+     *	Returns the number of files converted
+     *	successfully so far in the current or last run.
+     */
+    public int getConvertedCount()
+    {
+        synchronized( sync ) {
+            return numConverted;
+        }
+    }
+
+    /**
+     *	Returns the number of files which could not be
+     *	converted in the current or last run.
+     */
+    public int getFailedCount()
+    {
+        synchronized( sync ) {
+            return numFailed;
+        }
+    }
+
+    /**
+     *	Creates the description of a converted file.
+     *
+     *	@param	src			the description of the source file
+     *	@param	template	provides the file type, resolution
+     *						and sample format
+     *	@param	target		the file to create
+     */
+    public static AudioFileDescr createTargetDescr( AudioFileDescr src, AudioFileDescr template, File target )
+    {
+        final AudioFileDescr afd = new AudioFileDescr( src );
+
+        afd.file			= target;
+        afd.type			= template.type;
+        afd.bitsPerSample	= template.bitsPerSample;
+        afd.sampleFormat	= template.sampleFormat;
+        afd.length			= 0;
+        return afd;
+    }
+
+    // returns the index of the next job or -1 if there are none left
+    protected int nextJob()
+    {
+        synchronized( sync ) {
+            if( stopped || (nextJob == sources.length) ) return -1;
+            return nextJob++;
+        }
+    }
+
+    // returns the start of the next range or -1 if there are none left
+    protected long nextRange()
+    {
+        synchronized( sync ) {
+            if( stopped || (nextFrame == framesTotal) ) return -1L;
+            final long pos = nextFrame;
+            nextFrame = Math.min( framesTotal, nextFrame + CHUNKSIZE );
+            return pos;
+        }
+    }
+
+    protected void processRange( long pos )
+    {
+        final int		len		= (int) Math.min( CHUNKSIZE, framesTotal - pos );
+        final float[][]	buf		= new float[ splitSource.getChannelNum() ][ Math.min( len, BUFSIZE )];
+        int				chunkLength;
+
+        try {
+            for( int i = 0; (i < len) && !stopped; i += chunkLength ) {
+                chunkLength = Math.min( BUFSIZE, len - i );
+                splitSource.readFrames( pos + i, buf, 0, chunkLength );
+                splitTarget.writeFrames( pos + i, buf, 0, chunkLength );
+                synchronized( sync ) {
+                    framesDone += chunkLength;
+                }
+            }
+        }
+        catch( IOException e1 ) {
+            splitFailed( e1 );
+        }
+        catch( RuntimeException e1 ) {
+            splitFailed( wrap( e1 ));
+        }
+    }
+
+    // stops the other workers, the first exception is thrown by convert
+    private void splitFailed( IOException e )
+    {
+        synchronized( sync ) {
+            if( splitException == null ) splitException = e;
+            stopped = true;
+            sync.notifyAll();
+        }
+    }
+
+    protected void workerDone()
+    {
+        synchronized( sync ) {
+            numActive--;
+            sync.notifyAll();
+        }
+    }
+
+    protected void process( int idx )
+    {
+        final File	src		= sources[ idx ];
+        final File	tgt		= targets[ idx ];
+        final Listener	l	= listener;
+        AudioFile	afSrc	= null;
+        AudioFile	afTgt	= null;
+        boolean		success	= false;
+        long		total, done;
+        int			chunkLength;
+
+        try {
+            afSrc	= AudioFile.openAsRead( src );
+            afSrc.readMarkers();
+            afTgt	= AudioFile.openAsWrite( createTargetDescr( afSrc.getDescr(), template, tgt ));
+            total	= afSrc.getFrameNum();
+            for( done = 0; (done < total) && !stopped; done += chunkLength ) {
+                chunkLength = (int) Math.min( CHUNKSIZE, total - done );
+                afSrc.copyFrames( afTgt, chunkLength );
+                setProgress( idx, (float) (done + chunkLength) / total );
+            }
+            if( !stopped ) {
+                afTgt.close();
+                success = true;
+            }
+        }
+        catch( IOException e1 ) {
+            failed( src, e1 );
+        }
+        catch( RuntimeException e1 ) {
+            failed( src, wrap( e1 ));
+        }
+        finally {
+            if( afSrc != null ) afSrc.cleanUp();
+            if( !success && (afTgt != null) ) {
+                afTgt.cleanUp();
+                tgt.delete();
+            }
+        }
+        setProgress( idx, 1f );
+        if( success ) {
+            synchronized( sync ) {
+                numConverted++;
+            }
+            if( l != null ) l.fileConverted( src, tgt );
+        }
+    }
+
+    private void failed( File src, IOException e )
+    {
+        synchronized( sync ) {
+            numFailed++;
+        }
+        if( listener != null ) listener.conversionFailed( src, e );
+    }
+
+    // malformed sound files may raise runtime exceptions, which
+    // must not kill the worker. they are reported as I/O errors
+    private static IOException wrap( RuntimeException e1 )
+    {
+        final IOException e2 = new IOException( e1.toString() );
+        e2.initCause( e1 );
+        return e2;
+    }
+
+    private void setProgress( int idx, float p )
+    {
+        synchronized( sync ) {
+            progress[ idx ] = p;
+        }
+        if( (listener != null) && (p < 1f) ) listener.progress( sources[ idx ], p );
+    }
+
+// -------- internal classes --------
+
+    /**
+     *	Receives the results of a conversion.
+     *	The methods are called from the worker threads.
+     */
+    public interface Listener
+    {
+        /**
+         *	Called repeatedly while a file is converted.
+         *
+         *	@param	src			the source file
+         *	@param	progress	the progress of this file between zero and one
+         */
+        public void progress( File src, float progress );
+
+        /**
+         *	Called for each file converted successfully.
+         */
+        public void fileConverted( File src, File target );
+
+        /**
+         *	Called for each file which could not be converted.
+         *	Runtime exceptions caused by malformed files are reported
+         *	here as well, wrapped as the cause of an <code>IOException</code>.
+         */
+        public void conversionFailed( File src, IOException e );
+    }
+
+    private class Worker
+    implements Runnable
+    {
+        private final Runnable job;
+
+        protected Worker( Runnable job )
+        {
+            this.job = job;
+        }
+
+        public void run()
+        {
+            try {
+                job.run();
+            }
+            finally {
+                workerDone();
+            }
+        }
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ *  AudioFileIndex.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *	An index of parsed audio file headers. For each file, the
+ *	fields of its <code>AudioFileDescr</code>, the markers, regions,
+ *	loop, gain and comment, and the location and byte order of the sample
+ *	data are stored, keyed by the file's absolute path, size and
+ *	modification date. <code>AudioFile.openAsRead( File, AudioFileIndex )</code>
+ *	and <code>AudioFile.retrieveType( File, AudioFileIndex )</code>
+ *	consult the index before parsing a header, and add newly parsed
+ *	files to it. A file whose size or modification date has changed is
+ *	parsed again. Paths are not canonicalized, since this would
+ *	require file system access; a file reached through different
+ *	paths is indexed separately.
+ *	<p>
+ *	The index is kept in memory and can be stored in a compact
+ *	binary file, from which it is loaded again upon construction.
+ *	All methods are synchronized.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class AudioFileIndex
+{
+    private static final int	MAGIC		= 0x41464978;	// 'AFIx'
+    private static final int	VERSION		= 1;
+
+    // DataOutput.writeUTF is limited to 65535 bytes
+    private static final int	MAX_STRING	= 21845;
+
+    private static final int	FLAG_BIGENDIAN	= 0x01;
+    private static final int	FLAG_UNSIGNED	= 0x02;
+    private static final int	FLAG_APPCODE	= 0x04;
+    private static final int	FLAG_GAIN		= 0x08;
+    private static final int	FLAG_LOOP		= 0x10;
+    private static final int	FLAG_COMMENT	= 0x20;
+    private static final int	FLAG_MARKERS	= 0x40;
+    private static final int	FLAG_REGIONS	= 0x80;
+
+    private final File			storeFile;
+    private final Map			map			= new HashMap();	// String (absolute path) -> Entry
+    private boolean				modified	= false;
+
+    private long				hits		= 0L;
+    private long				misses		= 0L;
+
+    /**
+     *	Creates an index which is not stored on disc.
+     */
+    public AudioFileIndex()
+    {
+        storeFile = null;
+    }
+
+    /**
+     *	Creates an index, loading the entries of a previously
+     *	saved index. If the store file does not exist or cannot
+     *	be read, the index starts empty.
+     *
+     *	@param	storeFile	the file to load from and to save to
+     *
+     *	@see	#save()
+     */
+    public AudioFileIndex( File storeFile )
+    {
+        this.storeFile = storeFile;
+        if( storeFile.isFile() ) {
+            try {
+                load();
+            }
+            catch( IOException e1 ) {
+                map.clear();
+            }
+        }
+    }
+
+    /**
+     *	Returns the file which stores the index,
+     *	or <code>null</code> if the index is not stored.
+     */
+    public File getStoreFile()
+    {
+        return storeFile;
+    }
+
+    /**
+     *	Writes the index to the store file, if it was
+     *	modified since it was loaded or last saved.
+     *	The file is replaced atomically where the platform permits.
+     *
+     *	@throws	IOException	if the file cannot be written
+     */
+    public synchronized void save()
+    throws IOException
+    {
+        if( (storeFile == null) || !modified ) return;
+
+        final File				temp	= new File( storeFile.getPath() + ".tmp" );
+        final DataOutputStream	dos		= new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( temp ), 65536 ));
+
+        try {
+            dos.writeInt( MAGIC );
+            dos.writeInt( VERSION );
+            dos.writeInt( map.size() );
+            for( Iterator iter = map.values().iterator(); iter.hasNext(); ) {
+                ((Entry) iter.next()).write( dos );
+            }
+        }
+        finally {
+            dos.close();
+        }
+        if( !temp.renameTo( storeFile )) {		// e.g. on Windows, the target must not exist
+            if( storeFile.exists() && !storeFile.delete() ) {
+                throw new IOException( AudioFile.getResourceString( "errDeleteFile" ));
+            }
+            if( !temp.renameTo( storeFile )) throw new IOException( storeFile.getPath() );
+        }
+        modified = false;
+    }
+
+    /**
+     *	Looks up the description of a file without opening it.
+     *
+     *	@param	f	the audio file
+     *	@return	a new description, including the properties stored
+     *			in the index, or <code>null</code> if the file is
+     *			not indexed or has changed
+     */
+    public AudioFileDescr getDescr( File f )
+    {
+        final Entry e = lookup( f );
+        return( e == null ? null : e.createDescr( f ));
+    }
+
+    /**
+     *	Removes the entry of a file, or if <code>f</code> denotes a folder,
+     *	the entries of all files contained in the folder and its sub folders.
+     */
+    public synchronized void invalidate( File f )
+    {
+        final String path	= f.getAbsolutePath();
+        final String prefix	= path.endsWith( File.separator ) ? path : path + File.separator;
+
+        if( map.remove( path ) != null ) modified = true;
+        for( Iterator iter = map.keySet().iterator(); iter.hasNext(); ) {
+            if( ((String) iter.next()).startsWith( prefix )) {
+                iter.remove();
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     *	Removes the entries of files which no longer exist.
+     *
+     *	@return	the number of removed entries
+     */
+    public synchronized int prune()
+    {
+        int num = 0;
+
+        for( Iterator iter = map.keySet().iterator(); iter.hasNext(); ) {
+            if( !new File( (String) iter.next() ).isFile() ) {
+                iter.remove();
+                num++;
+            }
+        }
+        if( num > 0 ) modified = true;
+        return num;
+    }
+
+    /**
+     *	Removes all entries.
+     */
+    public synchronized void clear()
+    {
+        if( !map.isEmpty() ) modified = true;
+        map.clear();
+    }
+
+    /**
+     *	Returns the number of indexed files.
+     */
+    public synchronized int getEntryCount()
+    {
+        return map.size();
+    }
+
+    /**
+     *	Returns the number of lookups which found an up-to-date entry.
+     */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     *	Returns the number of lookups for files which were
+     *	not indexed or which had changed.
+     */
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     *	Resets the hit and miss counters to zero.
+     */
+    public synchronized void resetStatistics()
+    {
+        hits	= 0L;
+        misses	= 0L;
+    }
+
+    public synchronized String toString()
+    {
+        return( "AudioFileIndex( entries = " + map.size() + ", hits = " + hits + ", misses = " + misses + " )" );
+    }
+
+    // ---- called by AudioFile ----
+
+    protected Entry lookup( File f )
+    {
+        final String	path			= f.getAbsolutePath();
+        final long		length			= f.length();
+        final long		lastModified	= f.lastModified();
+
+        synchronized( this ) {
+            final Entry e = (Entry) map.get( path );
+            if( (e != null) && (e.length == length) && (e.lastModified == lastModified) ) {
+                hits++;
+                return e;
+            }
+            if( e != null ) {
+                map.remove( path );
+                modified = true;
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    protected void put( File f, AudioFileDescr afd, long dataOffset, ByteOrder byteOrder, boolean unsignedPCM )
+    {
+        final Entry e = Entry.create( afd, f.length(), f.lastModified(), dataOffset, byteOrder, unsignedPCM );
+
+        if( e == null ) return;		// not representable
+        synchronized( this ) {
+            map.put( f.getAbsolutePath(), e );
+            modified = true;
+        }
+    }
+
+    private void load()
+    throws IOException
+    {
+        final DataInputStream dis = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( storeFile ), 65536 ));
+
+        try {
+            if( (dis.readInt() != MAGIC) || (dis.readInt() != VERSION) ) return;
+            for( int i = dis.readInt(); i > 0; i-- ) {
+                final String path = dis.readUTF();
+                map.put( path, Entry.read( path, dis ));
+            }
+        }
+        finally {
+            dis.close();
+        }
+    }
+
+    private static boolean isStorable( String s )
+    {
+        return( (s == null) || (s.length() <= MAX_STRING) );
+    }
+
+// -------- internal classes --------
+
+    static final class Entry
+    {
+        private final String		path;
+        protected final long		length;
+        protected final long		lastModified;
+        private final int			type;
+        private final int			channels;
+        private final double		rate;
+        private final int			bitsPerSample;
+        private final int			sampleFormat;
+        private final long			numFrames;
+        private final String		appCode;
+        protected final long		dataOffset;
+        private final int			flags;
+        private final float			gain;
+        private final Region		loop;
+        private final String		comment;
+        private final Marker[]		markers;
+        private final Region[]		regions;
+
+        private Entry( String path, long length, long lastModified, int type, int channels, double rate,
+                       int bitsPerSample, int sampleFormat, long numFrames, String appCode, long dataOffset,
+                       int flags, float gain, Region loop, String comment, Marker[] markers, Region[] regions )
+        {
+            this.path			= path;
+            this.length			= length;
+            this.lastModified	= lastModified;
+            this.type			= type;
+            this.channels		= channels;
+            this.rate			= rate;
+            this.bitsPerSample	= bitsPerSample;
+            this.sampleFormat	= sampleFormat;
+            this.numFrames		= numFrames;
+            this.appCode		= appCode;
+            this.dataOffset		= dataOffset;
+            this.flags			= flags;
+            this.gain			= gain;
+            this.loop			= loop;
+            this.comment		= comment;
+            this.markers		= markers;
+            this.regions		= regions;
+        }
+
+        // returns null if the descr holds strings too long to be stored
+        protected static Entry create( AudioFileDescr afd, long length, long lastModified,
+                                       long dataOffset, ByteOrder byteOrder, boolean unsignedPCM )
+        {
+            final Object	gainObj		= afd.getProperty( AudioFileDescr.KEY_GAIN );
+            final Region	loop		= (Region) afd.getProperty( AudioFileDescr.KEY_LOOP );
+            final String	comment		= (String) afd.getProperty( AudioFileDescr.KEY_COMMENT );
+            final List		markerList	= (List) afd.getProperty( AudioFileDescr.KEY_MARKERS );
+            final List		regionList	= (List) afd.getProperty( AudioFileDescr.KEY_REGIONS );
+            Marker[]		markers		= null;
+            Region[]		regions		= null;
+            int				flags		= 0;
+
+            if( !isStorable( comment ) || ((loop != null) && !isStorable( loop.name )) ) return null;
+
+            if( byteOrder == ByteOrder.BIG_ENDIAN ) flags |= FLAG_BIGENDIAN;
+            if( unsignedPCM )		flags |= FLAG_UNSIGNED;
+            if( afd.appCode != null ) flags |= FLAG_APPCODE;
+            if( gainObj != null )	flags |= FLAG_GAIN;
+            if( loop != null )		flags |= FLAG_LOOP;
+            if( comment != null )	flags |= FLAG_COMMENT;
+            if( markerList != null ) {
+                flags  |= FLAG_MARKERS;
+                markers	= (Marker[]) markerList.toArray( new Marker[ markerList.size() ]);
+                for( int i = 0; i < markers.length; i++ ) {
+                    if( !isStorable( markers[ i ].name )) return null;
+                }
+            }
+            if( regionList != null ) {
+                flags  |= FLAG_REGIONS;
+                regions	= (Region[]) regionList.toArray( new Region[ regionList.size() ]);
+                for( int i = 0; i < regions.length; i++ ) {
+                    if( !isStorable( regions[ i ].name )) return null;
+                }
+            }
+
+            return new Entry( afd.file.getAbsolutePath(), length, lastModified, afd.type, afd.channels, afd.rate,
+                              afd.bitsPerSample, afd.sampleFormat, afd.length, afd.appCode, dataOffset, flags,
+                              gainObj == null ? 1f : ((Number) gainObj).floatValue(), loop, comment, markers, regions );
+        }
+
+        protected static Entry read( String path, DataInputStream dis )
+        throws IOException
+        {
+            final long		length			= dis.readLong();
+            final long		lastModified	= dis.readLong();
+            final int		type			= dis.readByte();
+            final int		channels		= dis.readInt();
+            final double	rate			= dis.readDouble();
+            final int		bitsPerSample	= dis.readUnsignedByte();
+            final int		sampleFormat	= dis.readUnsignedByte();
+            final long		numFrames		= dis.readLong();
+            final long		dataOffset		= dis.readLong();
+            final int		flags			= dis.readUnsignedByte();
+            final String	appCode			= (flags & FLAG_APPCODE) != 0 ? dis.readUTF() : null;
+            final float		gain			= (flags & FLAG_GAIN) != 0 ? dis.readFloat() : 1f;
+            final String	comment			= (flags & FLAG_COMMENT) != 0 ? dis.readUTF() : null;
+            Region			loop			= null;
+            Marker[]		markers			= null;
+            Region[]		regions			= null;
+
+            if( (flags & FLAG_LOOP) != 0 ) loop = readRegion( dis );
+            if( (flags & FLAG_MARKERS) != 0 ) {
+                markers = new Marker[ dis.readInt() ];
+                for( int i = 0; i < markers.length; i++ ) {
+                    markers[ i ] = new Marker( dis.readLong(), dis.readUTF() );
+                }
+            }
+            if( (flags & FLAG_REGIONS) != 0 ) {
+                regions = new Region[ dis.readInt() ];
+                for( int i = 0; i < regions.length; i++ ) {
+                    regions[ i ] = readRegion( dis );
+                }
+            }
+
+            return new Entry( path, length, lastModified, type, channels, rate, bitsPerSample, sampleFormat,
+                              numFrames, appCode, dataOffset, flags, gain, loop, comment, markers, regions );
+        }
+
+        private static Region readRegion( DataInputStream dis )
+        throws IOException
+        {
+            final long start	= dis.readLong();
+            final long stop		= dis.readLong();
+            return new Region( new Span( start, stop ), dis.readUTF() );
+        }
+
+        protected void write( DataOutputStream dos )
+        throws IOException
+        {
+            dos.writeUTF( path );
+            dos.writeLong( length );
+            dos.writeLong( lastModified );
+            dos.writeByte( type );
+            dos.writeInt( channels );
+            dos.writeDouble( rate );
+            dos.writeByte( bitsPerSample );
+            dos.writeByte( sampleFormat );
+            dos.writeLong( numFrames );
+            dos.writeLong( dataOffset );
+            dos.writeByte( flags );
+            if( appCode != null ) dos.writeUTF( appCode );
+            if( (flags & FLAG_GAIN) != 0 ) dos.writeFloat( gain );
+            if( comment != null ) dos.writeUTF( comment );
+            if( loop != null ) writeRegion( dos, loop );
+            if( markers != null ) {
+                dos.writeInt( markers.length );
+                for( int i = 0; i < markers.length; i++ ) {
+                    dos.writeLong( markers[ i ].pos );
+                    dos.writeUTF( markers[ i ].name );
+                }
+            }
+            if( regions != null ) {
+                dos.writeInt( regions.length );
+                for( int i = 0; i < regions.length; i++ ) {
+                    writeRegion( dos, regions[ i ]);
+                }
+            }
+        }
+
+        private static void writeRegion( DataOutputStream dos, Region r )
+        throws IOException
+        {
+            dos.writeLong( r.span.start );
+            dos.writeLong( r.span.stop );
+            dos.writeUTF( r.name );
+        }
+
+        protected AudioFileDescr createDescr( File f )
+        {
+            final AudioFileDescr afd = new AudioFileDescr();
+
+            afd.file			= f;
+            afd.type			= type;
+            afd.channels		= channels;
+            afd.rate			= rate;
+            afd.bitsPerSample	= bitsPerSample;
+            afd.sampleFormat	= sampleFormat;
+            afd.length			= numFrames;
+            afd.appCode			= appCode;
+
+            if( (flags & FLAG_GAIN) != 0 ) afd.setProperty( AudioFileDescr.KEY_GAIN, new Float( gain ));
+            if( loop != null ) afd.setProperty( AudioFileDescr.KEY_LOOP, loop );
+            if( comment != null ) afd.setProperty( AudioFileDescr.KEY_COMMENT, comment );
+            if( markers != null ) afd.setProperty( AudioFileDescr.KEY_MARKERS, toList( markers ));
+            if( regions != null ) afd.setProperty( AudioFileDescr.KEY_REGIONS, toList( regions ));
+
+            return afd;
+        }
+
+        private static List toList( Object[] a )
+        {
+            final List l = new ArrayList( a.length );
+            for( int i = 0; i < a.length; i++ ) l.add( a[ i ]);
+            return l;
+        }
+
+        protected ByteOrder getByteOrder()
+        {
+            return( (flags & FLAG_BIGENDIAN) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN );
+        }
+
+        protected boolean isUnsignedPCM()
+        {
+            return( (flags & FLAG_UNSIGNED) != 0 );
+        }
+
+        protected int getType()
+        {
+            return type;
+        }
+    }
+}
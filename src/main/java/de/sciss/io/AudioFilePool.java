@@ -0,0 +1,225 @@
+/*
+ *  AudioFilePool.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.sciss.util.MutableInt;
+
+/**
+ *	Limits the number of file descriptors held by a large number
+ *	of <code>AudioFile</code>s opened for reading. Files are opened
+ *	through the pool, which keeps at most <code>maxOpen</code> of them
+ *	physically open. When a file is needed and the limit is reached,
+ *	the least recently used file that is not being read at the moment
+ *	is closed. A closed file is reopened transparently upon its next read;
+ *	its header is not parsed again, since the <code>AudioFileDescr</code>
+ *	and sample data offset are kept, and the frame position is restored.
+ *	<p>
+ *	The limit is soft: if all open files are busy, another file
+ *	is opened nevertheless. Files must be closed with
+ *	<code>AudioFile.close</code> as usual, which removes them from the pool.
+ *	All methods are synchronized.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class AudioFilePool
+{
+    private final int	maxOpen;
+    private final Map	files		= new HashMap();						// AudioFile -> MutableInt (use count)
+    private final Map	open		= new LinkedHashMap( 16, 0.75f, true );	// access order
+
+    private long		reopens		= 0L;
+    private long		evictions	= 0L;
+
+    /**
+     *	Creates a new pool.
+     *
+     *	@param	maxOpen	the maximum number of files with open descriptors
+     */
+    public AudioFilePool( int maxOpen )
+    {
+        if( maxOpen <= 0 ) throw new IllegalArgumentException( String.valueOf( maxOpen ));
+
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     *  Opens an audio file for reading and adds it to the pool.
+     *	The header is parsed at once, the descriptor may be
+     *	closed later when other files of the pool are accessed.
+     *
+     *  @param		f   the path name of the file
+     *  @return		a new <code>AudioFile</code> object
+     *
+     *  @throws IOException if the file was not found, could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	AudioFile#openAsRead( File )
+     */
+    public AudioFile openAsRead( File f )
+    throws IOException
+    {
+        return openAsRead( f, null );
+    }
+
+    /**
+     *  Opens an audio file for reading and adds it to the pool,
+     *	consulting an index of parsed headers.
+     *
+     *  @param		f		the path name of the file
+     *	@param		index	the index to consult, or <code>null</code>
+     *  @return		a new <code>AudioFile</code> object
+     *
+     *  @throws IOException if the file was not found, could not be read
+     *						or has an unknown or unsupported format
+     *
+     *	@see	AudioFile#openAsRead( File, AudioFileIndex )
+     */
+    public AudioFile openAsRead( File f, AudioFileIndex index )
+    throws IOException
+    {
+        final AudioFile af;
+
+        synchronized( this ) {
+            makeRoom();
+        }
+        af = AudioFile.openAsRead( f, index );	// header parsing need not block the pool
+        synchronized( this ) {
+            files.put( af, new MutableInt( 0 ));
+            open.put( af, af );
+            af.setPool( this );
+            evict( maxOpen );	// others may have opened files meanwhile
+        }
+        return af;
+    }
+
+    /**
+     *	Returns the maximum number of open files.
+     */
+    public int getMaxOpen()
+    {
+        return maxOpen;
+    }
+
+    /**
+     *	Returns the number of files in the pool.
+     */
+    public synchronized int getFileCount()
+    {
+        return files.size();
+    }
+
+    /**
+     *	Returns the number of files whose descriptors are currently open.
+     */
+    public synchronized int getOpenCount()
+    {
+        return open.size();
+    }
+
+    /**
+     *	Returns the number of times a file had to be reopened.
+     */
+    public synchronized long getReopenCount()
+    {
+        return reopens;
+    }
+
+    /**
+     *	Returns the number of times a descriptor was closed to make room.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /**
+     *	Closes the descriptors of all files which
+     *	are not being read at the moment.
+     */
+    public synchronized void closeIdle()
+    {
+        evict( 0 );
+    }
+
+    // ---- called by AudioFile ----
+
+    protected synchronized void acquire( AudioFile af )
+    throws IOException
+    {
+        final MutableInt useCount = (MutableInt) files.get( af );
+
+        if( open.get( af ) == null ) {		// get() also marks as recently used
+            makeRoom();
+            af.reopenHandle();
+            open.put( af, af );
+            reopens++;
+        }
+        useCount.add( 1 );
+    }
+
+    protected synchronized void release( AudioFile af )
+    {
+        final MutableInt useCount = (MutableInt) files.get( af );
+
+        if( useCount != null ) useCount.add( -1 );	// null if closed meanwhile
+    }
+
+    protected synchronized void remove( AudioFile af )
+    {
+        files.remove( af );
+        open.remove( af );
+    }
+
+    private void makeRoom()
+    {
+        evict( maxOpen - 1 );
+    }
+
+    // closes idle files until at most max are open
+    private void evict( int max )
+    {
+        AudioFile af;
+
+        for( Iterator iter = open.keySet().iterator(); (open.size() > max) && iter.hasNext(); ) {
+            af = (AudioFile) iter.next();
+            if( ((MutableInt) files.get( af )).value() > 0 ) continue;
+            iter.remove();
+            evictions++;
+            try {
+                af.closeHandle();
+            }
+            catch( IOException e1 ) { /* ignored, the file is reopened on demand */ }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ *  AudioFileScanner.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import de.sciss.common.ProcessingThread;
+
+/**
+ *	Walks directory trees and parses the headers of all sound
+ *	files found, using several worker threads. Since scanning a
+ *	library is dominated by the latency of opening files and reading
+ *	their first blocks, many concurrent requests keep the storage
+ *	device busy, even with few processor cores.
+ *	<p>
+ *	Directories and files are put into a common queue from which
+ *	the workers take their jobs, so workers which finish early
+ *	automatically take over the remaining parts of the tree. Each
+ *	description is passed to the listener as soon as it is parsed.
+ *	<p>
+ *	When <code>scan</code> is called from within a <code>ProcessingThread</code>,
+ *	the scan reports its progress through <code>ProcessingThread.update</code>
+ *	and stops when the user cancels the process.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class AudioFileScanner
+{
+    private final int					numThreads;
+    private FileFilter					filter		= null;
+    private AudioFileIndex				index		= null;
+    private boolean						markers		= false;
+
+    // the following are guarded by queue
+    private final LinkedList			queue		= new LinkedList();
+    private final Set					visitedDirs	= new HashSet();
+    private int							pending;
+    private int							numActive;
+    private boolean						stopped;
+    private Listener					listener;
+    private int							numScanned;
+    private int							numFailed;
+    private int							numSkipped;
+
+    private static final int			RESULT_NONE		= 0;
+    private static final int			RESULT_SCANNED	= 1;
+    private static final int			RESULT_FAILED	= 2;
+    private static final int			RESULT_SKIPPED	= 3;
+
+    /**
+     *	Creates a new scanner.
+     *
+     *	@param	numThreads	the number of worker threads. values of
+     *						two to four times the number of processors
+     *						are useful for solid state discs
+     */
+    public AudioFileScanner( int numThreads )
+    {
+        if( numThreads <= 0 ) throw new IllegalArgumentException( String.valueOf( numThreads ));
+
+        this.numThreads = numThreads;
+    }
+
+    /**
+     *	Restricts the scan to files accepted by a filter,
+     *	e.g. based on the file name extension. Directories
+     *	are always descended.
+     *
+     *	@param	filter	the filter, or <code>null</code> to try all files
+     */
+    public void setFileFilter( FileFilter filter )
+    {
+        this.filter = filter;
+    }
+
+    /**
+     *	Makes the scanner consult an index of parsed headers.
+     *	Files that are indexed and unchanged are not opened at all,
+     *	other files are added to the index. Markers are then always read.
+     *
+     *	@param	index	the index, or <code>null</code> to parse all headers
+     */
+    public void setIndex( AudioFileIndex index )
+    {
+        this.index = index;
+    }
+
+    /**
+     *	Determines whether markers, regions and the like are read as
+     *	well. This is <code>false</code> by default, except when an index is used.
+     */
+    public void setReadMarkers( boolean onOff )
+    {
+        markers = onOff;
+    }
+
+    /**
+     *	Scans a number of files and directory trees. This method returns
+     *	when all files have been processed. The listener is called from
+     *	the worker threads and must therefore be thread safe.
+     *
+     *	@param	roots	files and directories to scan
+     *	@param	l		receives the descriptions and errors
+     *	@return	the number of sound files found
+     *
+     *	@throws	ProcessingThread.CancelledException	if the surrounding
+     *					<code>ProcessingThread</code> was cancelled, or <code>cancel</code>
+     *					was called
+     */
+    public int scan( File[] roots, Listener l )
+    throws IOException
+    {
+        final Thread[]	workers	= new Thread[ numThreads ];
+        float			maxProg	= 0f;
+        float			prog;
+        boolean			cancelled;
+
+        synchronized( queue ) {
+            if( listener != null ) throw new IllegalStateException( "Scan in progress" );
+            listener	= l;
+            stopped		= false;
+            queue.clear();
+            visitedDirs.clear();
+            for( int i = 0; i < roots.length; i++ ) queue.add( roots[ i ]);
+            pending		= roots.length;
+            numActive	= numThreads;
+            numScanned	= 0;
+            numFailed	= 0;
+            numSkipped	= 0;
+        }
+
+        for( int i = 0; i < numThreads; i++ ) {
+            workers[ i ] = new Thread( new Worker(), "AudioFileScanner " + i );
+            workers[ i ].setDaemon( true );
+            workers[ i ].start();
+        }
+
+        try {
+            while( true ) {
+                synchronized( queue ) {
+                    if( (pending == 0) || (numActive == 0) || stopped ) break;
+                    try {
+                        queue.wait( 100 );
+                    }
+                    catch( InterruptedException e1 ) { /* ignore */ }
+                    if( ProcessingThread.shouldCancel() ) stopped = true;
+                    if( stopped ) break;
+                    final int done = numScanned + numFailed + numSkipped;
+                    prog = (float) done / (done + pending);
+                }
+                // the total is only known at the end, thus never step back
+                if( prog > maxProg ) maxProg = prog;
+                ProcessingThread.update( maxProg );
+            }
+        }
+        finally {
+            synchronized( queue ) {
+                cancelled	= stopped;
+                stopped		= true;
+                queue.clear();
+                queue.notifyAll();
+            }
+            for( int i = 0; i < numThreads; i++ ) {
+                try {
+                    workers[ i ].join();
+                }
+                catch( InterruptedException e1 ) { /* ignore */ }
+            }
+            synchronized( queue ) {
+                listener = null;
+                visitedDirs.clear();
+            }
+        }
+        if( cancelled ) throw new ProcessingThread.CancelledException();
+
+        return getScannedCount();
+    }
+
+    /**
+     *	Stops a running scan. <code>scan</code> will then
+     *	throw a <code>ProcessingThread.CancelledException</code>.
+     *	May be called from any thread.
+     */
+    public void cancel()
+    {
+        synchronized( queue ) {
+            stopped = true;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     *	Returns the number of sound files parsed
+     *	successfully so far in the current or last scan.
+     */
+    public int getScannedCount()
+    {
+        synchronized( queue ) {
+            return numScanned;
+        }
+    }
+
+    /**
+     *	Returns the number of files which could not be
+     *	read in the current or last scan.
+     */
+    public int getFailedCount()
+    {
+        synchronized( queue ) {
+            return numFailed;
+        }
+    }
+
+    /**
+     *	Returns the number of files which were not
+     *	recognized as sound files in the current or last scan.
+     */
+    public int getSkippedCount()
+    {
+        synchronized( queue ) {
+            return numSkipped;
+        }
+    }
+
+    // returns null if the scan is finished or stopped
+    protected File next()
+    {
+        synchronized( queue ) {
+            while( queue.isEmpty() ) {
+                if( (pending == 0) || stopped ) return null;
+                try {
+                    queue.wait();
+                }
+                catch( InterruptedException e1 ) { /* ignore */ }
+            }
+            return( stopped ? null : (File) queue.removeFirst() );
+        }
+    }
+
+    // files are queued first, so their results appear early
+    // and the queue stays short
+    protected void done( int result, File[] children, boolean[] isDir )
+    {
+        synchronized( queue ) {
+            switch( result ) {
+            case RESULT_SCANNED:
+                numScanned++;
+                break;
+            case RESULT_FAILED:
+                numFailed++;
+                break;
+            case RESULT_SKIPPED:
+                numSkipped++;
+                break;
+            default:
+                break;
+            }
+            if( children != null ) {
+                for( int i = 0; i < children.length; i++ ) {
+                    if( isDir[ i ]) {
+                        queue.addLast( children[ i ]);
+                    } else {
+                        queue.addFirst( children[ i ]);
+                    }
+                }
+                pending += children.length;
+            }
+            pending--;
+            queue.notifyAll();
+        }
+    }
+
+    protected void process( File f )
+    {
+        File[]		children	= null;
+        boolean[]	isDir		= null;
+        int			result		= RESULT_NONE;
+
+        try {
+            if( f.isDirectory() ) {
+                boolean isNew;
+                try {
+                    // canonical path detects cycles through symbolic links
+                    final String path = f.getCanonicalPath();
+                    synchronized( queue ) {
+                        isNew = visitedDirs.add( path );
+                    }
+                }
+                catch( IOException e1 ) {
+                    isNew = false;
+                }
+                if( isNew ) {
+                    children = filter == null ? f.listFiles() : f.listFiles( new DirectoryOrFilter( filter ));
+                }
+                if( children != null ) {
+                    isDir = new boolean[ children.length ];
+                    for( int i = 0; i < children.length; i++ ) {
+                        isDir[ i ] = children[ i ].isDirectory();
+                    }
+                }
+            } else {
+                result = scanFile( f );
+            }
+        }
+        finally {
+            done( result, children, isDir );
+        }
+    }
+
+    protected void workerDone()
+    {
+        synchronized( queue ) {
+            numActive--;
+            queue.notifyAll();
+        }
+    }
+
+    // malformed headers and listener errors are reported
+    // as failures instead of killing the worker
+    private int scanFile( File f )
+    {
+        final AudioFileDescr afd;
+
+        try {
+            afd = AudioFile.readDescr( f, index, markers );
+            if( afd == null ) return RESULT_SKIPPED;
+
+            listener.fileScanned( afd );
+            return RESULT_SCANNED;
+        }
+        catch( IOException e1 ) {
+            listener.scanFailed( f, e1 );
+            return RESULT_FAILED;
+        }
+        catch( RuntimeException e1 ) {
+            final IOException e2 = new IOException( e1.toString() );
+            e2.initCause( e1 );
+            listener.scanFailed( f, e2 );
+            return RESULT_FAILED;
+        }
+    }
+
+// -------- internal classes --------
+
+    /**
+     *	Receives the results of a scan.
+     *	The methods are called from the worker threads.
+     */
+    public interface Listener
+    {
+        /**
+         *	Called for each sound file found.
+         *
+         *	@param	afd	the file's description. its <code>file</code>
+         *				field denotes the scanned file
+         */
+        public void fileScanned( AudioFileDescr afd );
+
+        /**
+         *	Called for each file which could not be read or parsed.
+         *	Runtime exceptions thrown by the parser or by <code>fileScanned</code>
+         *	are reported here as well, wrapped as the cause of an <code>IOException</code>.
+         */
+        public void scanFailed( File f, IOException e );
+    }
+
+    private class Worker
+    implements Runnable
+    {
+        protected Worker() { /* empty */ }
+
+        public void run()
+        {
+            File f;
+
+            try {
+                while( (f = next()) != null ) {
+                    process( f );
+                }
+            }
+            finally {
+                workerDone();
+            }
+        }
+    }
+
+    private static class DirectoryOrFilter
+    implements FileFilter
+    {
+        private final FileFilter filter;
+
+        protected DirectoryOrFilter( FileFilter filter )
+        {
+            this.filter = filter;
+        }
+
+        public boolean accept( File f )
+        {
+            return( f.isDirectory() || filter.accept( f ));
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ *  AudioPieceTable.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.sciss.app.BasicUndoableEdit;
+import de.sciss.app.PerformableEdit;
+
+/**
+ *	A non-destructive edit model for sound documents. The document
+ *	is described by a list of pieces, each of which refers to a span
+ *	of an <code>AudioFile</code> or denotes silence. Editing operations
+ *	only change the list of pieces, the sound files are never written,
+ *	and reading resolves each request through the pieces on demand.
+ *	Thus cutting and pasting takes constant time regardless of the
+ *	length of the document, and undoing an edit only needs to remember
+ *	the pieces which were replaced.
+ *	<p>
+ *	Each operation is returned as a <code>PerformableEdit</code>
+ *	that has not yet been performed, e.g.
+ *	<pre>
+ *	undoMgr.addEdit( table.editDelete( span ).perform() );
+ *	</pre>
+ *	The edits can also be collected in a <code>BasicCompoundEdit</code>.
+ *	A cut consists of <code>getPieces</code>, which provides the clipboard
+ *	content, followed by <code>editCut</code>. The clipboard can later
+ *	be inserted with <code>editPaste</code>.
+ *	<p>
+ *	The table implements the <code>InterleavedStreamFile</code> interface
+ *	for reading, so the document can be played back through a
+ *	<code>ReadAheadReader</code> or written to a sound file using
+ *	<code>copyFrames</code>. The list of pieces is replaced as
+ *	a whole by each edit, therefore reads from other threads always see
+ *	a consistent state. The sound files are owned by the caller and
+ *	must stay open as long as they are referred to by the table or
+ *	by edits in the undo history.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ *
+ *	@see	de.sciss.app.UndoManager
+ */
+public class AudioPieceTable
+implements InterleavedStreamFile
+{
+    private final int				channels;
+    private final File				file;
+    private volatile State			state		= new State( new Piece[ 0 ]);
+    private long					position	= 0L;
+
+    private static final int		BUFSIZE		= 8192;
+
+    /**
+     *	Creates an empty table.
+     *
+     *	@param	channels	the number of channels of the document
+     */
+    public AudioPieceTable( int channels )
+    {
+        this.channels	= channels;
+        file			= null;
+    }
+
+    /**
+     *	Creates a table which initially consists
+     *	of the whole sound file.
+     *
+     *	@param	af	the original sound file of the document
+     */
+    public AudioPieceTable( AudioFile af )
+    {
+        channels	= af.getChannelNum();
+        file		= af.getFile();
+        if( af.getDescr().length > 0 ) {
+            state	= new State( new Piece[] { new Piece( af, new Span( 0, af.getDescr().length ))});
+        }
+    }
+
+    /**
+     *	Returns the number of pieces.
+     */
+    public int getPieceCount()
+    {
+        return state.pieces.length;
+    }
+
+    /**
+     *	Returns the pieces which make up a span of the document.
+     *	Pieces which are only partially covered by the span
+     *	are trimmed accordingly.
+     *
+     *	@param	span	the span in document frames
+     *	@return	a list of <code>Piece</code>s
+     */
+    public List getPieces( Span span )
+    {
+        final State	s		= state;
+        final List	result	= new ArrayList();
+        long		start;
+
+        if( (span.start < 0) || (span.stop > s.numFrames) ) throw new IllegalArgumentException( span.toString() );
+
+        for( int i = s.indexOf( span.start ); (i < s.pieces.length) && (s.starts[ i ] < span.stop); i++ ) {
+            start = s.starts[ i ];
+            result.add( s.pieces[ i ].trim( Math.max( 0, span.start - start ),
+                                            Math.min( s.pieces[ i ].getLength(), span.stop - start )));
+        }
+        return result;
+    }
+
+    /**
+     *	Returns all pieces of the document.
+     *
+     *	@return	a list of <code>Piece</code>s
+     */
+    public List getPieces()
+    {
+        return Arrays.asList( (Object[]) state.pieces.clone() );
+    }
+
+    /**
+     *	Creates an edit which inserts a span of a sound file.
+     *
+     *	@param	pos		the document position at which to insert
+     *	@param	af		the sound file, which must have the same number
+     *					of channels as the document
+     *	@param	span	the span in the sound file, which must lie
+     *					within the file's frames
+     */
+    public PerformableEdit editInsert( long pos, AudioFile af, Span span )
+    {
+        if( af.getChannelNum() != channels ) throw new IllegalArgumentException( String.valueOf( af.getChannelNum() ));
+
+        return new Edit( pos, pos, new Piece[] { new Piece( af, span )}, "editInsert" );
+    }
+
+    /**
+     *	Creates an edit which inserts silence.
+     *
+     *	@param	pos		the document position at which to insert
+     *	@param	length	the number of frames to insert
+     */
+    public PerformableEdit editInsertSilence( long pos, long length )
+    {
+        return new Edit( pos, pos, new Piece[] { new Piece( null, new Span( 0, length ))}, "editInsertSilence" );
+    }
+
+    /**
+     *	Creates an edit which inserts the pieces of a clipboard.
+     *
+     *	@param	pos		the document position at which to insert
+     *	@param	pieces	a list of <code>Piece</code>s, as returned
+     *					by <code>getPieces</code>
+     */
+    public PerformableEdit editPaste( long pos, List pieces )
+    {
+        final Piece[] p = new Piece[ pieces.size() ];
+
+        for( int i = 0; i < p.length; i++ ) {
+            p[ i ] = (Piece) pieces.get( i );
+            if( (p[ i ].file != null) && (p[ i ].file.getChannelNum() != channels) ) {
+                throw new IllegalArgumentException( String.valueOf( p[ i ].file.getChannelNum() ));
+            }
+        }
+        return new Edit( pos, pos, p, "editPaste" );
+    }
+
+    /**
+     *	Creates an edit which removes a span of the document.
+     *	This is the same as <code>editDelete</code>, but
+     *	with a different presentation name.
+     */
+    public PerformableEdit editCut( Span span )
+    {
+        return new Edit( span.start, span.stop, new Piece[ 0 ], "editCut" );
+    }
+
+    /**
+     *	Creates an edit which removes a span of the document.
+     */
+    public PerformableEdit editDelete( Span span )
+    {
+        return new Edit( span.start, span.stop, new Piece[ 0 ], "editDelete" );
+    }
+
+    // replaces pieces [idx ... idx + numRemoved) and returns the removed ones
+    protected synchronized Piece[] replace( int idx, int numRemoved, Piece[] inserted )
+    {
+        final Piece[] oldPieces	= state.pieces;
+        final Piece[] removed	= new Piece[ numRemoved ];
+        final Piece[] newPieces	= new Piece[ oldPieces.length - numRemoved + inserted.length ];
+
+        System.arraycopy( oldPieces, idx, removed, 0, numRemoved );
+        System.arraycopy( oldPieces, 0, newPieces, 0, idx );
+        System.arraycopy( inserted, 0, newPieces, idx, inserted.length );
+        System.arraycopy( oldPieces, idx + numRemoved, newPieces, idx + inserted.length,
+                          oldPieces.length - idx - numRemoved );
+        state = new State( newPieces );
+        return removed;
+    }
+
+// ---------------- InterleavedStreamFile interface ----------------
+
+    /**
+     *	Does nothing. The sound files are owned by the caller.
+     */
+    public void close() { /* empty */ }
+
+    /**
+     *	Not supported, the table is changed through edits only.
+     *
+     *	@throws	IllegalStateException	always
+     */
+    public void truncate()
+    {
+        throw new IllegalStateException();
+    }
+
+    public void readFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        readFrames( position, data, offset, length );
+        position += length;
+    }
+
+    public void readFrames( long pos, float[][] data, int offset, int length )
+    throws IOException
+    {
+        final State	s	= state;
+        int			i	= s.indexOf( pos );
+        Piece		p;
+        int			chunkLength;
+
+        if( (pos < 0) || (pos + length > s.numFrames) ) throw new EOFException();
+
+        while( length > 0 ) {
+            p			= s.pieces[ i ];
+            chunkLength	= (int) Math.min( length, s.starts[ i ] + p.getLength() - pos );
+            if( p.file == null ) {
+                for( int ch = 0; ch < channels; ch++ ) {
+                    if( data[ ch ] != null ) Arrays.fill( data[ ch ], offset, offset + chunkLength, 0f );
+                }
+            } else {
+                p.file.readFrames( p.span.start + pos - s.starts[ i ], data, offset, chunkLength );
+            }
+            pos		+= chunkLength;
+            offset	+= chunkLength;
+            length	-= chunkLength;
+            i++;
+        }
+    }
+
+    /**
+     *	Not supported, the table is changed through edits only.
+     *
+     *	@throws	IllegalStateException	always
+     */
+    public void writeFrames( float[][] data, int offset, int length )
+    {
+        throw new IllegalStateException();
+    }
+
+    /**
+     *	Copies sample frames to another file, beginning at
+     *	the current position of this table. This can be
+     *	used to render the document.
+     *
+     *	@param	target	to file to copy to
+     *	@param	length	the number of frames to copy
+     */
+    public void copyFrames( InterleavedStreamFile target, long length )
+    throws IOException
+    {
+        final float[][]	tempBuf	= new float[ channels ][ (int) Math.min( length, BUFSIZE )];
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength	= (int) Math.min( length, BUFSIZE );
+            readFrames( tempBuf, 0, chunkLength );
+            target.writeFrames( tempBuf, 0, chunkLength );
+            length	   -= chunkLength;
+        }
+    }
+
+    public void seekFrame( long pos )
+    {
+        position = pos;
+    }
+
+    public long getFrameNum()
+    {
+        return state.numFrames;
+    }
+
+    /**
+     *	Not supported, the table is changed through edits only.
+     *
+     *	@throws	IllegalStateException	always
+     */
+    public void setFrameNum( long n )
+    {
+        throw new IllegalStateException();
+    }
+
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    public long getFramePosition()
+    {
+        return position;
+    }
+
+    /**
+     *	Does nothing.
+     */
+    public void flush() { /* empty */ }
+
+    /**
+     *	Returns the original sound file of the document.
+     *
+     *	@return	the file passed to the constructor, or <code>null</code>
+     *			if the table was created empty
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+// -------- internal classes --------
+
+    /**
+     *	An immutable piece of the document, referring
+     *	either to a span of a sound file or to silence.
+     */
+    public static class Piece
+    {
+        /**
+         *	The sound file, or <code>null</code> for silence
+         */
+        public final AudioFile	file;
+        /**
+         *	The span in the sound file. For silence,
+         *	the span starts at zero.
+         */
+        public final Span		span;
+
+        /**
+         *	Creates a piece.
+         *
+         *	@param	file	the sound file, or <code>null</code> for silence
+         *	@param	span	the span in the sound file
+         *
+         *	@throws	IllegalArgumentException	if the span is empty or
+         *										exceeds the sound file
+         */
+        public Piece( AudioFile file, Span span )
+        {
+            if( span.isEmpty() || (span.start < 0) ||
+                ((file != null) && (span.stop > file.getDescr().length)) ) {
+
+                throw new IllegalArgumentException( span.toString() );
+            }
+
+            this.file	= file;
+            this.span	= span;
+        }
+
+        public long getLength()
+        {
+            return span.getLength();
+        }
+
+        // returns a part of this piece, with offsets relative to the piece start
+        protected Piece trim( long start, long stop )
+        {
+            if( (start == 0) && (stop == span.getLength()) ) return this;
+
+            return new Piece( file, new Span( span.start + start, span.start + stop ));
+        }
+
+        public String toString()
+        {
+            final String name;
+
+            if( file == null ) {
+                name = "silence";
+            } else if( file.getFile() == null ) {
+                name = file.toString();
+            } else {
+                name = file.getFile().getName();
+            }
+            return( name + " " + span );
+        }
+    }
+
+    // an immutable snapshot of the piece list
+    private static class State
+    {
+        protected final Piece[]	pieces;
+        protected final long[]	starts;
+        protected final long	numFrames;
+
+        protected State( Piece[] pieces )
+        {
+            long n = 0L;
+
+            this.pieces	= pieces;
+            starts		= new long[ pieces.length ];
+            for( int i = 0; i < pieces.length; i++ ) {
+                starts[ i ]	= n;
+                n		   += pieces[ i ].getLength();
+            }
+            numFrames	= n;
+        }
+
+        // index of the piece containing pos, or the number of pieces
+        protected int indexOf( long pos )
+        {
+            int lo = 0;
+            int hi = pieces.length;
+
+            while( lo < hi ) {
+                final int mid = (lo + hi) >> 1;
+                if( starts[ mid ] + pieces[ mid ].getLength() <= pos ) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private class Edit
+    extends BasicUndoableEdit
+    {
+        private final long		start, stop;
+        private final Piece[]	pieces;
+        private final String	nameKey;
+
+        // set by perform
+        private int				idx;
+        private Piece[]			inserted;
+        private Piece[]			removed;
+
+        protected Edit( long start, long stop, Piece[] pieces, String nameKey )
+        {
+            this.start		= start;
+            this.stop		= stop;
+            this.pieces		= pieces;
+            this.nameKey	= nameKey;
+        }
+
+        // replaces the frames [start ... stop) by the pieces,
+        // splitting the pieces at both ends as necessary
+        public PerformableEdit perform()
+        {
+            synchronized( AudioPieceTable.this ) {
+                final State	s		= state;
+                final List	coll	= new ArrayList( pieces.length + 2 );
+                final int	stopIdx;
+                Piece		p;
+
+                if( (start < 0) || (stop < start) || (stop > s.numFrames) ) {
+                    throw new IllegalArgumentException( new Span( start, stop ).toString() );
+                }
+
+                idx = s.indexOf( start );
+                if( stop > start ) {
+                    stopIdx = s.indexOf( stop - 1 ) + 1;
+                } else {
+                    stopIdx = (idx < s.pieces.length) && (s.starts[ idx ] < start) ? idx + 1 : idx;
+                }
+                if( stopIdx > idx ) {
+                    p = s.pieces[ idx ];
+                    if( s.starts[ idx ] < start ) {								// split first piece
+                        coll.add( p.trim( 0, start - s.starts[ idx ]));
+                    }
+                    coll.addAll( Arrays.asList( pieces ));
+                    p = s.pieces[ stopIdx - 1 ];
+                    if( s.starts[ stopIdx - 1 ] + p.getLength() > stop ) {		// split last piece
+                        coll.add( p.trim( stop - s.starts[ stopIdx - 1 ], p.getLength() ));
+                    }
+                } else {
+                    coll.addAll( Arrays.asList( pieces ));
+                }
+                inserted	= (Piece[]) coll.toArray( new Piece[ coll.size() ]);
+                removed		= replace( idx, stopIdx - idx, inserted );
+            }
+            return this;
+        }
+
+        public void undo()
+        {
+            super.undo();
+            replace( idx, inserted.length, removed );
+        }
+
+        public void redo()
+        {
+            super.redo();
+            replace( idx, removed.length, inserted );
+        }
+
+        public String getPresentationName()
+        {
+            return IOUtil.getResourceString( nameKey );
+        }
+    }
+}
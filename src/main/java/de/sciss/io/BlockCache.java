@@ -0,0 +1,297 @@
+/*
+ *  BlockCache.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *	A memory cache of decoded sample blocks which can be shared
+ *	by any number of <code>AudioFile</code>s opened for reading.
+ *	Each file is divided into blocks of a fixed number of frames;
+ *	the blocks are stored per channel as <code>float</code> arrays
+ *	and identified by the file's path, size and modification date,
+ *	channel and block index. Thus several <code>AudioFile</code>
+ *	objects reading the same sound file share their blocks, while
+ *	a file that has been modified does not see stale data.
+ *	<p>
+ *	The cache is bounded by its capacity in bytes. When it is full,
+ *	the least recently used blocks are evicted. All methods are
+ *	synchronized, the cache can be used from any thread.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ *
+ *	@see	AudioFile#setBlockCache( BlockCache )
+ */
+public class BlockCache
+{
+    /**
+     *	Default number of frames per block
+     */
+    public static final int		DEFAULT_BLOCK_SIZE	= 8192;
+
+    /**
+     *	Capacity of the default cache in bytes
+     */
+    public static final long	DEFAULT_CAPACITY	= 64L << 20;
+
+    private static BlockCache	defaultCache		= null;
+
+    private final int			blockSize;
+    private final long			capacity;
+    private final Map			map		= new LinkedHashMap( 256, 0.75f, true );	// access order
+
+    private long				size		= 0L;
+    private long				hits		= 0L;
+    private long				misses		= 0L;
+    private long				evictions	= 0L;
+
+    /**
+     *	Creates a new cache.
+     *
+     *	@param	blockSize	number of sample frames per block
+     *	@param	capacity	maximum size of all cached blocks in bytes
+     */
+    public BlockCache( int blockSize, long capacity )
+    {
+        if( (blockSize <= 0) || (capacity < 0) ) throw new IllegalArgumentException();
+
+        this.blockSize	= blockSize;
+        this.capacity	= capacity;
+    }
+
+    /**
+     *	Returns the process-wide cache, which is created
+     *	with the default block size and capacity upon the first call.
+     */
+    public static synchronized BlockCache getDefault()
+    {
+        if( defaultCache == null ) {
+            defaultCache = new BlockCache( DEFAULT_BLOCK_SIZE, DEFAULT_CAPACITY );
+        }
+        return defaultCache;
+    }
+
+    /**
+     *	Creates an identifier for a sound file, to be used
+     *	with <code>get</code> and <code>put</code>.
+     *	Identifiers of the same unmodified file are equal.
+     *
+     *	@throws	IOException	if the canonical path cannot be determined
+     */
+    public static Object createFileID( File f )
+    throws IOException
+    {
+        return new FileID( f.getCanonicalPath(), f.length(), f.lastModified() );
+    }
+
+    /**
+     *	Returns the number of sample frames per block.
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     *	Returns the maximum size of the cache in bytes.
+     */
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     *	Returns the current size of all cached blocks in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     *	Looks up a block. A hit marks the block as recently used.
+     *
+     *	@param	fileID	an identifier obtained from <code>createFileID</code>
+     *	@param	ch		the channel index
+     *	@param	block	the block index, i.e. the frame offset divided by the block size
+     *	@return	the block's samples or <code>null</code> if the block is not cached.
+     *			the array must not be modified. the last block of a file
+     *			may be shorter than the block size
+     */
+    public synchronized float[] get( Object fileID, int ch, long block )
+    {
+        final float[] b = (float[]) map.get( new Key( fileID, ch, block ));
+
+        if( b == null ) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return b;
+    }
+
+    /**
+     *	Adds a block to the cache, evicting the least
+     *	recently used blocks if necessary. The array
+     *	is stored by reference and must not be modified afterwards.
+     */
+    public synchronized void put( Object fileID, int ch, long block, float[] data )
+    {
+        final long		bytes	= (long) data.length << 2;
+        final float[]	old		= (float[]) map.put( new Key( fileID, ch, block ), data );
+
+        if( old != null ) size -= (long) old.length << 2;
+        size += bytes;
+
+        for( Iterator iter = map.values().iterator(); (size > capacity) && iter.hasNext(); ) {
+            size -= (long) ((float[]) iter.next()).length << 2;
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     *	Removes all blocks of a file.
+     */
+    public synchronized void remove( Object fileID )
+    {
+        for( Iterator iter = map.entrySet().iterator(); iter.hasNext(); ) {
+            final Map.Entry e = (Map.Entry) iter.next();
+            if( ((Key) e.getKey()).fileID.equals( fileID )) {
+                size -= (long) ((float[]) e.getValue()).length << 2;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     *	Removes all blocks.
+     */
+    public synchronized void clear()
+    {
+        map.clear();
+        size = 0L;
+    }
+
+    /**
+     *	Returns the number of successful lookups.
+     */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     *	Returns the number of lookups that did not find a block.
+     */
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     *	Returns the number of blocks that were evicted to make room.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /**
+     *	Resets the hit, miss and eviction counters to zero.
+     */
+    public synchronized void resetStatistics()
+    {
+        hits		= 0L;
+        misses		= 0L;
+        evictions	= 0L;
+    }
+
+    public synchronized String toString()
+    {
+        return( "BlockCache( size = " + size + " / " + capacity + ", hits = " + hits +
+                ", misses = " + misses + ", evictions = " + evictions + " )" );
+    }
+
+// -------- internal classes --------
+
+    private static final class FileID
+    {
+        private final String	path;
+        private final long		length;
+        private final long		lastModified;
+
+        protected FileID( String path, long length, long lastModified )
+        {
+            this.path			= path;
+            this.length			= length;
+            this.lastModified	= lastModified;
+        }
+
+        public boolean equals( Object o )
+        {
+            if( !(o instanceof FileID) ) return false;
+            final FileID id = (FileID) o;
+            return( path.equals( id.path ) && (length == id.length) && (lastModified == id.lastModified) );
+        }
+
+        public int hashCode()
+        {
+            return path.hashCode() ^ (int) (lastModified ^ (lastModified >>> 32));
+        }
+    }
+
+    private static final class Key
+    {
+        protected final Object	fileID;
+        private final int		ch;
+        private final long		block;
+
+        protected Key( Object fileID, int ch, long block )
+        {
+            this.fileID	= fileID;
+            this.ch		= ch;
+            this.block	= block;
+        }
+
+        public boolean equals( Object o )
+        {
+            if( !(o instanceof Key) ) return false;
+            final Key k = (Key) o;
+            return( (block == k.block) && (ch == k.ch) && fileID.equals( k.fileID ));
+        }
+
+        public int hashCode()
+        {
+            return (fileID.hashCode() * 31 + ch) * 31 + (int) (block ^ (block >>> 32));
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ *  ConcatenatedStreamFile.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *	A read-only <code>InterleavedStreamFile</code> which presents
+ *	an ordered list of <code>AudioFileRegion</code>s, possibly taken
+ *	from different sound files, as one continuous stream. Nothing is
+ *	copied: each read is mapped to the regions it covers, and the
+ *	frames are read from the underlying files. Thus a playlist or a
+ *	list of segments can be passed directly to <code>copyFrames</code>
+ *	or a <code>ReadAheadReader</code>.
+ *	<p>
+ *	The sound files are opened when they are first read from, optionally
+ *	through an <code>AudioFilePool</code>. A file referred to by several
+ *	regions is opened only once. All files must have the same number
+ *	of channels.
+ *	<p>
+ *	Optionally, adjacent regions are crossfaded. The end of each region
+ *	then overlaps the beginning of the next region by the crossfade
+ *	length, using an equal-power curve, so the stream becomes shorter
+ *	than the sum of the regions. At each join the crossfade is limited to
+ *	half the length of the shorter of both regions.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class ConcatenatedStreamFile
+implements InterleavedStreamFile
+{
+    private final AudioFileRegion[]	regions;
+    private final AudioFile[]		files;
+    private final long[]			starts;		// position of each region in the stream
+    private final long[]			fades;		// crossfade between region i and i+1
+    private final Map				mapFiles	= new HashMap();	// File -> AudioFile
+    private final AudioFilePool		pool;
+    private final int				channels;
+    private final long				numFrames;
+
+    private long					position	= 0L;
+    private boolean					closed		= false;
+
+    private static final int		BUFSIZE		= 8192;
+
+    /**
+     *	Creates a stream without crossfades.
+     *
+     *	@param	regions	a list of <code>AudioFileRegion</code>s
+     *
+     *	@throws	IOException	if the first sound file cannot be opened
+     */
+    public ConcatenatedStreamFile( List regions )
+    throws IOException
+    {
+        this( regions, 0L, null );
+    }
+
+    /**
+     *	Creates a new stream. Only the first sound file is
+     *	opened immediately, to find out the number of channels.
+     *
+     *	@param	regions		a list of <code>AudioFileRegion</code>s in the
+     *						order in which they are played. each region
+     *						must be non-empty and lie within its file
+     *	@param	crossfade	the maximum length of the crossfade between
+     *						adjacent regions in frames, or zero to
+     *						join the regions directly
+     *	@param	pool		the pool through which the files are opened,
+     *						or <code>null</code>
+     *
+     *	@throws	IOException	if the first sound file cannot be opened
+     */
+    public ConcatenatedStreamFile( List regions, long crossfade, AudioFilePool pool )
+    throws IOException
+    {
+        final int	numRegions	= regions.size();
+        long		n;
+
+        if( (numRegions == 0) || (crossfade < 0) ) throw new IllegalArgumentException();
+
+        this.regions	= new AudioFileRegion[ numRegions ];
+        this.pool		= pool;
+        files			= new AudioFile[ numRegions ];
+        starts			= new long[ numRegions ];
+        fades			= new long[ numRegions ];	// last entry remains zero
+
+        for( int i = 0; i < numRegions; i++ ) {
+            this.regions[ i ] = (AudioFileRegion) regions.get( i );
+            if( this.regions[ i ].region.span.isEmpty() ) throw new IllegalArgumentException();
+        }
+        for( int i = 0; i < numRegions - 1; i++ ) {
+            n = Math.min( getRegionLength( i ), getRegionLength( i + 1 )) >> 1;
+            fades[ i ] = Math.min( crossfade, n );
+        }
+        n = 0L;
+        for( int i = 0; i < numRegions; i++ ) {
+            starts[ i ]	= n;
+            n		   += getRegionLength( i ) - fades[ i ];
+        }
+        numFrames	= n;
+        channels	= getAudioFile( 0 ).getChannelNum();
+    }
+
+    /**
+     *	Returns the number of regions.
+     */
+    public int getRegionCount()
+    {
+        return regions.length;
+    }
+
+    /**
+     *	Returns one of the regions.
+     */
+    public AudioFileRegion getRegion( int idx )
+    {
+        return regions[ idx ];
+    }
+
+    /**
+     *	Returns the frame position in this stream
+     *	at which a region begins, which is
+     *	the beginning of its crossfade, if any.
+     */
+    public long getRegionStart( int idx )
+    {
+        return starts[ idx ];
+    }
+
+    private long getRegionLength( int idx )
+    {
+        return regions[ idx ].region.span.getLength();
+    }
+
+    // opens the file of a region if necessary
+    private AudioFile getAudioFile( int idx )
+    throws IOException
+    {
+        synchronized( mapFiles ) {
+            if( closed ) throw new IOException( IOUtil.getResourceString( "errStreamClosed" ));
+
+            AudioFile af = files[ idx ];
+            if( af == null ) {
+                final File f = regions[ idx ].file;
+                af = (AudioFile) mapFiles.get( f );
+                if( af == null ) {
+                    af = pool == null ? AudioFile.openAsRead( f ) : pool.openAsRead( f );
+                    if( (files[ 0 ] != null) && (af.getChannelNum() != files[ 0 ].getChannelNum()) ) {
+                        af.close();
+                        throw new IOException( f.getName() + " : " + AudioFile.getResourceString( "errAudioFileEncoding" ));
+                    }
+                    mapFiles.put( f, af );
+                }
+                files[ idx ] = af;
+            }
+            return af;
+        }
+    }
+
+    // index of the last region beginning at or before a position
+    private int indexOf( long pos )
+    {
+        int lo = 0;
+        int hi = starts.length - 1;
+
+        while( lo < hi ) {
+            final int mid = (lo + hi + 1) >> 1;
+            if( starts[ mid ] <= pos ) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+// ---------------- InterleavedStreamFile interface ----------------
+
+    /**
+     *	Closes all sound files opened by this stream.
+     */
+    public void close()
+    throws IOException
+    {
+        IOException e = null;
+
+        synchronized( mapFiles ) {
+            closed = true;
+            for( Iterator iter = mapFiles.values().iterator(); iter.hasNext(); ) {
+                try {
+                    ((AudioFile) iter.next()).close();
+                }
+                catch( IOException e1 ) {
+                    if( e == null ) e = e1;
+                }
+            }
+            mapFiles.clear();
+        }
+        if( e != null ) throw e;
+    }
+
+    /**
+     *	Not supported, the stream is read-only.
+     *
+     *	@throws	IllegalStateException	always
+     */
+    public void truncate()
+    {
+        throw new IllegalStateException();
+    }
+
+    public void readFrames( float[][] data, int offset, int length )
+    throws IOException
+    {
+        readFrames( position, data, offset, length );
+        position += length;
+    }
+
+    public void readFrames( long pos, float[][] data, int offset, int length )
+    throws IOException
+    {
+        if( (pos < 0) || (pos + length > numFrames) ) throw new EOFException();
+
+        float[][]	tempBuf	= null;
+        int			i		= indexOf( pos );
+        long		stop;
+        int			chunkLength;
+
+        while( length > 0 ) {
+            if( (i > 0) && (pos < starts[ i ] + fades[ i - 1 ])) {	// crossfade into region i
+                chunkLength = (int) Math.min( length, starts[ i ] + fades[ i - 1 ] - pos );
+                if( tempBuf == null ) tempBuf = new float[ channels ][ Math.min( length, BUFSIZE )];
+                mixFrames( i - 1, pos, data, offset, chunkLength, tempBuf );
+            } else {
+                stop		= starts[ i ] + getRegionLength( i ) - fades[ i ];
+                chunkLength	= (int) Math.min( length, stop - pos );
+                getAudioFile( i ).readFrames( regions[ i ].region.span.start + pos - starts[ i ],
+                                              data, offset, chunkLength );
+            }
+            pos		+= chunkLength;
+            offset	+= chunkLength;
+            length	-= chunkLength;
+            while( (i < starts.length - 1) && (starts[ i + 1 ] <= pos) ) i++;
+        }
+    }
+
+    // mixes the end of region idx with the beginning of region idx + 1
+    private void mixFrames( int idx, long pos, float[][] data, int offset, int length, float[][] tempBuf )
+    throws IOException
+    {
+        final AudioFile	afOut		= getAudioFile( idx );
+        final AudioFile	afIn		= getAudioFile( idx + 1 );
+        final long		fadeStart	= starts[ idx + 1 ];
+        final double	fadeScale	= Math.PI / (2 * fades[ idx ]);
+        final long		offOut		= regions[ idx ].region.span.start - starts[ idx ];
+        final long		offIn		= regions[ idx + 1 ].region.span.start - fadeStart;
+        final float[]	gainIn		= new float[ tempBuf[ 0 ].length ];
+        final float[]	gainOut		= new float[ tempBuf[ 0 ].length ];
+        float[]			a, b;
+        double			w;
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength = Math.min( length, tempBuf[ 0 ].length );
+            for( int j = 0; j < chunkLength; j++ ) {
+                w				= (pos + j - fadeStart + 0.5) * fadeScale;
+                gainIn[ j ]		= (float) Math.sin( w );
+                gainOut[ j ]	= (float) Math.cos( w );
+            }
+            afOut.readFrames( pos + offOut, tempBuf, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                a = data[ ch ];
+                if( a == null ) continue;
+                b = tempBuf[ ch ];
+                for( int j = 0, k = offset; j < chunkLength; j++, k++ ) {
+                    a[ k ] = b[ j ] * gainOut[ j ];
+                }
+            }
+            afIn.readFrames( pos + offIn, tempBuf, 0, chunkLength );
+            for( int ch = 0; ch < channels; ch++ ) {
+                a = data[ ch ];
+                if( a == null ) continue;
+                b = tempBuf[ ch ];
+                for( int j = 0, k = offset; j < chunkLength; j++, k++ ) {
+                    a[ k ] += b[ j ] * gainIn[ j ];
+                }
+            }
+            pos		+= chunkLength;
+            offset	+= chunkLength;
+            length	-= chunkLength;
+        }
+    }
+
+    /**
+     *	Not supported, the stream is read-only.
+     *
+     *	@throws	IllegalStateException	always
+     */
+    public void writeFrames( float[][] data, int offset, int length )
+    {
+        throw new IllegalStateException();
+    }
+
+    /**
+     *	Copies sample frames to another file, beginning at
+     *	the current position of this stream.
+     *
+     *	@param	target	to file to copy to
+     *	@param	length	the number of frames to copy
+     */
+    public void copyFrames( InterleavedStreamFile target, long length )
+    throws IOException
+    {
+        final float[][]	tempBuf	= new float[ channels ][ (int) Math.min( length, BUFSIZE )];
+        int				chunkLength;
+
+        while( length > 0 ) {
+            chunkLength	= (int) Math.min( length, BUFSIZE );
+            readFrames( tempBuf, 0, chunkLength );
+            target.writeFrames( tempBuf, 0, chunkLength );
+            length	   -= chunkLength;
+        }
+    }
+
+    /**
+     *	Moves the position of this stream. The position
+     *	is only mapped to a region when frames are read.
+     */
+    public void seekFrame( long pos )
+    {
+        position = pos;
+    }
+
+    public long getFrameNum()
+    {
+        return numFrames;
+    }
+
+    /**
+     *	Not supported, the stream is read-only.
+     *
+     *	@throws	IllegalStateException	always
+     */
+    public void setFrameNum( long n )
+    {
+        throw new IllegalStateException();
+    }
+
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    public long getFramePosition()
+    {
+        return position;
+    }
+
+    /**
+     *	Does nothing, since the stream is read-only.
+     */
+    public void flush() { /* empty */ }
+
+    /**
+     *	Returns the file of the first region.
+     */
+    public File getFile()
+    {
+        return regions[ 0 ].file;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  DurabilityPolicy.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+/**
+ *	Determines how often an <code>AudioFile</code> opened for
+ *	writing rewrites its header and forces its content to the
+ *	storage device. After each <code>writeFrames</code> call, the
+ *	file checks whether the frame interval or the time interval
+ *	since the last update has been exceeded, and if so, calls
+ *	<code>flush</code>. <code>flush</code> and <code>close</code>
+ *	update the header and then synchronize according to
+ *	the sync mode.
+ *	<p>
+ *	There are presets for common cases, further policies can be
+ *	created with the constructor or by subclassing and overriding
+ *	the getter methods.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ *
+ *	@see	AudioFile#setDurabilityPolicy( DurabilityPolicy )
+ */
+public class DurabilityPolicy
+{
+    /**
+     *	Sync mode: never call <code>force</code>, leave it
+     *	to the operating system when data reaches the disc.
+     */
+    public static final int SYNC_NONE	= 0;
+    /**
+     *	Sync mode: call <code>force( false )</code>, forcing
+     *	the file content but not necessarily its meta data
+     *	such as the modification date.
+     */
+    public static final int SYNC_DATA	= 1;
+    /**
+     *	Sync mode: call <code>force( true )</code>, forcing
+     *	both file content and meta data.
+     */
+    public static final int SYNC_ALL	= 2;
+
+    /**
+     *	Interval value denoting that the particular
+     *	criterion never triggers an update.
+     */
+    public static final long NEVER		= -1L;
+
+    /**
+     *	No periodic header updates and no synchronization at
+     *	all. The header is written when the file is closed.
+     *	Useful for scratch files and temporary renders.
+     */
+    public static final DurabilityPolicy NONE		= new DurabilityPolicy( NEVER, NEVER, SYNC_NONE );
+
+    /**
+     *	Header update and <code>force( true )</code> after each
+     *	<code>writeFrames</code> call. Safest but slowest.
+     */
+    public static final DurabilityPolicy STRICT		= new DurabilityPolicy( 0L, 0L, SYNC_ALL );
+
+    /**
+     *	The traditional behaviour: header update and
+     *	<code>force( true )</code> every 20 seconds of
+     *	audio or every 10 seconds of wall-clock time.
+     */
+    public static final DurabilityPolicy DEFAULT	= new DurabilityPolicy( NEVER, 10000L, SYNC_ALL ) {
+        public long getFrameInterval( AudioFileDescr afd )
+        {
+            return (long) afd.rate * 20;
+        }
+    };
+
+    private final long	frameInterval;
+    private final long	timeInterval;
+    private final int	syncMode;
+
+    /**
+     *	Creates a new policy.
+     *
+     *	@param	frameInterval	the number of frames written after which
+     *							the file is flushed, <code>0</code> to flush
+     *							after each write, or <code>NEVER</code>
+     *	@param	timeInterval	the time in milliseconds after which
+     *							the file is flushed, <code>0</code> to flush
+     *							after each write, or <code>NEVER</code>
+     *	@param	syncMode		one of <code>SYNC_NONE</code>, <code>SYNC_DATA</code>
+     *							and <code>SYNC_ALL</code>
+     */
+    public DurabilityPolicy( long frameInterval, long timeInterval, int syncMode )
+    {
+        if( (syncMode < SYNC_NONE) || (syncMode > SYNC_ALL) ) throw new IllegalArgumentException( String.valueOf( syncMode ));
+
+        this.frameInterval	= frameInterval;
+        this.timeInterval	= timeInterval;
+        this.syncMode		= syncMode;
+    }
+
+    /**
+     *	Creates a policy which flushes periodically
+     *	and calls <code>force( true )</code>.
+     *
+     *	@param	frameInterval	frames between updates or <code>NEVER</code>
+     *	@param	timeInterval	milliseconds between updates or <code>NEVER</code>
+     */
+    public static DurabilityPolicy periodic( long frameInterval, long timeInterval )
+    {
+        return new DurabilityPolicy( frameInterval, timeInterval, SYNC_ALL );
+    }
+
+    /**
+     *	Creates a policy which flushes periodically
+     *	and calls <code>force( false )</code>, thus not
+     *	waiting for meta data such as time stamps to be written.
+     *
+     *	@param	frameInterval	frames between updates or <code>NEVER</code>
+     *	@param	timeInterval	milliseconds between updates or <code>NEVER</code>
+     */
+    public static DurabilityPolicy periodicData( long frameInterval, long timeInterval )
+    {
+        return new DurabilityPolicy( frameInterval, timeInterval, SYNC_DATA );
+    }
+
+    /**
+     *	Returns the number of frames after which
+     *	the file should be flushed.
+     *
+     *	@param	afd	the description of the file being written
+     *	@return	the interval in sample frames, or <code>NEVER</code>
+     */
+    public long getFrameInterval( AudioFileDescr afd )
+    {
+        return frameInterval;
+    }
+
+    /**
+     *	Returns the time after which the file should be flushed.
+     *
+     *	@return	the interval in milliseconds, or <code>NEVER</code>
+     */
+    public long getTimeInterval()
+    {
+        return timeInterval;
+    }
+
+    /**
+     *	Returns the way in which the file is synchronized
+     *	with the storage device upon flushing and closing.
+     *
+     *	@return	one of <code>SYNC_NONE</code>, <code>SYNC_DATA</code>
+     *			and <code>SYNC_ALL</code>
+     */
+    public int getSyncMode()
+    {
+        return syncMode;
+    }
+}
@@ -52,6 +52,13 @@ public interface InterleavedStreamFile
 
     public void readFrames( float[][] data, int offset, int length ) throws IOException;
 
+    /**
+     *	Reads frames from an absolute position without using or
+     *	modifying the file's frame position. Implementations
+     *	must allow concurrent calls from multiple threads.
+     */
+    public void readFrames( long position, float[][] data, int offset, int length ) throws IOException;
+
     public void writeFrames( float[][] data, int offset, int length ) throws IOException;
 
     public void copyFrames( InterleavedStreamFile target, long length ) throws IOException;
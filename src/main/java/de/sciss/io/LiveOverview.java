@@ -0,0 +1,208 @@
+/*
+ *  LiveOverview.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *	The waveform overview of a file that is being written.
+ *	Each level is collected in a temporary file while recording.
+ *	Queries see all frames processed so far, except for the
+ *	incomplete decimation frame at the end of each level.
+ *	When the recording is finished, <code>persist</code> copies
+ *	the levels into a regular cache file.
+ *	<p>
+ *	Processing and queries are synchronized on this object.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+class LiveOverview
+extends WaveformOverview
+{
+    private final AudioFile[]		temps;
+    private final File[]			tempFiles;
+    private final AudioFileDescr	afd;
+    private final OverviewBuilder	builder;
+    private final CacheManager		cm;
+    private long					frames		= 0L;
+    private boolean					disposed	= false;
+
+    private LiveOverview( AudioFileDescr afd, CacheManager cm, AudioFile[] temps, File[] tempFiles )
+    {
+        super( afd.channels, 0L, temps, new long[ temps.length ], null );
+
+        this.afd		= afd;
+        this.cm			= cm;
+        this.temps		= temps;
+        this.tempFiles	= tempFiles;
+        builder			= new OverviewBuilder( afd.channels, temps, new long[ temps.length ]);
+    }
+
+    /**
+     *	Creates a new live overview with empty temporary level files.
+     *
+     *	@param	afd	the description of the file being recorded
+     *	@param	cm	the cache manager to persist the overview to, or <code>null</code>
+     */
+    protected static LiveOverview create( AudioFileDescr afd, CacheManager cm )
+    throws IOException
+    {
+        final int			numLevels	= DECIMATIONS.length;
+        final AudioFile[]	temps		= new AudioFile[ numLevels ];
+        final File[]		tempFiles	= new File[ numLevels ];
+
+        try {
+            for( int lvl = 0; lvl < numLevels; lvl++ ) {
+                tempFiles[ lvl ] = File.createTempFile( "ovr", ".aif" );
+                tempFiles[ lvl ].deleteOnExit();
+                temps[ lvl ]	 = createCacheFile( tempFiles[ lvl ], afd, null );
+            }
+        }
+        catch( IOException e1 ) {
+            deleteTemps( temps, tempFiles );
+            throw e1;
+        }
+        return new LiveOverview( afd, cm, temps, tempFiles );
+    }
+
+    /**
+     *	Feeds frames which have just been written to the sound file.
+     */
+    protected synchronized void process( float[][] data, int offset, int length )
+    throws IOException
+    {
+        if( disposed ) return;
+        builder.process( data, offset, length );
+        frames += length;
+    }
+
+    /**
+     *	Finishes the overview and copies it into a cache file of the
+     *	cache manager. The temporary files are deleted. This must
+     *	be called after the sound file has been closed, so that
+     *	its modification date is final.
+     *
+     *	@param	source	the closed sound file
+     *	@return	the cache file, or <code>null</code> if there is no
+     *			usable cache manager or the source has no file
+     */
+    protected synchronized File persist( InterleavedStreamFile source )
+    throws IOException
+    {
+        if( disposed ) return null;
+
+        File		f	= null;
+        AudioFile	af	= null;
+
+        try {
+            builder.finish();
+            if( isUsable( cm ) && (source.getFile() != null) ) {
+                f	= cm.createCacheFileName( source.getFile() );
+                af	= createCacheFile( f, afd, createInfo( source ));
+                for( int lvl = 0; lvl < temps.length; lvl++ ) {
+                    temps[ lvl ].seekFrame( 0L );
+                    temps[ lvl ].copyFrames( af, builder.getLength( lvl ));
+                }
+                af.close();
+                af = null;
+                cm.addFile( f );
+            }
+        }
+        catch( IOException e1 ) {
+            if( af != null ) {
+                af.cleanUp();
+                f.delete();
+            }
+            throw e1;
+        }
+        finally {
+            dispose();
+        }
+        return f;
+    }
+
+    /**
+     *	Deletes the temporary files without persisting.
+     */
+    protected synchronized void dispose()
+    {
+        if( disposed ) return;
+        disposed = true;
+        deleteTemps( temps, tempFiles );
+    }
+
+    private static void deleteTemps( AudioFile[] temps, File[] tempFiles )
+    {
+        for( int lvl = 0; lvl < temps.length; lvl++ ) {
+            if( temps[ lvl ] != null ) temps[ lvl ].cleanUp();
+            if( tempFiles[ lvl ] != null ) tempFiles[ lvl ].delete();
+        }
+    }
+
+    /**
+     *	Returns the number of frames processed so far.
+     */
+    public synchronized long getNumFrames()
+    {
+        return frames;
+    }
+
+    /**
+     *	Reads the overview of everything processed so far.
+     *	After the recording has finished, this throws an
+     *	<code>IOException</code>; use <code>WaveformOverview.openCached</code>
+     *	to access the persisted overview instead.
+     */
+    public synchronized void read( Span span, float[][] data, int offset, int numPixels )
+    throws IOException
+    {
+        if( disposed ) throw new IOException( IOUtil.getResourceString( "errOverviewClosed" ));
+        super.read( span, data, offset, numPixels );
+    }
+
+    protected long getLength( int lvl )
+    {
+        return builder.getLength( lvl );
+    }
+
+    protected void readLevel( int lvl, long start, float[][] buf, int len )
+    throws IOException
+    {
+        final long	flushed	= builder.getFlushedLength( lvl );
+        final int	n		= (int) Math.max( 0L, Math.min( len, flushed - start ));
+
+        if( n > 0 ) temps[ lvl ].readFrames( start, buf, 0, n );
+        if( n < len ) builder.readPending( lvl, (int) (start + n - flushed), buf, n, len - n );
+    }
+
+    /**
+     *	The overview is owned by the sound file.
+     *	This method does nothing.
+     */
+    public void close() { /* empty */ }
+}
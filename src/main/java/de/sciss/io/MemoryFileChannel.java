@@ -0,0 +1,309 @@
+/*
+ *  MemoryFileChannel.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ *	A file channel whose content is held in a <code>ByteBuffer</code>
+ *	instead of a file. This is used by <code>AudioFile</code> for sound
+ *	files in memory, so that headers and sample data go through exactly
+ *	the same code as for files on disc.
+ *	<p>
+ *	The content is stored from index zero of the buffer. When a write
+ *	exceeds the capacity, the buffer is replaced by a larger one of the
+ *	same kind (heap or direct). The size is thus limited to 2 GB.
+ *	Memory mapping and locking are not supported. The content
+ *	remains accessible after the channel was closed.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+class MemoryFileChannel
+extends FileChannel
+{
+    private static final byte[]	zeroes		= new byte[ 8192 ];
+
+    private ByteBuffer			buf;
+    private final boolean		writable;
+    private long				size;
+    private long				position	= 0L;
+
+    /**
+     *	Creates a channel on a buffer.
+     *
+     *	@param	buf			the initial storage, beginning at index zero.
+     *						position and limit are ignored
+     *	@param	size		the number of bytes initially in the channel
+     *	@param	writable	whether the channel may be modified. a read-only
+     *						buffer is never written
+     */
+    protected MemoryFileChannel( ByteBuffer buf, long size, boolean writable )
+    {
+        if( (size < 0) || (size > buf.capacity()) ) throw new IllegalArgumentException( String.valueOf( size ));
+
+        this.buf		= buf;
+        this.size		= size;
+        this.writable	= writable && !buf.isReadOnly();
+    }
+
+    /**
+     *	Returns the current content as a read-only buffer,
+     *	positioned at zero and limited to the size of the channel.
+     */
+    protected synchronized ByteBuffer getContent()
+    {
+        final ByteBuffer b = buf.asReadOnlyBuffer();
+        b.limit( (int) size ).position( 0 );
+        return b;
+    }
+
+    /**
+     *	Changes the size of the channel. Bytes added
+     *	at the end are zero.
+     */
+    protected synchronized void setSize( long newSize )
+    throws IOException
+    {
+        ensureWritable();
+        if( newSize > size ) {
+            ensureCapacity( newSize );
+            clear( size, newSize );
+        }
+        size = newSize;
+    }
+
+    public synchronized int read( ByteBuffer dst )
+    throws IOException
+    {
+        final int n = read( dst, position );
+        if( n > 0 ) position += n;
+        return n;
+    }
+
+    public long read( ByteBuffer[] dsts, int offset, int length )
+    throws IOException
+    {
+        long total = 0;
+
+        for( int i = offset, n; i < offset + length; i++ ) {
+            n = read( dsts[ i ]);
+            if( n < 0 ) return( total == 0 ? -1 : total );
+            total += n;
+        }
+        return total;
+    }
+
+    public synchronized int write( ByteBuffer src )
+    throws IOException
+    {
+        final int n = write( src, position );
+        position += n;
+        return n;
+    }
+
+    public long write( ByteBuffer[] srcs, int offset, int length )
+    throws IOException
+    {
+        long total = 0;
+
+        for( int i = offset; i < offset + length; i++ ) {
+            total += write( srcs[ i ]);
+        }
+        return total;
+    }
+
+    public synchronized long position()
+    throws IOException
+    {
+        ensureOpen();
+        return position;
+    }
+
+    public synchronized FileChannel position( long newPosition )
+    throws IOException
+    {
+        ensureOpen();
+        if( newPosition < 0 ) throw new IllegalArgumentException( String.valueOf( newPosition ));
+        position = newPosition;
+        return this;
+    }
+
+    public synchronized long size()
+    throws IOException
+    {
+        ensureOpen();
+        return size;
+    }
+
+    public synchronized FileChannel truncate( long newSize )
+    throws IOException
+    {
+        ensureOpen();
+        if( newSize < 0 ) throw new IllegalArgumentException( String.valueOf( newSize ));
+        if( newSize < size ) {
+            ensureWritable();
+            size = newSize;
+        }
+        if( position > newSize ) position = newSize;
+        return this;
+    }
+
+    public void force( boolean metaData )
+    throws IOException
+    {
+        ensureOpen();
+    }
+
+    public synchronized long transferTo( long pos, long count, WritableByteChannel target )
+    throws IOException
+    {
+        ensureOpen();
+        if( pos >= size ) return 0;
+
+        final ByteBuffer src = buf.duplicate();
+        src.limit( (int) Math.min( size, pos + count )).position( (int) pos );
+        while( src.hasRemaining() ) target.write( src );
+        return( src.limit() - pos );
+    }
+
+    public long transferFrom( ReadableByteChannel src, long pos, long count )
+    throws IOException
+    {
+        final ByteBuffer	b		= ByteBuffer.allocate( (int) Math.min( count, 8192 ));
+        long				total	= 0;
+        int					n;
+
+        while( total < count ) {
+            b.clear();
+            if( count - total < b.capacity() ) b.limit( (int) (count - total) );
+            n = src.read( b );
+            if( n <= 0 ) break;
+            b.flip();
+            write( b, pos + total );
+            total += n;
+        }
+        return total;
+    }
+
+    public synchronized int read( ByteBuffer dst, long pos )
+    throws IOException
+    {
+        ensureOpen();
+        if( pos >= size ) return( dst.hasRemaining() ? -1 : 0 );
+
+        final int			n	= (int) Math.min( dst.remaining(), size - pos );
+        final ByteBuffer	src	= buf.duplicate();
+        src.limit( (int) pos + n ).position( (int) pos );
+        dst.put( src );
+        return n;
+    }
+
+    public synchronized int write( ByteBuffer src, long pos )
+    throws IOException
+    {
+        ensureOpen();
+        ensureWritable();
+
+        final int	n		= src.remaining();
+        final long	stop	= pos + n;
+
+        ensureCapacity( stop );
+        if( pos > size ) clear( size, pos );
+
+        final ByteBuffer dst = buf.duplicate();
+        dst.limit( (int) stop ).position( (int) pos );
+        dst.put( src );
+        if( stop > size ) size = stop;
+        return n;
+    }
+
+    public MappedByteBuffer map( MapMode mode, long pos, long count )
+    throws IOException
+    {
+        throw new UnsupportedOperationException( "map" );
+    }
+
+    public FileLock lock( long pos, long count, boolean shared )
+    throws IOException
+    {
+        throw new UnsupportedOperationException( "lock" );
+    }
+
+    public FileLock tryLock( long pos, long count, boolean shared )
+    throws IOException
+    {
+        throw new UnsupportedOperationException( "tryLock" );
+    }
+
+    protected void implCloseChannel()
+    {
+        // the content is kept
+    }
+
+    private void ensureOpen()
+    throws IOException
+    {
+        if( !isOpen() ) throw new ClosedChannelException();
+    }
+
+    private void ensureWritable()
+    {
+        if( !writable ) throw new NonWritableChannelException();
+    }
+
+    private void ensureCapacity( long n )
+    throws IOException
+    {
+        if( n > Integer.MAX_VALUE ) throw new IOException( IOUtil.getResourceString( "errMemoryFileSize" ));
+        if( n <= buf.capacity() ) return;
+
+        final int			newCap	= (int) Math.min( Integer.MAX_VALUE, Math.max( n, (long) buf.capacity() << 1 ));
+        final ByteBuffer	newBuf	= buf.isDirect() ? ByteBuffer.allocateDirect( newCap ) : ByteBuffer.allocate( newCap );
+        final ByteBuffer	src		= buf.duplicate();
+
+        src.limit( (int) size ).position( 0 );
+        newBuf.put( src );
+        newBuf.clear();
+        buf = newBuf;
+    }
+
+    private void clear( long start, long stop )
+    {
+        final ByteBuffer dst = buf.duplicate();
+
+        dst.limit( (int) stop ).position( (int) start );
+        while( dst.hasRemaining() ) dst.put( zeroes, 0, Math.min( zeroes.length, dst.remaining() ));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  OverviewBuilder.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.IOException;
+
+/**
+ *	Computes the decimation levels of a <code>WaveformOverview</code>
+ *	in a single pass over the source frames. The finest level is
+ *	calculated from the sample data, each coarser level from the
+ *	level below. Decimated frames are collected in small buffers
+ *	and written to the level files at the given offsets.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+class OverviewBuilder
+{
+    private static final int	OUT_BUF_SIZE	= 1024;
+
+    private final int			numChannels;
+    private final int[]			factors;
+    private final AudioFile[]	files;
+    private final long[]		offsets;
+
+    private final long[]		flushed;
+    private final float[][][]	outBuf;
+    private final int[]			outLen;
+
+    private final float[][]		accMax, accMin;
+    private final double[][]	accSq;
+    private final int[]			accCount;
+
+    /**
+     *	@param	numChannels	number of source channels
+     *	@param	files		the file receiving the frames for each level.
+     *						files must have <code>numChannels * NUM_STATS</code>
+     *						channels. the same file may be used for several levels
+     *	@param	offsets		the frame offset in the file of each level
+     */
+    protected OverviewBuilder( int numChannels, AudioFile[] files, long[] offsets )
+    {
+        final int numLevels		= files.length;
+        final int numOutCh		= numChannels * WaveformOverview.NUM_STATS;
+
+        this.numChannels	= numChannels;
+        this.files			= files;
+        this.offsets		= offsets;
+        factors				= WaveformOverview.DECIMATIONS;
+
+        flushed				= new long[ numLevels ];
+        outBuf				= new float[ numLevels ][ numOutCh ][ OUT_BUF_SIZE ];
+        outLen				= new int[ numLevels ];
+        accMax				= new float[ numLevels ][ numChannels ];
+        accMin				= new float[ numLevels ][ numChannels ];
+        accSq				= new double[ numLevels ][ numChannels ];
+        accCount			= new int[ numLevels ];
+
+        for( int lvl = 0; lvl < numLevels; lvl++ ) clear( lvl );
+    }
+
+    /**
+     *	Feeds source frames into the builder.
+     */
+    protected void process( float[][] data, int offset, int length )
+    throws IOException
+    {
+        final float[]	mx	= accMax[ 0 ];
+        final float[]	mn	= accMin[ 0 ];
+        final double[]	sq	= accSq[ 0 ];
+        final int		f0	= factors[ 0 ];
+        float[]			b;
+        float			x, bMax, bMin;
+        double			bSq;
+
+        for( int i = 0, n; i < length; i += n ) {
+            n = Math.min( length - i, f0 - accCount[ 0 ]);
+            for( int ch = 0; ch < numChannels; ch++ ) {
+                b = data[ ch ];
+                if( b == null ) {		// treated as silence
+                    bMax = 0f;
+                    bMin = 0f;
+                    bSq	 = 0.0;
+                } else {
+                    bMax = mx[ ch ];
+                    bMin = mn[ ch ];
+                    bSq	 = 0.0;
+                    for( int j = offset + i, k = j + n; j < k; j++ ) {
+                        x = b[ j ];
+                        if( x > bMax ) bMax = x;
+                        if( x < bMin ) bMin = x;
+                        bSq += x * x;
+                    }
+                }
+                if( bMax > mx[ ch ]) mx[ ch ] = bMax;
+                if( bMin < mn[ ch ]) mn[ ch ] = bMin;
+                sq[ ch ] += bSq;
+            }
+            accCount[ 0 ] += n;
+            if( accCount[ 0 ] == f0 ) emit( 0 );
+        }
+    }
+
+    /**
+     *	Emits the incomplete decimation frames at the end
+     *	of the source and writes all pending frames.
+     */
+    protected void finish()
+    throws IOException
+    {
+        for( int lvl = 0; lvl < files.length; lvl++ ) {
+            if( accCount[ lvl ] > 0 ) emit( lvl );
+            flush( lvl );
+        }
+    }
+
+    /**
+     *	Returns the number of frames emitted so far for a level,
+     *	including those still waiting in the output buffer.
+     */
+    protected long getLength( int lvl )
+    {
+        return flushed[ lvl ] + outLen[ lvl ];
+    }
+
+    /**
+     *	Returns the number of frames of a level which
+     *	have been written to the level's file.
+     */
+    protected long getFlushedLength( int lvl )
+    {
+        return flushed[ lvl ];
+    }
+
+    /**
+     *	Copies frames of a level which are still waiting
+     *	in the output buffer. <code>pendingOff</code> is relative
+     *	to <code>getFlushedLength</code>.
+     */
+    protected void readPending( int lvl, int pendingOff, float[][] data, int offset, int length )
+    {
+        for( int ch = 0; ch < data.length; ch++ ) {
+            System.arraycopy( outBuf[ lvl ][ ch ], pendingOff, data[ ch ], offset, length );
+        }
+    }
+
+    private void emit( int lvl )
+    throws IOException
+    {
+        final float[][]	out		= outBuf[ lvl ];
+        final int		idx		= outLen[ lvl ];
+        final int		cnt		= accCount[ lvl ];
+        final float[]	mx		= accMax[ lvl ];
+        final float[]	mn		= accMin[ lvl ];
+        final double[]	sq		= accSq[ lvl ];
+        final int		up		= lvl + 1;
+        final boolean	cascade	= up < files.length;
+
+        for( int ch = 0, k = 0; ch < numChannels; ch++ ) {
+            out[ k++ ][ idx ] = mx[ ch ];
+            out[ k++ ][ idx ] = mn[ ch ];
+            out[ k++ ][ idx ] = (float) Math.sqrt( sq[ ch ] / cnt );
+            if( cascade ) {
+                if( mx[ ch ] > accMax[ up ][ ch ]) accMax[ up ][ ch ] = mx[ ch ];
+                if( mn[ ch ] < accMin[ up ][ ch ]) accMin[ up ][ ch ] = mn[ ch ];
+                accSq[ up ][ ch ] += sq[ ch ];
+            }
+        }
+        clear( lvl );
+        if( ++outLen[ lvl ] == OUT_BUF_SIZE ) flush( lvl );
+
+        if( cascade ) {
+            accCount[ up ] += cnt;
+            if( accCount[ up ] == factors[ up ]) emit( up );
+        }
+    }
+
+    private void flush( int lvl )
+    throws IOException
+    {
+        final int len = outLen[ lvl ];
+
+        if( len == 0 ) return;
+        files[ lvl ].seekFrame( offsets[ lvl ] + flushed[ lvl ]);
+        files[ lvl ].writeFrames( outBuf[ lvl ], 0, len );
+        flushed[ lvl ] += len;
+        outLen[ lvl ]	= 0;
+    }
+
+    private void clear( int lvl )
+    {
+        for( int ch = 0; ch < numChannels; ch++ ) {
+            accMax[ lvl ][ ch ] = Float.NEGATIVE_INFINITY;
+            accMin[ lvl ][ ch ] = Float.POSITIVE_INFINITY;
+            accSq[ lvl ][ ch ]	= 0.0;
+        }
+        accCount[ lvl ] = 0;
+    }
+}
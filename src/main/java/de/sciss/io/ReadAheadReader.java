@@ -0,0 +1,373 @@
+/*
+ *  ReadAheadReader.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *	A streaming front-end for playing back an <code>InterleavedStreamFile</code>
+ *	such as an <code>AudioFile</code>. A dedicated I/O thread keeps
+ *	a ring of decoded blocks filled ahead of the consumer, so that
+ *	the consumer (typically a realtime audio thread) never touches
+ *	the harddisc. <code>readFrames</code> does not block, does not
+ *	acquire locks and does not allocate memory. If not enough frames
+ *	are buffered, the missing frames are filled with zeroes and an
+ *	underrun is counted.
+ *	<p>
+ *	The ring is a single-producer / single-consumer queue: all
+ *	methods except for the counter getters, <code>start</code> and
+ *	<code>dispose</code> must be called from the same consumer thread.
+ *	The I/O thread uses positional reads, so the file's own frame
+ *	position is not affected. The file is not closed by this class.
+ *	<p>
+ *	To size the buffers for a particular disc, run the reader with
+ *	a given ring size and watch <code>getUnderrunCount</code> and
+ *	<code>getLowWaterMark</code>.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class ReadAheadReader
+implements Runnable
+{
+    private final InterleavedStreamFile	f;
+    private final int					channels;
+    private final int					blockSize;
+    private final int					numBlocks;
+    private final Block[]				ring;
+    private final Thread				thread;
+
+    // number of blocks published by the I/O thread
+    private volatile long				written			= 0L;
+    // number of blocks released by the consumer
+    private volatile long				consumed		= 0L;
+
+    // seek requests are passed from the consumer to the I/O thread
+    private volatile long				reqPos			= 0L;
+    private volatile int				reqGen			= 0;
+
+    private volatile boolean			running			= true;
+    private volatile IOException		ioException		= null;
+
+    private volatile long				underruns		= 0L;
+    private volatile long				underrunFrames	= 0L;
+    private volatile int				lowWaterMark;
+
+    // consumer side state
+    private int							gen				= 0;
+    private int							blockOff		= 0;
+    private boolean						eof				= false;
+
+    /**
+     *	Creates a new reader. The I/O thread is not started
+     *	until <code>start</code> is called. Reading begins
+     *	at frame zero unless <code>seekFrame</code> is called.
+     *
+     *	@param	f			the file to read from. must support
+     *						concurrent positional reads
+     *	@param	blockSize	the number of frames read by the I/O thread
+     *						in one go
+     *	@param	numBlocks	the number of blocks in the ring. the total
+     *						read-ahead is <code>blockSize * numBlocks</code>
+     *						frames
+     */
+    public ReadAheadReader( InterleavedStreamFile f, int blockSize, int numBlocks )
+    {
+        if( (blockSize <= 0) || (numBlocks <= 0) ) throw new IllegalArgumentException();
+
+        this.f			= f;
+        this.blockSize	= blockSize;
+        this.numBlocks	= numBlocks;
+        channels		= f.getChannelNum();
+        ring			= new Block[ numBlocks ];
+        for( int i = 0; i < numBlocks; i++ ) {
+            ring[ i ]	= new Block( channels, blockSize );
+        }
+        lowWaterMark	= numBlocks;
+
+        thread			= new Thread( this, f.getFile() == null ? "ReadAhead" : "ReadAhead " + f.getFile().getName() );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MAX_PRIORITY );
+    }
+
+    /**
+     *	Starts the I/O thread.
+     */
+    public void start()
+    {
+        thread.start();
+    }
+
+    /**
+     *	Stops the I/O thread and waits for it to finish.
+     *	The underlying file is not closed.
+     */
+    public void dispose()
+    {
+        running = false;
+        LockSupport.unpark( thread );
+        try {
+            thread.join();
+        }
+        catch( InterruptedException e1 ) { /* ignore */ }
+    }
+
+    /**
+     *	Moves the read position. Blocks already buffered are
+     *	discarded, so the reads directly following this call
+     *	will underrun unless the consumer waits for the ring
+     *	to fill up again (see <code>getFillLevel</code>).
+     *	This method does not block.
+     *
+     *	@param	frame	the new frame position
+     */
+    public void seekFrame( long frame )
+    {
+        consumed	= written;	// drop what we have; late blocks are discarded by their generation
+        blockOff	= 0;
+        eof			= false;
+        gen++;
+        reqPos		= frame;
+        reqGen		= gen;
+        LockSupport.unpark( thread );
+    }
+
+    /**
+     *	Reads frames from the ring. This method never blocks.
+     *	If less than <code>length</code> frames are available,
+     *	the remaining frames are cleared and, unless the end of
+     *	the file has been reached, an underrun is counted.
+     *
+     *	@param	data	buffer to hold the frames. <code>null</code>
+     *					channels are skipped
+     *	@param	offset	offset in the buffer in sample frames
+     *	@param	length	number of frames to read
+     *	@return	the number of frames actually read from the file,
+     *			less than <code>length</code> upon underrun or end of file
+     */
+    public int readFrames( float[][] data, int offset, int length )
+    {
+        int		done	= 0;
+        int		chunk;
+        long	avail;
+        Block	b;
+        float[]	dst;
+
+        avail = written - consumed;
+        if( avail < lowWaterMark ) lowWaterMark = (int) avail;
+
+        while( (done < length) && !eof && (consumed < written) ) {
+            b = ring[ (int) (consumed % numBlocks) ];
+            if( b.gen != gen ) {	// from before a seek
+                blockOff = 0;
+                release();
+                continue;
+            }
+            chunk = Math.min( b.frames - blockOff, length - done );
+            for( int ch = 0; ch < channels; ch++ ) {
+                dst = data[ ch ];
+                if( dst == null ) continue;
+                System.arraycopy( b.data[ ch ], blockOff, dst, offset + done, chunk );
+            }
+            blockOff	+= chunk;
+            done		+= chunk;
+            if( blockOff == b.frames ) {
+                eof			= b.eof;
+                blockOff	= 0;
+                release();
+            }
+        }
+
+        if( done < length ) {
+            for( int ch = 0; ch < channels; ch++ ) {
+                dst = data[ ch ];
+                if( dst == null ) continue;
+                for( int i = offset + done, j = offset + length; i < j; i++ ) {
+                    dst[ i ] = 0f;
+                }
+            }
+            if( !eof ) {
+                underruns++;
+                underrunFrames += length - done;
+            }
+        }
+
+        return done;
+    }
+
+    private void release()
+    {
+        consumed++;
+        LockSupport.unpark( thread );
+    }
+
+    /**
+     *	Queries whether the consumer has read
+     *	all frames up to the end of the file.
+     */
+    public boolean isEOF()
+    {
+        return eof;
+    }
+
+    /**
+     *	Returns the number of sample frames per block.
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     *	Returns the number of blocks in the ring.
+     */
+    public int getNumBlocks()
+    {
+        return numBlocks;
+    }
+
+    /**
+     *	Returns the current fill level of the ring.
+     *	May be called from any thread.
+     *
+     *	@return	the fraction of filled blocks between
+     *			<code>0.0</code> (empty) and <code>1.0</code> (full)
+     */
+    public float getFillLevel()
+    {
+        final long c = consumed;
+        return (float) Math.min( numBlocks, written - c ) / numBlocks;
+    }
+
+    /**
+     *	Returns the number of <code>readFrames</code> calls which
+     *	could not be fully satisfied. May be called from any thread.
+     */
+    public long getUnderrunCount()
+    {
+        return underruns;
+    }
+
+    /**
+     *	Returns the total number of frames which had to be
+     *	replaced by silence because of underruns.
+     *	May be called from any thread.
+     */
+    public long getUnderrunFrames()
+    {
+        return underrunFrames;
+    }
+
+    /**
+     *	Returns the minimum number of filled blocks seen
+     *	by the consumer since the reader was created or the
+     *	counters were reset. May be called from any thread.
+     */
+    public int getLowWaterMark()
+    {
+        return lowWaterMark;
+    }
+
+    /**
+     *	Resets the underrun counters and the low water mark.
+     */
+    public void resetCounters()
+    {
+        underruns		= 0L;
+        underrunFrames	= 0L;
+        lowWaterMark	= numBlocks;
+    }
+
+    /**
+     *	Returns the exception that stopped the I/O thread
+     *	from reading, or <code>null</code> if no error occurred.
+     *	After an error, the stream behaves as if the end of
+     *	the file had been reached.
+     */
+    public IOException getException()
+    {
+        return ioException;
+    }
+
+// ---------------- Runnable interface ----------------
+
+    /**
+     *	The I/O thread's body. Do not call directly.
+     */
+    public void run()
+    {
+        int		myGen	= -1;
+        long	pos		= 0L;
+        boolean	atEnd	= false;
+        long	w		= written;
+        int		n;
+        Block	b;
+
+        while( running ) {
+            if( reqGen != myGen ) {
+                myGen	= reqGen;
+                pos		= reqPos;
+                atEnd	= false;
+            }
+            if( atEnd || (w - consumed >= numBlocks) ) {
+                LockSupport.park( this );
+                continue;
+            }
+
+            b = ring[ (int) (w % numBlocks) ];
+            try {
+                n = (int) Math.max( 0L, Math.min( blockSize, f.getFrameNum() - pos ));
+                if( n > 0 ) f.readFrames( pos, b.data, 0, n );
+            }
+            catch( IOException e1 ) {
+                ioException	= e1;
+                n			= 0;
+            }
+            b.frames	= n;
+            b.gen		= myGen;
+            b.eof		= n < blockSize;
+            pos		   += n;
+            atEnd		= b.eof;
+            written		= ++w;	// publish
+        }
+    }
+
+// ---------------- internal classes ----------------
+
+    private static class Block
+    {
+        protected final float[][]	data;
+        protected int				frames;
+        protected int				gen;
+        protected boolean			eof;
+
+        protected Block( int channels, int blockSize )
+        {
+            data = new float[ channels ][ blockSize ];
+        }
+    }
+}
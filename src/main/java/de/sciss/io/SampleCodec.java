@@ -0,0 +1,1774 @@
+/*
+ *  SampleCodec.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *	A codec converts sample frames between the floating point
+ *	representation used by <code>AudioFile</code> (nominal range
+ *	-1 to +1) and the sample encoding of a sound file. It only does
+ *	the conversion, the transport of the encoded bytes is left
+ *	to the caller.
+ *	<p>
+ *	Each codec is bound to a byte buffer whose byte order is that
+ *	of the sound file. Encoding puts the bytes into that buffer,
+ *	decoding takes them from any buffer given, such as a memory
+ *	mapped region of the file. A codec is not thread-safe, concurrent
+ *	conversions should use separate codecs.
+ *	<p>
+ *	Codecs are created by a <code>Provider</code>. The encodings
+ *	which come with this library are 8, 16, 24 and 32 bit integer
+ *	and 32 and 64 bit floating point. Further encodings such as
+ *	packed 12 or 20 bit integers can be plugged in by adding a provider,
+ *	which is then used by all <code>AudioFile</code>s opened afterwards.
+ *	Added providers take precedence over the built-in one, so they
+ *	may also replace the conversion of a regular encoding.
+ *	<p>
+ *	If the optional <code>ScissLib-vector</code> library is on the
+ *	class path and the JVM runs with <code>--add-modules jdk.incubator.vector</code>,
+ *	16 and 32 bit integer and 64 bit floating point samples are decoded
+ *	with the vector instructions of the processor. The results are
+ *	identical to the built-in codecs. That provider is registered
+ *	automatically, after providers added by <code>addProvider</code>.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ *
+ *	@see		AudioFile
+ */
+public abstract class SampleCodec
+{
+    private static final List		providers	= new ArrayList();
+    static final Provider			builtIn		= new BuiltInProvider();
+
+    // the separately packaged codecs using the JDK's vector API
+    private static final String		VECTOR_PROVIDER	= "de.sciss.io.VectorCodecProvider";
+
+    static {
+        final Provider p = loadVectorProvider();
+        if( p != null ) providers.add( p );
+    }
+
+    /**
+     *	The buffer into which frames are encoded
+     */
+    protected final ByteBuffer		buf;
+    /**
+     *	The number of interleaved channels per frame
+     */
+    protected final int				channels;
+    /**
+     *	The size of one encoded frame in bytes
+     */
+    protected final int				bytesPerFrame;
+
+    /**
+     *	Creates a codec.
+     *
+     *	@param	buf				the buffer into which frames are encoded.
+     *							its capacity is a multiple of the frame size,
+     *							its byte order is the one of the sound file
+     *	@param	channels		number of channels per frame
+     *	@param	bytesPerFrame	size of an encoded frame in bytes
+     */
+    protected SampleCodec( ByteBuffer buf, int channels, int bytesPerFrame )
+    {
+        this.buf			= buf;
+        this.channels		= channels;
+        this.bytesPerFrame	= bytesPerFrame;
+    }
+
+    // returns null if the class is not on the class path, or if the
+    // module jdk.incubator.vector is missing or not accelerated
+    private static Provider loadVectorProvider()
+    {
+        try {
+            return (Provider) Class.forName( VECTOR_PROVIDER ).newInstance();
+        }
+        catch( Throwable e ) {
+            return null;
+        }
+    }
+
+    /**
+     *	Adds a provider which is consulted before the providers
+     *	added before and before the built-in codecs.
+     *
+     *	@param	p	the provider to add
+     */
+    public static void addProvider( Provider p )
+    {
+        synchronized( providers ) {
+            providers.add( 0, p );
+        }
+    }
+
+    /**
+     *	Removes a provider which was added
+     *	by <code>addProvider</code>.
+     *
+     *	@param	p	the provider to remove
+     */
+    public static void removeProvider( Provider p )
+    {
+        synchronized( providers ) {
+            providers.remove( p );
+        }
+    }
+
+    /**
+     *	Finds the provider responsible for a sample encoding.
+     *
+     *	@param	afd			the description of the sound file. the relevant
+     *						fields are <code>channels</code>, <code>bitsPerSample</code>
+     *						and <code>sampleFormat</code>
+     *	@param	order		the byte order of the sound file
+     *	@param	unsignedPCM	whether integer samples are stored unsigned
+     *	@return	the provider, or <code>null</code> if the encoding is not supported
+     */
+    public static Provider getProvider( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM )
+    {
+        synchronized( providers ) {
+            for( int i = 0; i < providers.size(); i++ ) {
+                final Provider p = (Provider) providers.get( i );
+                if( p.getFrameSize( afd, order, unsignedPCM ) >= 0 ) return p;
+            }
+        }
+        return( builtIn.getFrameSize( afd, order, unsignedPCM ) >= 0 ? builtIn : null );
+    }
+
+    /**
+     *	Returns the buffer into which frames are encoded.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return buf;
+    }
+
+    /**
+     *	Returns the number of channels per frame.
+     */
+    public int getChannelNum()
+    {
+        return channels;
+    }
+
+    /**
+     *	Returns the size of an encoded frame in bytes.
+     */
+    public int getFrameSize()
+    {
+        return bytesPerFrame;
+    }
+
+    /**
+     *	Encodes deinterleaved frames into the codec's buffer. Afterwards,
+     *	the buffer is positioned at zero and its limit denotes the
+     *	number of encoded bytes.
+     *
+     *	@param	frames	the frames to encode, one array per channel
+     *	@param	off		offset into the channel arrays
+     *	@param	len		number of frames to encode. this must not exceed
+     *					the number of frames fitting into the buffer
+     */
+    public abstract void encodeFrames( float[][] frames, int off, int len );
+
+    /**
+     *	Decodes frames into deinterleaved arrays. The bytes are taken
+     *	from the position of <code>src</code> which is advanced accordingly.
+     *	If <code>src</code> is the codec's buffer, it must be positioned at zero.
+     *
+     *	@param	src		the encoded frames
+     *	@param	frames	the arrays to fill, one per channel. channels whose array
+     *					is <code>null</code> are skipped
+     *	@param	off		offset into the channel arrays
+     *	@param	len		number of frames to decode. this must not exceed
+     *					the number of frames fitting into the codec's buffer
+     */
+    public abstract void decodeFrames( ByteBuffer src, float[][] frames, int off, int len );
+
+    /**
+     *	Encodes interleaved frames. Apart from the layout and <code>off</code>
+     *	being given in samples, this behaves like
+     *	<code>encodeFrames( float[][], int, int )</code>.
+     */
+    public abstract void encodeFrames( float[] frames, int off, int len );
+
+    /**
+     *	Decodes into interleaved frames. Apart from the layout and <code>off</code>
+     *	being given in samples, this behaves like
+     *	<code>decodeFrames( ByteBuffer, float[][], int, int )</code>.
+     */
+    public abstract void decodeFrames( ByteBuffer src, float[] frames, int off, int len );
+
+    /**
+     *	Encodes deinterleaved frames in double precision. Apart from
+     *	the precision, this behaves like <code>encodeFrames( float[][], int, int )</code>.
+     */
+    public abstract void encodeFrames( double[][] frames, int off, int len );
+
+    /**
+     *	Decodes into deinterleaved frames in double precision. Apart from
+     *	the precision, this behaves like <code>decodeFrames( ByteBuffer, float[][], int, int )</code>.
+     */
+    public abstract void decodeFrames( ByteBuffer src, double[][] frames, int off, int len );
+
+// -------- Provider --------
+
+    /**
+     *	Creates codecs for the sample encodings it supports.
+     *	Providers are registered with <code>SampleCodec.addProvider</code>.
+     */
+    public static interface Provider
+    {
+        /**
+         *	Returns the size of an encoded frame in bytes.
+         *
+         *	@param	afd			the description of the sound file
+         *	@param	order		the byte order of the sound file
+         *	@param	unsignedPCM	whether integer samples are stored unsigned
+         *	@return	the frame size, or <code>-1</code> if the encoding is not supported
+         */
+        public int getFrameSize( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM );
+
+        /**
+         *	Creates a codec for an encoding for which <code>getFrameSize</code>
+         *	did not return <code>-1</code>.
+         *
+         *	@param	afd			the description of the sound file
+         *	@param	order		the byte order of the sound file
+         *	@param	unsignedPCM	whether integer samples are stored unsigned
+         *	@param	buf			the buffer into which the codec encodes. its
+         *						byte order is <code>order</code> and its capacity
+         *						a multiple of the frame size
+         */
+        public SampleCodec createCodec( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM,
+                                        ByteBuffer buf );
+    }
+
+    private static class BuiltInProvider
+    implements Provider
+    {
+        protected BuiltInProvider() { /* empty */ }
+
+        public int getFrameSize( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM )
+        {
+            switch( afd.sampleFormat ) {
+            case AudioFileDescr.FORMAT_INT:
+                switch( afd.bitsPerSample ) {
+                case 8:
+                case 16:
+                case 24:
+                case 32:
+                    return( (afd.bitsPerSample >> 3) * afd.channels );
+                }
+                break;
+            case AudioFileDescr.FORMAT_FLOAT:
+                switch( afd.bitsPerSample ) {
+                case 32:
+                case 64:
+                    return( (afd.bitsPerSample >> 3) * afd.channels );
+                }
+            }
+            return -1;
+        }
+
+        public SampleCodec createCodec( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM,
+                                        ByteBuffer buf )
+        {
+            switch( afd.sampleFormat ) {
+            case AudioFileDescr.FORMAT_INT:
+                switch( afd.bitsPerSample ) {
+                case 8:			// 8 bit int
+                    if( unsignedPCM ) {
+                        return new UByteCodec( buf, afd.channels );
+                    } else {
+                        return new ByteCodec( buf, afd.channels );
+                    }
+                case 16:		// 16 bit int
+                    return new ShortCodec( buf, afd.channels );
+                case 24:		// 24 bit int
+                    if( order == ByteOrder.BIG_ENDIAN ) {
+                        return new ThreeByteCodec( buf, afd.channels );
+                    } else {
+                        return new ThreeLittleByteCodec( buf, afd.channels );
+                    }
+                case 32:		// 32 bit int
+                    return new IntCodec( buf, afd.channels );
+                }
+                break;
+            case AudioFileDescr.FORMAT_FLOAT:
+                switch( afd.bitsPerSample ) {
+                case 32:		// 32 bit float
+                    return new FloatCodec( buf, afd.channels );
+                case 64:		// 64 bit float
+                    return new DoubleCodec( buf, afd.channels );
+                }
+            }
+            throw new IllegalArgumentException();
+        }
+    }
+
+// -------- built-in codecs --------
+
+    // each deinterleaving method has a mono and a stereo kernel
+    // which handle one frame per iteration without striding through
+    // the channels, and a kernel for any number of channels. decoding
+    // falls back to the latter if a stereo channel is skipped.
+    // encoding does not support skipped channels.
+
+    private static class ByteCodec
+    extends SampleCodec
+    {
+        private final byte[]	arrayBuf;
+
+        protected ByteCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels );
+            arrayBuf	= new byte[ buf.capacity() ];
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (byte) (b[ j ] * 0x7F);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (byte) (b[ j ] * 0x7F);
+                    arrayBuf[ i++ ] = (byte) (b1[ j ] * 0x7F);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F);
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i ] / 0x7F;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i++ ] / 0x7F;
+                    b1[ j ]	= (float) arrayBuf[ i++ ] / 0x7F;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (float) arrayBuf[ i ] / 0x7F;
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+
+            for( int i = 0; i < m; i++, offset++ ) {
+                arrayBuf[ i ] = (byte) (frames[ offset ] * 0x7F);
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+
+            src.get( arrayBuf, 0, m );
+            for( int i = 0; i < m; i++, offset++ ) {
+                frames[ offset ] = (float) arrayBuf[ i ] / 0x7F;
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (byte) (b[ j ] * 0x7F);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (byte) (b[ j ] * 0x7F);
+                    arrayBuf[ i++ ] = (byte) (b1[ j ] * 0x7F);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F);
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (double) arrayBuf[ i ] / 0x7F;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) arrayBuf[ i++ ] / 0x7F;
+                    b1[ j ]	= (double) arrayBuf[ i++ ] / 0x7F;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (double) arrayBuf[ i ] / 0x7F;
+                    }
+                }
+            }
+        }
+    }
+
+    // float to byte = f*0x7F+0x80 (-1 ... +1 becomes 0x01 to 0xFF)
+    // which is how libsndfile behaves
+    private static class UByteCodec
+    extends SampleCodec
+    {
+        private final byte[]	arrayBuf;
+
+        protected UByteCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels );
+            arrayBuf	= new byte[ buf.capacity() ];
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (byte) (b[ j ] * 0x7F + 0x80);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (byte) (b[ j ] * 0x7F + 0x80);
+                    arrayBuf[ i++ ] = (byte) (b1[ j ] * 0x7F + 0x80);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F + 0x80);
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (float) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) - 0x80) / 0x7F;
+                    b1[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) - 0x80) / 0x7F;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (float) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+
+            for( int i = 0; i < m; i++, offset++ ) {
+                arrayBuf[ i ] = (byte) (frames[ offset ] * 0x7F + 0x80);
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+
+            src.get( arrayBuf, 0, m );
+            for( int i = 0; i < m; i++, offset++ ) {
+                frames[ offset ] = (float) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (byte) (b[ j ] * 0x7F + 0x80);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (byte) (b[ j ] * 0x7F + 0x80);
+                    arrayBuf[ i++ ] = (byte) (b1[ j ] * 0x7F + 0x80);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (byte) (b[ j ] * 0x7F + 0x80);
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (double) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) ((arrayBuf[ i++ ] & 0xFF) - 0x80) / 0x7F;
+                    b1[ j ]	= (double) ((arrayBuf[ i++ ] & 0xFF) - 0x80) / 0x7F;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (double) ((arrayBuf[ i ] & 0xFF) - 0x80) / 0x7F;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class ShortCodec
+    extends SampleCodec
+    {
+        private final ShortBuffer	viewBuf;
+        private final short[]		arrayBuf;
+
+        protected ShortCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels << 1 );
+            buf.clear();
+            viewBuf		= buf.asShortBuffer();
+            arrayBuf	= new short[ viewBuf.capacity() ];
+        }
+
+        private ShortBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asShortBuffer();
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (short) (b[ j ] * 0x7FFF);
+                    arrayBuf[ i++ ] = (short) (b1[ j ] * 0x7FFF);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
+                    }
+                }
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i ] / 0x7FFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i++ ] / 0x7FFF;
+                    b1[ j ]	= (float) arrayBuf[ i++ ] / 0x7FFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (float) arrayBuf[ i ] / 0x7FFF;
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+
+            for( int i = 0; i < m; i++, offset++ ) {
+                arrayBuf[ i ] = (short) (frames[ offset ] * 0x7FFF);
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            for( int i = 0; i < m; i++, offset++ ) {
+                frames[ offset ] = (float) arrayBuf[ i ] / 0x7FFF;
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (short) (b[ j ] * 0x7FFF);
+                    arrayBuf[ i++ ] = (short) (b1[ j ] * 0x7FFF);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
+                    }
+                }
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (double) arrayBuf[ i ] / 0x7FFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) arrayBuf[ i++ ] / 0x7FFF;
+                    b1[ j ]	= (double) arrayBuf[ i++ ] / 0x7FFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (double) arrayBuf[ i ] / 0x7FFF;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     *  24bit big endian
+     */
+    private static class ThreeByteCodec
+    extends SampleCodec
+    {
+        private final byte[]		arrayBuf;
+        private final int			chStep;
+
+        protected ThreeByteCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels * 3 );
+            // note : it's *not* faster to use ByteBuffer.allocate()
+            // and ByteBuffer.array() than this implementation
+            // (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
+            arrayBuf	= new byte[ buf.capacity() ];
+            chStep		= (channels - 1) * 3;
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, k, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte)  k;
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    k				= (int)  (b1[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte)  k;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        k				= (int)  (b[ j ] * 0x7FFFFF);
+                        arrayBuf[ i++ ] = (byte) (k >> 16);
+                        arrayBuf[ i++ ] = (byte) (k >> 8);
+                        arrayBuf[ i++ ] = (byte)  k;
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
+                                      ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                       (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
+                                      ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                       (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                    b1[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
+                                      ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                       (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        b[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
+                                          ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                           (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			k;
+
+            for( int i = 0; i < m; offset++ ) {
+                k				= (int)  (frames[ offset ] * 0x7FFFFF);
+                arrayBuf[ i++ ] = (byte) (k >> 16);
+                arrayBuf[ i++ ] = (byte) (k >> 8);
+                arrayBuf[ i++ ] = (byte)  k;
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+
+            src.get( arrayBuf, 0, m );
+            for( int i = 0; i < m; offset++ ) {
+                frames[ offset ] = (float) ((arrayBuf[ i++ ] << 16 ) |
+                                           ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                            (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, k, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte)  k;
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    k				= (int)  (b1[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte)  k;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        k				= (int)  (b[ j ] * 0x7FFFFF);
+                        arrayBuf[ i++ ] = (byte) (k >> 16);
+                        arrayBuf[ i++ ] = (byte) (k >> 8);
+                        arrayBuf[ i++ ] = (byte)  k;
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) ((arrayBuf[ i++ ] << 16 ) |
+                                       ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                        (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) ((arrayBuf[ i++ ] << 16 ) |
+                                       ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                        (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                    b1[ j ]	= (double) ((arrayBuf[ i++ ] << 16 ) |
+                                       ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                        (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        b[ j ]	= (double) ((arrayBuf[ i++ ] << 16 ) |
+                                           ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                            (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     *  24bit little endian
+     */
+    private static class ThreeLittleByteCodec
+    extends SampleCodec
+    {
+        private final byte[]		arrayBuf;
+        private final int			chStep;
+
+        protected ThreeLittleByteCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels * 3 );
+            // note : it's *not* faster to use ByteBuffer.allocate()
+            // and ByteBuffer.array() than this implementation
+            // (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
+            arrayBuf	= new byte[ buf.capacity() ];
+            chStep		= (channels - 1) * 3;
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, k, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    k				= (int)  (b1[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        k				= (int)  (b[ j ] * 0x7FFFFF);
+                        arrayBuf[ i++ ] = (byte)  k;
+                        arrayBuf[ i++ ] = (byte) (k >> 8);
+                        arrayBuf[ i++ ] = (byte) (k >> 16);
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
+                                      ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                       (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
+                                      ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                       (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                    b1[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
+                                      ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                       (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
+                                          ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                           (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			k;
+
+            for( int i = 0; i < m; offset++ ) {
+                k				= (int)  (frames[ offset ] * 0x7FFFFF);
+                arrayBuf[ i++ ] = (byte)  k;
+                arrayBuf[ i++ ] = (byte) (k >> 8);
+                arrayBuf[ i++ ] = (byte) (k >> 16);
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+
+            src.get( arrayBuf, 0, m );
+            for( int i = 0; i < m; offset++ ) {
+                frames[ offset ] = (float) ((arrayBuf[ i++ ] & 0xFF) |
+                                           ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                            (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, k, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    k				= (int)  (b[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                    k				= (int)  (b1[ j ] * 0x7FFFFF);
+                    arrayBuf[ i++ ] = (byte)  k;
+                    arrayBuf[ i++ ] = (byte) (k >> 8);
+                    arrayBuf[ i++ ] = (byte) (k >> 16);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        k				= (int)  (b[ j ] * 0x7FFFFF);
+                        arrayBuf[ i++ ] = (byte)  k;
+                        arrayBuf[ i++ ] = (byte) (k >> 8);
+                        arrayBuf[ i++ ] = (byte) (k >> 16);
+                    }
+                }
+            }
+            buf.clear();
+            buf.put( arrayBuf, 0, m );
+            buf.flip();
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * bytesPerFrame;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            src.get( arrayBuf, 0, m );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) ((arrayBuf[ i++ ] & 0xFF) |
+                                       ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                        (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) ((arrayBuf[ i++ ] & 0xFF) |
+                                       ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                        (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                    b1[ j ]	= (double) ((arrayBuf[ i++ ] & 0xFF) |
+                                       ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                        (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
+                        b[ j ]	= (double) ((arrayBuf[ i++ ] & 0xFF) |
+                                           ((arrayBuf[ i++ ] & 0xFF) << 8) |
+                                            (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class IntCodec
+    extends SampleCodec
+    {
+        private final IntBuffer		viewBuf;
+        private final int[]			arrayBuf;
+
+        protected IntCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels << 2 );
+            buf.clear();
+            viewBuf		= buf.asIntBuffer();
+            arrayBuf	= new int[ viewBuf.capacity() ];
+        }
+
+        private IntBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asIntBuffer();
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (int) (b[ j ] * 0x7FFFFFFF);
+                    arrayBuf[ i++ ] = (int) (b1[ j ] * 0x7FFFFFFF);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
+                    }
+                }
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i ] / 0x7FFFFFFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i++ ] / 0x7FFFFFFF;
+                    b1[ j ]	= (float) arrayBuf[ i++ ] / 0x7FFFFFFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (float) arrayBuf[ i ] / 0x7FFFFFFF;
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+
+            for( int i = 0; i < m; i++, offset++ ) {
+                arrayBuf[ i ] = (int) (frames[ offset ] * 0x7FFFFFFF);
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            for( int i = 0; i < m; i++, offset++ ) {
+                frames[ offset ] = (float) arrayBuf[ i ] / 0x7FFFFFFF;
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (int) (b[ j ] * 0x7FFFFFFF);
+                    arrayBuf[ i++ ] = (int) (b1[ j ] * 0x7FFFFFFF);
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
+                    }
+                }
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (double) arrayBuf[ i ] / 0x7FFFFFFF;
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (double) arrayBuf[ i++ ] / 0x7FFFFFFF;
+                    b1[ j ]	= (double) arrayBuf[ i++ ] / 0x7FFFFFFF;
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (double) arrayBuf[ i ] / 0x7FFFFFFF;
+                    }
+                }
+            }
+        }
+    }
+
+    // native path: mono files are transferred without intermediate copy
+    private static class FloatCodec
+    extends SampleCodec
+    {
+        private final FloatBuffer	viewBuf;
+        private final float[]		arrayBuf;
+
+        protected FloatCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels << 2 );
+            buf.clear();
+            viewBuf		= buf.asFloatBuffer();
+            arrayBuf	= new float[ viewBuf.capacity() ];
+        }
+
+        private FloatBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asFloatBuffer();
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            viewBuf.clear();
+            if( channels == 1 ) {
+                viewBuf.put( frames[ 0 ], offset, length );
+            } else {
+                if( channels == 2 ) {
+                    b	= frames[ 0 ];
+                    b1	= frames[ 1 ];
+                    for( i = 0, j = offset; i < m; j++ ) {
+                        arrayBuf[ i++ ] = b[ j ];
+                        arrayBuf[ i++ ] = b1[ j ];
+                    }
+                } else {
+                    for( ch = 0; ch < channels; ch++ ) {
+                        b = frames[ ch ];
+                        for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                            arrayBuf[ i ] = b[ j ];
+                        }
+                    }
+                }
+                viewBuf.put( arrayBuf, 0, m );
+            }
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                if( frames[ 0 ] != null ) view( src ).get( frames[ 0 ], offset, length );
+                src.position( src.position() + length * bytesPerFrame );
+                return;
+            }
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= arrayBuf[ i++ ];
+                    b1[ j ]	= arrayBuf[ i++ ];
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= arrayBuf[ i ];
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            viewBuf.clear();
+            viewBuf.put( frames, offset, length * channels );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            view( src ).get( frames, offset, length * channels );
+            src.position( src.position() + length * bytesPerFrame );
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = (float) b[ j ];
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = (float) b[ j ];
+                    arrayBuf[ i++ ] = (float) b1[ j ];
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = (float) b[ j ];
+                    }
+                }
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= arrayBuf[ i ];
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= arrayBuf[ i++ ];
+                    b1[ j ]	= arrayBuf[ i++ ];
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= arrayBuf[ i ];
+                    }
+                }
+            }
+        }
+    }
+
+    // native path: mono files are transferred without intermediate copy
+    private static class DoubleCodec
+    extends SampleCodec
+    {
+        private final DoubleBuffer	viewBuf;
+        private final double[]		arrayBuf;
+
+        protected DoubleCodec( ByteBuffer buf, int channels )
+        {
+            super( buf, channels, channels << 3 );
+            buf.clear();
+            viewBuf		= buf.asDoubleBuffer();
+            arrayBuf	= new double[ viewBuf.capacity() ];
+        }
+
+        private DoubleBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asDoubleBuffer();
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    arrayBuf[ i ] = b[ j ];
+                }
+            } else if( channels == 2 ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    arrayBuf[ i++ ] = b[ j ];
+                    arrayBuf[ i++ ] = b1[ j ];
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        arrayBuf[ i ] = b[ j ];
+                    }
+                }
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            float[]		b, b1;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( channels == 1 ) {
+                b = frames[ 0 ];
+                if( b == null ) return;
+                for( i = 0, j = offset; i < m; i++, j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i ];
+                }
+            } else if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= (float) arrayBuf[ i++ ];
+                    b1[ j ]	= (float) arrayBuf[ i++ ];
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= (float) arrayBuf[ i ];
+                    }
+                }
+            }
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+
+            for( int i = 0; i < m; i++, offset++ ) {
+                arrayBuf[ i ] = frames[ offset ];
+            }
+            viewBuf.clear();
+            viewBuf.put( arrayBuf, 0, m );
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            for( int i = 0; i < m; i++, offset++ ) {
+                frames[ offset ] = (float) arrayBuf[ i ];
+            }
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            viewBuf.clear();
+            if( channels == 1 ) {
+                viewBuf.put( frames[ 0 ], offset, length );
+            } else {
+                if( channels == 2 ) {
+                    b	= frames[ 0 ];
+                    b1	= frames[ 1 ];
+                    for( i = 0, j = offset; i < m; j++ ) {
+                        arrayBuf[ i++ ] = b[ j ];
+                        arrayBuf[ i++ ] = b1[ j ];
+                    }
+                } else {
+                    for( ch = 0; ch < channels; ch++ ) {
+                        b = frames[ ch ];
+                        for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                            arrayBuf[ i ] = b[ j ];
+                        }
+                    }
+                }
+                viewBuf.put( arrayBuf, 0, m );
+            }
+            buf.rewind().limit( length * bytesPerFrame );
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            final int	m	= length * channels;
+            int			i, j, ch;
+            double[]	b, b1;
+
+            if( channels == 1 ) {
+                if( frames[ 0 ] != null ) view( src ).get( frames[ 0 ], offset, length );
+                src.position( src.position() + length * bytesPerFrame );
+                return;
+            }
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            if( (channels == 2) && (frames[ 0 ] != null) && (frames[ 1 ] != null) ) {
+                b	= frames[ 0 ];
+                b1	= frames[ 1 ];
+                for( i = 0, j = offset; i < m; j++ ) {
+                    b[ j ]	= arrayBuf[ i++ ];
+                    b1[ j ]	= arrayBuf[ i++ ];
+                }
+            } else {
+                for( ch = 0; ch < channels; ch++ ) {
+                    b = frames[ ch ];
+                    if( b == null ) continue;
+                    for( i = ch, j = offset; i < m; i += channels, j++ ) {
+                        b[ j ]	= arrayBuf[ i ];
+                    }
+                }
+            }
+        }
+    }
+}
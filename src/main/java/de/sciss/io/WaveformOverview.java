@@ -0,0 +1,392 @@
+/*
+ *  WaveformOverview.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *	A multi-resolution overview of a sound file, suitable
+ *	for drawing waveforms at any zoom level. For each channel,
+ *	the maximum, minimum and RMS value are computed at several
+ *	decimation factors (see <code>DECIMATIONS</code>). The levels
+ *	are calculated in a single pass over the source file.
+ *	<p>
+ *	The overview is stored in a cache file of the <code>CacheManager</code>.
+ *	It is a 32-bit floating point AIFF file with
+ *	<code>numChannels * NUM_STATS</code> channels, containing
+ *	the levels one after the other, from the finest to the coarsest.
+ *	Its application chunk holds an encoded <code>AudioFileCacheInfo</code>,
+ *	so a cache file is only reused if name, modification date, channels
+ *	and length of the source file are unchanged.
+ *	<p>
+ *	Once opened, queries are served from the cache file
+ *	without touching the source file. <code>read</code> may be
+ *	called concurrently from multiple threads.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ *
+ *	@see	CacheManager
+ *	@see	AudioFileCacheInfo
+ */
+public class WaveformOverview
+{
+    /**
+     *	The model code written into the <code>AudioFileCacheInfo</code>.
+     *	Changes whenever the file layout or the decimation factors change.
+     */
+    public static final int		MODEL_MINMAXRMS	= 1;
+
+    /**
+     *	Application code of the cache files
+     */
+    public static final String	APP_CODE		= "Ovrv";
+
+    /**
+     *	The decimation factors of the levels, from fine to coarse.
+     *	Each factor is a multiple of the preceding one.
+     */
+    public static final int[]	DECIMATIONS		= { 64, 512, 4096, 32768 };
+
+    /**
+     *	Number of values per channel in a decimated frame
+     */
+    public static final int		NUM_STATS		= 3;
+    /**
+     *	Index offset of the maximum value. For channel <code>ch</code>,
+     *	the maximum is found in <code>data[ ch * NUM_STATS + STAT_MAX ]</code>.
+     */
+    public static final int		STAT_MAX		= 0;
+    /**
+     *	Index offset of the minimum value
+     */
+    public static final int		STAT_MIN		= 1;
+    /**
+     *	Index offset of the root-mean-square value
+     */
+    public static final int		STAT_RMS		= 2;
+
+    private static final int	BLOCK_SIZE		= 8192;
+
+    private final int			numChannels;
+    private final long			numFrames;
+    private final AudioFile[]	files;
+    private final long[]		offsets;
+    private final long[]		lengths;
+    private final File			cacheFile;
+
+    WaveformOverview( int numChannels, long numFrames, AudioFile[] files, long[] offsets, File cacheFile )
+    {
+        this.numChannels	= numChannels;
+        this.numFrames		= numFrames;
+        this.files			= files;
+        this.offsets		= offsets;
+        this.cacheFile		= cacheFile;
+        lengths				= new long[ DECIMATIONS.length ];
+        for( int lvl = 0; lvl < lengths.length; lvl++ ) {
+            lengths[ lvl ]	= levelLength( numFrames, lvl );
+        }
+    }
+
+    /**
+     *	Opens the overview of a sound file. If the cache manager
+     *	holds a valid cache file for it, that file is used. Otherwise
+     *	the overview is calculated and written to a new cache file.
+     *	If the cache manager is <code>null</code> or inactive, or if the
+     *	source has no file, as is the case for sound files in memory,
+     *	the overview is written to a temporary file which is deleted upon exit.
+     *
+     *	@param	source	the sound file to get the overview for.
+     *					the file's frame position is modified.
+     *	@param	cm		the cache manager or <code>null</code>
+     *	@return	the overview, which should be closed when not needed any more
+     *
+     *	@throws	IOException	if the source file could not be read
+     *						or the cache file could not be written
+     */
+    public static WaveformOverview open( AudioFile source, CacheManager cm )
+    throws IOException
+    {
+        WaveformOverview ov = openCached( source, cm );
+        if( ov != null ) return ov;
+
+        final boolean				useCache	= isUsable( cm ) && (source.getFile() != null);
+        final AudioFileCacheInfo	info		= useCache ? createInfo( source ) : null;
+        final File					f			= useCache ? cm.createCacheFileName( source.getFile() ) :
+                                                             File.createTempFile( "ovr", ".aif" );
+        final AudioFile				af			= createCacheFile( f, source.getDescr(), info );
+        final long					n			= source.getFrameNum();
+        final float[][]				buf			= new float[ source.getChannelNum() ][ BLOCK_SIZE ];
+        final OverviewBuilder		builder;
+
+        if( !useCache ) f.deleteOnExit();
+        try {
+            ov		= createForCacheFile( af, source.getChannelNum(), n, f );
+            builder	= new OverviewBuilder( ov.numChannels, ov.files, ov.offsets );
+            source.seekFrame( 0 );
+            for( long pos = 0; pos < n; ) {
+                final int chunk = (int) Math.min( BLOCK_SIZE, n - pos );
+                source.readFrames( buf, 0, chunk );
+                builder.process( buf, 0, chunk );
+                pos += chunk;
+            }
+            builder.finish();
+            af.flush();
+        }
+        catch( IOException e1 ) {
+            af.cleanUp();
+            f.delete();
+            throw e1;
+        }
+
+        if( useCache ) cm.addFile( f );
+        return ov;
+    }
+
+    /**
+     *	Opens the overview of a sound file, if the cache manager
+     *	holds a valid cache file for it.
+     *
+     *	@param	source	the sound file to get the overview for
+     *	@param	cm		the cache manager or <code>null</code>
+     *	@return	the overview, or <code>null</code> if there is no valid cache file
+     *			or the source has no file
+     */
+    public static WaveformOverview openCached( AudioFile source, CacheManager cm )
+    throws IOException
+    {
+        if( !isUsable( cm ) || (source.getFile() == null) ) return null;
+
+        final File f = cm.createCacheFileName( source.getFile() );
+        if( !f.isFile() ) return null;
+
+        final AudioFileCacheInfo	info	= createInfo( source );
+        AudioFile					af		= null;
+        try {
+            af = AudioFile.openAsRead( f );
+            af.readAppCode();
+            final AudioFileDescr	afd		= af.getDescr();
+            final Object			o		= afd.getProperty( AudioFileDescr.KEY_APPCODE );
+            if( APP_CODE.equals( afd.appCode ) && (o instanceof byte[]) &&
+                info.equals( AudioFileCacheInfo.decode( (byte[]) o ))) {
+
+                final WaveformOverview ov = createForCacheFile( af, source.getChannelNum(), source.getFrameNum(), f );
+                if( af.getFrameNum() == ov.offsets[ ov.offsets.length - 1 ] + ov.lengths[ ov.lengths.length - 1 ]) {
+                    return ov;
+                }
+            }
+        }
+        catch( IOException e1 ) { /* corrupt cache file, ignore */ }
+
+        if( af != null ) af.cleanUp();
+        cm.removeFile( f );
+        return null;
+    }
+
+    /*
+     *	Creates the AIFF cache file, its app chunk holding the cache info.
+     *	info may be null for temporary files
+     */
+    protected static AudioFile createCacheFile( File f, AudioFileDescr source, AudioFileCacheInfo info )
+    throws IOException
+    {
+        final AudioFileDescr afd	= new AudioFileDescr();
+
+        afd.file			= f;
+        afd.type			= AudioFileDescr.TYPE_AIFF;
+        afd.channels		= source.channels * NUM_STATS;
+        afd.rate			= source.rate;
+        afd.bitsPerSample	= 32;
+        afd.sampleFormat	= AudioFileDescr.FORMAT_FLOAT;
+        if( info != null ) {
+            afd.appCode		= APP_CODE;
+            afd.setProperty( AudioFileDescr.KEY_APPCODE, info.encode() );
+        }
+
+        final AudioFile af = AudioFile.openAsWrite( afd );
+        af.setDurabilityPolicy( DurabilityPolicy.NONE );
+        return af;
+    }
+
+    protected static AudioFileCacheInfo createInfo( InterleavedStreamFile source )
+    throws IOException
+    {
+        return new AudioFileCacheInfo( source, MODEL_MINMAXRMS, source.getFrameNum() );
+    }
+
+    private static WaveformOverview createForCacheFile( AudioFile af, int numChannels, long numFrames, File f )
+    {
+        final AudioFile[]	files	= new AudioFile[ DECIMATIONS.length ];
+        final long[]		offsets	= new long[ DECIMATIONS.length ];
+        long				off		= 0L;
+
+        for( int lvl = 0; lvl < files.length; lvl++ ) {
+            files[ lvl ]	= af;
+            offsets[ lvl ]	= off;
+            off			   += levelLength( numFrames, lvl );
+        }
+        return new WaveformOverview( numChannels, numFrames, files, offsets, f );
+    }
+
+    static boolean isUsable( CacheManager cm )
+    {
+        return (cm != null) && cm.isActive() && (cm.getFolder() != null);
+    }
+
+    /**
+     *	Returns the number of decimated frames
+     *	in a level for a given source length.
+     */
+    protected static long levelLength( long numFrames, int lvl )
+    {
+        return (numFrames + DECIMATIONS[ lvl ] - 1) / DECIMATIONS[ lvl ];
+    }
+
+    /**
+     *	Returns the number of source channels.
+     */
+    public int getNumChannels()
+    {
+        return numChannels;
+    }
+
+    /**
+     *	Returns the number of source frames covered by the overview.
+     */
+    public long getNumFrames()
+    {
+        return numFrames;
+    }
+
+    /**
+     *	Returns the cache file backing this overview.
+     */
+    public File getCacheFile()
+    {
+        return cacheFile;
+    }
+
+    /**
+     *	Reads the overview of a span of the source file, divided
+     *	into a given number of pixels. The level with the largest
+     *	decimation factor not exceeding the number of frames per
+     *	pixel is used, so the query does not touch the source file.
+     *	If the span is zoomed in further than the finest level,
+     *	adjacent pixels may share the same decimated frame.
+     *	Pixels beyond the end of the source are cleared.
+     *
+     *	@param	span	the span of source frames to cover
+     *	@param	data	the buffer to fill, with <code>numChannels * NUM_STATS</code>
+     *					arrays indexed by <code>ch * NUM_STATS + STAT_MAX</code> etc.
+     *	@param	offset	offset into the buffer arrays
+     *	@param	numPixels	the number of decimated values to calculate per array
+     *
+     *	@throws	IOException	if the cache file could not be read
+     */
+    public void read( Span span, float[][] data, int offset, int numPixels )
+    throws IOException
+    {
+        if( numPixels <= 0 ) return;
+
+        final double	spp		= (double) span.getLength() / numPixels;
+        final long		covered	= getNumFrames();
+        int				lvl		= 0;
+
+        while( (lvl + 1 < DECIMATIONS.length) && (DECIMATIONS[ lvl + 1 ] <= spp) ) lvl++;
+
+        final long		factor	= DECIMATIONS[ lvl ];
+        final long		avail	= getLength( lvl );
+        final long		start	= Math.min( avail, span.start / factor );
+        final long		stop	= Math.min( avail, Math.max( start + 1, (span.stop + factor - 1) / factor ));
+        final int		len		= (int) (stop - start);
+        final float[][]	buf		= new float[ numChannels * NUM_STATS ][ Math.max( 1, len )];
+        long			pos;
+        int				k0, k1;
+        float			mx, mn;
+        double			sq;
+        float[]			bMax, bMin, bRMS;
+
+        readLevel( lvl, start, buf, len );
+
+        for( int ch = 0, k = 0; ch < numChannels; ch++, k += NUM_STATS ) {
+            bMax = buf[ k + STAT_MAX ];
+            bMin = buf[ k + STAT_MIN ];
+            bRMS = buf[ k + STAT_RMS ];
+            for( int p = 0; p < numPixels; p++ ) {
+                pos	= (long) (span.start + p * spp);
+                k0	= pos < covered ? (int) (pos / factor - start) : len;
+                k1	= (int) ((long) Math.ceil( (span.start + (p + 1) * spp) / factor ) - start);
+                k1	= Math.min( len, Math.max( k0 + 1, k1 ));
+                mx	= 0f;
+                mn	= 0f;
+                sq	= 0.0;
+                if( (k0 >= 0) && (k0 < k1) ) {
+                    mx	= Float.NEGATIVE_INFINITY;
+                    mn	= Float.POSITIVE_INFINITY;
+                    for( int i = k0; i < k1; i++ ) {
+                        if( bMax[ i ] > mx ) mx = bMax[ i ];
+                        if( bMin[ i ] < mn ) mn = bMin[ i ];
+                        sq += bRMS[ i ] * bRMS[ i ];
+                    }
+                    sq /= k1 - k0;
+                }
+                data[ k + STAT_MAX ][ offset + p ] = mx;
+                data[ k + STAT_MIN ][ offset + p ] = mn;
+                data[ k + STAT_RMS ][ offset + p ] = (float) Math.sqrt( sq );
+            }
+        }
+    }
+
+    /*
+     *	Number of decimated frames available in a level.
+     *	Subclasses may report a growing length.
+     */
+    protected long getLength( int lvl )
+    {
+        return lengths[ lvl ];
+    }
+
+    /*
+     *	Reads decimated frames of a level. Subclasses may
+     *	override this to serve frames not yet written.
+     */
+    protected void readLevel( int lvl, long start, float[][] buf, int len )
+    throws IOException
+    {
+        if( len > 0 ) files[ lvl ].readFrames( offsets[ lvl ] + start, buf, 0, len );
+    }
+
+    /**
+     *	Closes the cache file. The file
+     *	itself remains in the cache folder.
+     */
+    public void close()
+    throws IOException
+    {
+        files[ 0 ].close();
+    }
+}
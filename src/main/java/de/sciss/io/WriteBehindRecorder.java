@@ -0,0 +1,264 @@
+/*
+ *  WriteBehindRecorder.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *	A recording front-end for files opened with
+ *	<code>AudioFile.openAsWrite</code>. The capture thread
+ *	hands frames to <code>writeFrames</code> which merely copies
+ *	them into a ring buffer, without blocking, acquiring locks or
+ *	allocating memory. A background thread encodes and writes the
+ *	frames to the file, and periodically calls <code>flush</code>
+ *	so that the header reflects the recorded length. Thus
+ *	neither disc writes nor <code>fsync</code> calls happen on
+ *	the capture thread.
+ *	<p>
+ *	If the disc cannot keep up and the ring runs full, the
+ *	excess frames are dropped and counted as an overrun.
+ *	<code>writeFrames</code> must always be called from the same thread.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ */
+public class WriteBehindRecorder
+implements Runnable
+{
+    private final InterleavedStreamFile	f;
+    private final int					channels;
+    private final int					capacity;
+    private final float[][]				ring;
+    private final int					wakeFrames;
+    private final long					flushNanos;
+    private final Thread				thread;
+
+    // frames put into the ring by the capture thread
+    private volatile long				writePos		= 0L;
+    // frames written to the file by the disc thread
+    private volatile long				readPos			= 0L;
+
+    private volatile boolean			running			= true;
+    private volatile IOException		ioException		= null;
+
+    private volatile long				overruns		= 0L;
+    private volatile long				overrunFrames	= 0L;
+    private volatile int				highWaterMark	= 0;
+
+    /**
+     *	Creates a new recorder and starts its disc thread.
+     *
+     *	@param	f				the file to write to, usually an
+     *							<code>AudioFile</code> opened for writing
+     *	@param	capacity		size of the ring buffer in sample frames
+     *	@param	flushInterval	the interval in milliseconds at which
+     *							the file is flushed and the header updated
+     */
+    public WriteBehindRecorder( InterleavedStreamFile f, int capacity, int flushInterval )
+    {
+        if( (capacity <= 0) || (flushInterval <= 0) ) throw new IllegalArgumentException();
+
+        this.f			= f;
+        this.capacity	= capacity;
+        channels		= f.getChannelNum();
+        ring			= new float[ channels ][ capacity ];
+        wakeFrames		= Math.max( 1, capacity >> 3 );
+        flushNanos		= flushInterval * 1000000L;
+
+        thread			= new Thread( this, f.getFile() == null ? "WriteBehind" : "WriteBehind " + f.getFile().getName() );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MAX_PRIORITY );
+        thread.start();
+    }
+
+    /**
+     *	Puts frames into the ring buffer. This method never blocks.
+     *	If the ring does not have enough space left, only the frames
+     *	that fit are taken and an overrun is counted.
+     *
+     *	@param	data	the frames to record. <code>null</code> channels
+     *					are recorded as silence
+     *	@param	offset	offset in the buffer in sample frames
+     *	@param	length	number of frames to record
+     *	@return	the number of frames actually taken
+     */
+    public int writeFrames( float[][] data, int offset, int length )
+    {
+        final long	w		= writePos;
+        final long	avail	= w - readPos;
+        final int	num		= (int) Math.min( length, capacity - avail );
+        int			ringOff	= (int) (w % capacity);
+        int			chunk;
+        float[]		src, dst;
+
+        if( num < length ) {
+            overruns++;
+            overrunFrames += length - num;
+        }
+        if( avail + num > highWaterMark ) highWaterMark = (int) (avail + num);
+
+        for( int i = 0; i < num; i += chunk ) {
+            chunk = Math.min( num - i, capacity - ringOff );
+            for( int ch = 0; ch < channels; ch++ ) {
+                src = data[ ch ];
+                dst = ring[ ch ];
+                if( src == null ) {
+                    for( int j = ringOff, k = ringOff + chunk; j < k; j++ ) dst[ j ] = 0f;
+                } else {
+                    System.arraycopy( src, offset + i, dst, ringOff, chunk );
+                }
+            }
+            ringOff = 0;
+        }
+
+        writePos = w + num;	// publish
+        if( avail + num >= wakeFrames ) LockSupport.unpark( thread );
+        return num;
+    }
+
+    /**
+     *	Stops recording. All frames still in the ring are
+     *	written, then the file is closed.
+     *
+     *	@throws	IOException	if writing or closing the file failed.
+     *						this includes errors that occurred
+     *						earlier on the disc thread
+     */
+    public void close()
+    throws IOException
+    {
+        running = false;
+        LockSupport.unpark( thread );
+        try {
+            thread.join();
+        }
+        catch( InterruptedException e1 ) { /* ignore */ }
+
+        try {
+            if( ioException != null ) throw ioException;
+        }
+        finally {
+            f.close();
+        }
+    }
+
+    /**
+     *	Returns the current fill level of the ring.
+     *	May be called from any thread.
+     *
+     *	@return	the fraction of the ring occupied by frames
+     *			not yet written, between <code>0.0</code> and <code>1.0</code>
+     */
+    public float getFillLevel()
+    {
+        final long r = readPos;
+        return (float) (writePos - r) / capacity;
+    }
+
+    /**
+     *	Returns the number of frames that have been written to the file.
+     */
+    public long getFramesWritten()
+    {
+        return readPos;
+    }
+
+    /**
+     *	Returns the number of <code>writeFrames</code> calls which
+     *	had to drop frames because the ring was full.
+     */
+    public long getOverrunCount()
+    {
+        return overruns;
+    }
+
+    /**
+     *	Returns the total number of dropped frames.
+     */
+    public long getOverrunFrames()
+    {
+        return overrunFrames;
+    }
+
+    /**
+     *	Returns the maximum number of frames that were
+     *	waiting in the ring at any time.
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    /**
+     *	Returns the exception that stopped the disc thread
+     *	from writing, or <code>null</code> if no error occurred.
+     *	After an error, incoming frames are discarded.
+     */
+    public IOException getException()
+    {
+        return ioException;
+    }
+
+// ---------------- Runnable interface ----------------
+
+    /**
+     *	The disc thread's body. Do not call directly.
+     */
+    public void run()
+    {
+        long	r			= readPos;
+        long	nextFlush	= System.nanoTime() + flushNanos;
+        long	w, now;
+        boolean	keepGoing;
+        int		chunk, ringOff;
+
+        do {
+            keepGoing	= running;	// read before writePos, so nothing is lost on close
+            w			= writePos;
+            try {
+                while( r < w ) {
+                    ringOff	= (int) (r % capacity);
+                    chunk	= (int) Math.min( w - r, capacity - ringOff );
+                    if( ioException == null ) f.writeFrames( ring, ringOff, chunk );
+                    r	   += chunk;
+                    readPos	= r;
+                }
+                now = System.nanoTime();
+                if( now - nextFlush >= 0 ) {
+                    if( ioException == null ) f.flush();
+                    nextFlush = now + flushNanos;
+                }
+            }
+            catch( IOException e1 ) {
+                ioException = e1;
+                readPos		= w;	// keep draining, so the capture side does not overrun
+                r			= w;
+            }
+            if( keepGoing ) LockSupport.parkNanos( this, Math.max( 0L, nextFlush - System.nanoTime() ));
+        } while( keepGoing );
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *  VectorCodecProvider.java
+ *  (ScissLib)
+ *
+ *  Copyright (c) 2004-2016 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This library is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU Lesser General Public
+ *	License as published by the Free Software Foundation; either
+ *	version 2.1 of the License, or (at your option) any later version.
+ *
+ *	This library is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *	Lesser General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Lesser General Public
+ *	License along with this library; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ *	Sample codecs which decode 16 and 32 bit integer and 64 bit
+ *	floating point samples to 32 bit floating point frames using
+ *	the vector API of the JDK (<code>jdk.incubator.vector</code>).
+ *	The arithmetic is the same as in the built-in codecs, so the results
+ *	are identical.
+ *	<p>
+ *	Encoding and double precision frames are left to the built-in
+ *	codecs, as are 24 bit samples. Java 17 does not compile the
+ *	conversion of float to integer lanes to vector instructions,
+ *	which makes it several times slower than the plain loop, and
+ *	unpacking 24 bit samples costs more than the vector unit saves.
+ *	<p>
+ *	This class is not part of the main library, since it requires
+ *	Java 17. It is loaded by <code>SampleCodec</code> when it is found
+ *	on the class path and the JVM runs with
+ *	<code>--add-modules jdk.incubator.vector</code>. It refuses to load
+ *	if the processor has no vector unit, because the vector API would
+ *	then be much slower than plain loops.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.10, 17-Oct-26
+ *
+ *	@see		SampleCodec
+ */
+public class VectorCodecProvider
+implements SampleCodec.Provider
+{
+    // species must be constants for the vector operations to be compiled
+    // to machine instructions. the integer species have the same number
+    // of lanes as the float species, and so does SFD for SD.
+    private static final VectorSpecies<Float>	SF	= FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short>	SS	= VectorSpecies.of( short.class, VectorShape.forBitSize( SF.length() << 4 ));
+    private static final VectorSpecies<Integer>	SI	= VectorSpecies.of( int.class, SF.vectorShape() );
+    private static final VectorSpecies<Double>	SD	= DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float>	SFD	= VectorSpecies.of( float.class, VectorShape.forBitSize( SD.length() << 5 ));
+
+    /**
+     *	Creates the provider.
+     *
+     *	@throws	UnsupportedOperationException	if the processor cannot
+     *											handle at least four floats at once
+     */
+    public VectorCodecProvider()
+    {
+        if( SF.length() < 4 ) throw new UnsupportedOperationException( SF.toString() );
+    }
+
+    public int getFrameSize( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM )
+    {
+        switch( afd.sampleFormat ) {
+        case AudioFileDescr.FORMAT_INT:
+            switch( afd.bitsPerSample ) {
+            case 16:
+            case 32:
+                return( (afd.bitsPerSample >> 3) * afd.channels );
+            }
+            break;
+        case AudioFileDescr.FORMAT_FLOAT:
+            if( afd.bitsPerSample == 64 ) return( afd.channels << 3 );
+            break;
+        }
+        return -1;
+    }
+
+    public SampleCodec createCodec( AudioFileDescr afd, ByteOrder order, boolean unsignedPCM,
+                                    ByteBuffer buf )
+    {
+        final SampleCodec scalar = SampleCodec.builtIn.createCodec( afd, order, unsignedPCM, buf );
+
+        switch( afd.bitsPerSample ) {
+        case 16:
+            return new ShortCodec( buf, afd.channels, scalar );
+        case 32:
+            return new IntCodec( buf, afd.channels, scalar );
+        case 64:
+            return new DoubleCodec( buf, afd.channels, scalar );
+        }
+        throw new IllegalArgumentException();
+    }
+
+// -------- kernels --------
+
+    private static void toFloat( short[] a, float[] b, int bOff, int n )
+    {
+        final int	stop	= SF.loopBound( n );
+        int			i		= 0;
+
+        for( ; i < stop; i += SF.length() ) {
+            ((FloatVector) ShortVector.fromArray( SS, a, i )
+                .convertShape( VectorOperators.S2F, SF, 0 ))
+                .div( (float) 0x7FFF ).intoArray( b, bOff + i );
+        }
+        for( ; i < n; i++ ) {
+            b[ bOff + i ] = (float) a[ i ] / 0x7FFF;
+        }
+    }
+
+    private static void toFloat( int[] a, float[] b, int bOff, int n )
+    {
+        final int	stop	= SF.loopBound( n );
+        int			i		= 0;
+
+        for( ; i < stop; i += SF.length() ) {
+            ((FloatVector) IntVector.fromArray( SI, a, i )
+                .convertShape( VectorOperators.I2F, SF, 0 ))
+                .div( (float) 0x7FFFFFFF ).intoArray( b, bOff + i );
+        }
+        for( ; i < n; i++ ) {
+            b[ bOff + i ] = (float) a[ i ] / 0x7FFFFFFF;
+        }
+    }
+
+    private static void toFloat( double[] a, float[] b, int bOff, int n )
+    {
+        final int	stop	= SD.loopBound( n );
+        int			i		= 0;
+
+        for( ; i < stop; i += SD.length() ) {
+            ((FloatVector) DoubleVector.fromArray( SD, a, i )
+                .convertShape( VectorOperators.D2F, SFD, 0 )).intoArray( b, bOff + i );
+        }
+        for( ; i < n; i++ ) {
+            b[ bOff + i ] = (float) a[ i ];
+        }
+    }
+
+// -------- codecs --------
+
+    // the codecs implement the interleaved decoding. deinterleaved
+    // frames are gathered from an interleaved buffer, except for
+    // mono where the two forms are the same.
+    private static abstract class VectorCodec
+    extends SampleCodec
+    {
+        private final SampleCodec	scalar;
+        private final float[]		floatBuf;
+        private final int[]			strides;
+
+        protected VectorCodec( ByteBuffer buf, int channels, int bytesPerFrame, SampleCodec scalar )
+        {
+            super( buf, channels, bytesPerFrame );
+            this.scalar	= scalar;
+            floatBuf	= channels > 1 ? new float[ buf.capacity() / bytesPerFrame * channels ] : null;
+            strides		= new int[ SF.length() ];
+            for( int i = 0; i < strides.length; i++ ) {
+                strides[ i ] = i * channels;
+            }
+        }
+
+        public void decodeFrames( ByteBuffer src, float[][] frames, int offset, int length )
+        {
+            if( channels == 1 ) {
+                if( frames[ 0 ] != null ) {
+                    decodeFrames( src, frames[ 0 ], offset, length );
+                } else {
+                    src.position( src.position() + length * bytesPerFrame );
+                }
+                return;
+            }
+
+            final int	stop	= SF.loopBound( length );
+            final int	step	= SF.length() * channels;
+            int			i, j, k, ch;
+            float[]		b;
+
+            decodeFrames( src, floatBuf, 0, length );
+            for( ch = 0; ch < channels; ch++ ) {
+                b = frames[ ch ];
+                if( b == null ) continue;
+                for( i = 0, j = offset, k = ch; i < stop; i += SF.length(), j += SF.length(), k += step ) {
+                    FloatVector.fromArray( SF, floatBuf, k, strides, 0 ).intoArray( b, j );
+                }
+                for( ; i < length; i++, j++, k += channels ) {
+                    b[ j ] = floatBuf[ k ];
+                }
+            }
+        }
+
+        public void encodeFrames( float[][] frames, int offset, int length )
+        {
+            scalar.encodeFrames( frames, offset, length );
+        }
+
+        public void encodeFrames( float[] frames, int offset, int length )
+        {
+            scalar.encodeFrames( frames, offset, length );
+        }
+
+        public void encodeFrames( double[][] frames, int offset, int length )
+        {
+            scalar.encodeFrames( frames, offset, length );
+        }
+
+        public void decodeFrames( ByteBuffer src, double[][] frames, int offset, int length )
+        {
+            scalar.decodeFrames( src, frames, offset, length );
+        }
+    }
+
+    private static class ShortCodec
+    extends VectorCodec
+    {
+        private final ShortBuffer	viewBuf;
+        private final short[]		arrayBuf;
+
+        protected ShortCodec( ByteBuffer buf, int channels, SampleCodec scalar )
+        {
+            super( buf, channels, channels << 1, scalar );
+            buf.clear();
+            viewBuf		= buf.asShortBuffer();
+            arrayBuf	= new short[ viewBuf.capacity() ];
+        }
+
+        private ShortBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asShortBuffer();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int m = length * channels;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            toFloat( arrayBuf, frames, offset, m );
+        }
+    }
+
+    private static class IntCodec
+    extends VectorCodec
+    {
+        private final IntBuffer		viewBuf;
+        private final int[]			arrayBuf;
+
+        protected IntCodec( ByteBuffer buf, int channels, SampleCodec scalar )
+        {
+            super( buf, channels, channels << 2, scalar );
+            buf.clear();
+            viewBuf		= buf.asIntBuffer();
+            arrayBuf	= new int[ viewBuf.capacity() ];
+        }
+
+        private IntBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asIntBuffer();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int m = length * channels;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            toFloat( arrayBuf, frames, offset, m );
+        }
+    }
+
+    private static class DoubleCodec
+    extends VectorCodec
+    {
+        private final DoubleBuffer	viewBuf;
+        private final double[]		arrayBuf;
+
+        protected DoubleCodec( ByteBuffer buf, int channels, SampleCodec scalar )
+        {
+            super( buf, channels, channels << 3, scalar );
+            buf.clear();
+            viewBuf		= buf.asDoubleBuffer();
+            arrayBuf	= new double[ viewBuf.capacity() ];
+        }
+
+        private DoubleBuffer view( ByteBuffer src )
+        {
+            if( src == buf ) {
+                viewBuf.clear();
+                return viewBuf;
+            }
+            return src.asDoubleBuffer();
+        }
+
+        public void decodeFrames( ByteBuffer src, float[] frames, int offset, int length )
+        {
+            final int m = length * channels;
+
+            view( src ).get( arrayBuf, 0, m );
+            src.position( src.position() + length * bytesPerFrame );
+            toFloat( arrayBuf, frames, offset, m );
+        }
+    }
+}